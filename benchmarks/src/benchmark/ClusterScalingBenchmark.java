@@ -0,0 +1,140 @@
+package benchmark;
+
+import cluster.ClusterNode;
+import database.StorageMode;
+import server.MarsApiServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//Not a JMH benchmark, for the same reason as HttpLoadTest. Starts clusters of 1, 2, 4 and 8 nodes on loopback ports, each node joining
+//the first, and drives the same mix (95% retrieves of a hot set, 5% uploads) with requests spread evenly over the nodes, so most retrieves
+//take one forwarding hop as they would behind a load balancer that knows nothing of the ring. Throughput should grow with nodes only while
+//the machine has idle cores; all nodes share this process, so on a small machine the numbers show the cost of the hop rather than scaling.
+//java -Xmx4g -cp benchmarks.jar benchmark.ClusterScalingBenchmark 256 200000
+public class ClusterScalingBenchmark
+{
+    private static final int[] NODE_COUNTS = {1, 2, 4, 8};
+    private static final int HOT_SET = 1_000;
+    private static final String UPLOAD_BODY = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+
+    public static void main(String[] args) throws Exception
+    {
+        final var concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final var requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        MarsApiServer.applyTransportDefaults(concurrency * 2);
+        final var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(30)).build();
+        for (final var nodeCount : NODE_COUNTS)
+        {
+            final var nodes = new ArrayList<ClusterNode>();
+            try
+            {
+                for (int i = 0; i < nodeCount; i++)
+                {
+                    final var node = new ClusterNode(StorageMode.HEAP, new InetSocketAddress("127.0.0.1", 0), concurrency * 2);
+                    node.start();
+                    if (i > 0)
+                    {
+                        node.join(nodes.get(0).getUri());
+                    }
+                    nodes.add(node);
+                }
+                final var bases = new String[nodeCount];
+                for (int i = 0; i < nodeCount; i++)
+                {
+                    bases[i] = nodes.get(i).getUri() + MarsApiServer.CONTEXT;
+                }
+                final var hotIds = preload(client, bases);
+
+                run(client, bases, hotIds, concurrency, Math.min(requests, 20_000));
+                final var start = System.nanoTime();
+                final var latencies = run(client, bases, hotIds, concurrency, requests);
+                final var elapsed = System.nanoTime() - start;
+                System.out.printf("%d node(s): %.0f requests/s, p50 %.2f ms, p99 %.2f ms%n", nodeCount,
+                        requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsed, millis(latencies, 0.50), millis(latencies, 0.99));
+            }
+            finally
+            {
+                for (final var node : nodes)
+                {
+                    node.shutdown(Duration.ofSeconds(1));
+                }
+            }
+        }
+    }
+
+    private static String[] preload(HttpClient client, String[] bases) throws Exception
+    {
+        final var hotIds = new String[HOT_SET];
+        for (int i = 0; i < HOT_SET; i++)
+        {
+            final var body = client.send(upload(bases[i % bases.length]), HttpResponse.BodyHandlers.ofString()).body();
+            hotIds[i] = body.substring(body.indexOf('[') + 1, body.indexOf(']'));
+        }
+        return hotIds;
+    }
+
+    private static long[] run(HttpClient client, String[] bases, String[] hotIds, int concurrency, int requests) throws InterruptedException
+    {
+        final var permits = new Semaphore(concurrency);
+        final var done = new CountDownLatch(requests);
+        final var latencies = new long[requests];
+        final var failures = new LongAdder();
+        for (int i = 0; i < requests; i++)
+        {
+            permits.acquire();
+            final var slot = i;
+            final var sent = System.nanoTime();
+            client.sendAsync(request(bases, hotIds), HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) ->
+            {
+                latencies[slot] = System.nanoTime() - sent;
+                if (error != null || response.statusCode() >= 300)
+                {
+                    failures.increment();
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        if (failures.sum() > 0)
+        {
+            System.out.printf("%d of %d requests failed%n", failures.sum(), requests);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static HttpRequest request(String[] bases, String[] hotIds)
+    {
+        final var random = ThreadLocalRandom.current();
+        final var base = bases[random.nextInt(bases.length)];
+        if (random.nextInt(100) < 5)
+        {
+            return upload(base);
+        }
+        return HttpRequest.newBuilder(URI.create(base + "/retrieve/" + hotIds[random.nextInt(hotIds.length)] + "/TOP_LEVEL_CLEARANCE")).GET().build();
+    }
+
+    private static HttpRequest upload(String base)
+    {
+        return HttpRequest.newBuilder(URI.create(base + "/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString(UPLOAD_BODY)).build();
+    }
+
+    private static double millis(long[] sortedLatencies, double fraction)
+    {
+        return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, Math.ceil(fraction * sortedLatencies.length) - 1)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import models.MartianEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import serialisation.EntityParseResult;
+import serialisation.JsonEngine;
+
+import java.util.concurrent.TimeUnit;
+
+//Cost of accepting or turning away an upload body: the validating streaming parser against the previous path, which bound the body with
+//databind and caught whatever it threw. main() reports CPU time per body alongside gc.alloc.rate.norm (bytes/op), where the stack traces
+//of the previous path show up
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityValidationBenchmark
+{
+    @Param({"valid", "unknownField", "missingSpecies", "badClearance", "oversized", "malformed"})
+    public String body;
+
+    private String payload;
+
+    @Setup
+    public void setUp()
+    {
+        switch (body)
+        {
+            case "valid":
+                payload = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+                break;
+            case "unknownField":
+                payload = "{\"species\":\"Moon fly\",\"colour\":\"green\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+                break;
+            case "missingSpecies":
+                payload = "{\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+                break;
+            case "badClearance":
+                payload = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"COSMIC_CLEARANCE\"}";
+                break;
+            case "oversized":
+                payload = "{\"species\":\"" + "x".repeat(JsonEngine.MAX_ENTITY_BYTES) + "\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+                break;
+            default:
+                payload = "{\"species\":\"Moon fly\",";
+                break;
+        }
+    }
+
+    @Benchmark
+    public EntityParseResult streaming()
+    {
+        return JsonEngine.parseEntity(payload);
+    }
+
+    //As Deserialiser worked before: a missing species binds to null here and was only caught later, by the database
+    @Benchmark
+    public MartianEntity databindAndCatch()
+    {
+        try
+        {
+            return JsonEngine.readEntity(payload);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(EntityValidationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
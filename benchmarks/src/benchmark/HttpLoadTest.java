@@ -0,0 +1,135 @@
+package benchmark;
+
+import api.MarsApiResource;
+import database.Database;
+import models.Clearance;
+import server.MarsApiServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//Not a JMH benchmark: throughput and tail latency of the whole HTTP path under many open connections are what matter here.
+//Starts the server in-process and drives it with a read-heavy mix (95% retrieves of a hot set, 5% uploads) from the JDK client,
+//keeping up to the given number of requests in flight. Run with a raised file descriptor limit, e.g.
+//ulimit -n 65536 && java -Xmx4g -cp benchmarks.jar benchmark.HttpLoadTest 10000 500000
+public class HttpLoadTest
+{
+    private static final int HOT_SET = 1_000;
+    private static final String UPLOAD_BODY = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+
+    public static void main(String[] args) throws Exception
+    {
+        final var concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final var requests = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+
+        final var database = new Database();
+        final var hotIds = new String[HOT_SET];
+        for (int i = 0; i < HOT_SET; i++)
+        {
+            hotIds[i] = database.addMartian("Moon fly " + i, Clearance.MINIMAL_CLEARANCE);
+        }
+
+        MarsApiServer.applyTransportDefaults(concurrency);
+        final var server = new MarsApiServer(new MarsApiResource(database), new InetSocketAddress("localhost", 0), concurrency, concurrency);
+        server.start();
+        final var base = "http://localhost:" + server.getPort() + MarsApiServer.CONTEXT;
+        final var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(30)).build();
+        try
+        {
+            System.out.printf("Server on %s, warming up%n", server.usesVirtualThreads() ? "virtual threads" : "platform thread pool");
+            run(client, base, hotIds, concurrency, Math.min(requests, 50_000));
+            run(client, base, hotIds, concurrency, requests).print(concurrency);
+        }
+        finally
+        {
+            server.shutdown(Duration.ofSeconds(5));
+            database.close();
+        }
+    }
+
+    private static Result run(HttpClient client, String base, String[] hotIds, int concurrency, int requests) throws InterruptedException
+    {
+        final var permits = new Semaphore(concurrency);
+        final var done = new CountDownLatch(requests);
+        final var latencies = new long[requests];
+        final var next = new AtomicInteger();
+        final var failures = new LongAdder();
+
+        final var start = System.nanoTime();
+        for (int i = 0; i < requests; i++)
+        {
+            permits.acquire();
+            final var slot = next.getAndIncrement();
+            final var sent = System.nanoTime();
+            client.sendAsync(request(base, hotIds), HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) ->
+            {
+                latencies[slot] = System.nanoTime() - sent;
+                if (error != null || response.statusCode() >= 300)
+                {
+                    failures.increment();
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        final var elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new Result(requests, failures.sum(), elapsed, latencies);
+    }
+
+    private static HttpRequest request(String base, String[] hotIds)
+    {
+        final var random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < 5)
+        {
+            return HttpRequest.newBuilder(URI.create(base + "/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString(UPLOAD_BODY)).build();
+        }
+        return HttpRequest.newBuilder(URI.create(base + "/retrieve/" + hotIds[random.nextInt(hotIds.length)] + "/TOP_LEVEL_CLEARANCE")).GET().build();
+    }
+
+    private static final class Result
+    {
+        private final int requests;
+        private final long failures;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+
+        private Result(int requests, long failures, long elapsedNanos, long[] sortedLatencies)
+        {
+            this.requests = requests;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+        }
+
+        private void print(int concurrency)
+        {
+            System.out.printf("%d connections: %d requests (%d failed) at %.0f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    concurrency, requests, failures, requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+                    millis(percentile(0.50)), millis(percentile(0.99)), millis(sortedLatencies[sortedLatencies.length - 1]));
+        }
+
+        private long percentile(double fraction)
+        {
+            return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, Math.ceil(fraction * sortedLatencies.length) - 1)];
+        }
+
+        private static double millis(long nanos)
+        {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
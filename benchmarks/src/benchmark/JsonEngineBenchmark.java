@@ -0,0 +1,67 @@
+package benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import models.Clearance;
+import models.MartianEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import serialisation.JsonEngine;
+
+import java.util.concurrent.TimeUnit;
+
+//Compares the old per-call ObjectMapper path against the shared JsonEngine. Run main() to get throughput alongside gc.alloc.rate.norm (bytes/op)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonEngineBenchmark
+{
+    private final String payload = "{\"species\": \"Moon fly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}";
+    private final MartianEntity entity = new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE);
+
+    @Benchmark
+    public MartianEntity deserialisePerCallObjectMapper() throws JsonProcessingException
+    {
+        return new ObjectMapper().readValue(payload, MartianEntity.class);
+    }
+
+    @Benchmark
+    public MartianEntity deserialiseSharedReader() throws JsonProcessingException
+    {
+        return JsonEngine.readEntity(payload);
+    }
+
+    @Benchmark
+    public String serialisePerCallObjectMapper() throws JsonProcessingException
+    {
+        return new ObjectMapper().writeValueAsString(entity);
+    }
+
+    @Benchmark
+    public String serialiseSharedWriter() throws JsonProcessingException
+    {
+        return JsonEngine.writeEntity(entity);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(JsonEngineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
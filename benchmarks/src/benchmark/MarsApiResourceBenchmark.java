@@ -0,0 +1,118 @@
+package benchmark;
+
+import api.MarsApiResource;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import models.Clearance;
+import models.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+//Baseline for every MarsApiResource endpoint. main() sweeps thread counts and writes JSON results so later storage/serialisation changes can be diffed against them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class MarsApiResourceBenchmark
+{
+    private static final String PAYLOAD = "{\"species\": \"Moon fly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}";
+    private static final String UPDATED_PAYLOAD = "{\"species\": \"Mechanised Moonfly\", \"clearanceRequired\": \"STANDARD_CLEARANCE\"}";
+    private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+    @Param({"1000", "100000", "10000000"})
+    public int datasetSize;
+
+    private MarsApiResource apiResource;
+    //Slots can be rewritten by deleteAndRecreate; two threads racing on one slot just measures a 404 delete
+    private String[] ids;
+
+    @State(Scope.Thread)
+    public static class IdPicker
+    {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound)
+        {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void populate()
+    {
+        apiResource = new MarsApiResource();
+        ids = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++)
+        {
+            ids[i] = apiResource.createMartianEntity(PAYLOAD).getId();
+        }
+    }
+
+    //Grows the dataset for the length of the trial; the other benchmarks keep it at datasetSize
+    @Benchmark
+    public Response createMartianEntity()
+    {
+        return apiResource.createMartianEntity(PAYLOAD);
+    }
+
+    @Benchmark
+    public Response retrieveMartianEntity(IdPicker picker) throws JsonProcessingException
+    {
+        return apiResource.retrieveMartianEntity(ids[picker.next(datasetSize)], Clearance.TOP_LEVEL_CLEARANCE);
+    }
+
+    @Benchmark
+    public Response updateMartianEntity(IdPicker picker)
+    {
+        return apiResource.updateMartianEntity(UPDATED_PAYLOAD, ids[picker.next(datasetSize)], Clearance.TOP_LEVEL_CLEARANCE);
+    }
+
+    @Benchmark
+    public Response deleteAndRecreateMartianEntry(IdPicker picker)
+    {
+        final var slot = picker.next(datasetSize);
+        apiResource.deleteMartianEntry(ids[slot], Clearance.TOP_LEVEL_CLEARANCE);
+        final var created = apiResource.createMartianEntity(PAYLOAD);
+        ids[slot] = created.getId();
+        return created;
+    }
+
+    @Benchmark
+    public int countOfEntities()
+    {
+        return apiResource.countOfEntities();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        for (final var threads : THREAD_COUNTS)
+        {
+            new Runner(new OptionsBuilder()
+                    .include(MarsApiResourceBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(String.format("mars-api-baseline-%d-threads.json", threads))
+                    .build()).run();
+        }
+    }
+}
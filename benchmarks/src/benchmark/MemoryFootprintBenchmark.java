@@ -0,0 +1,51 @@
+package benchmark;
+
+import database.Database;
+import database.StorageMode;
+import models.Clearance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+//Not a JMH benchmark: retained heap is a property of the populated store rather than of an operation.
+//Run each mode in its own JVM with a fixed heap, e.g. java -Xms16g -Xmx16g -cp benchmarks.jar benchmark.MemoryFootprintBenchmark COMPACT 50000000.
+//By default it measures the database the server opens for the mode; a third argument of true or false overrides whether it is indexed
+public class MemoryFootprintBenchmark
+{
+    private static final int DISTINCT_SPECIES = 1_000;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        final var storageMode = args.length > 0 ? StorageMode.valueOf(args[0]) : StorageMode.COMPACT;
+        final var entities = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        final var clearances = Clearance.values();
+
+        final var baseline = usedHeapAfterGc();
+        final var gcTimeBefore = totalGcMillis();
+        final var database = args.length > 2 ? new Database(storageMode, Boolean.parseBoolean(args[2])) : new Database(storageMode);
+        for (int i = 0; i < entities; i++)
+        {
+            database.addMartian("Moon fly " + (i % DISTINCT_SPECIES), clearances[i % clearances.length]);
+        }
+        final var gcMillis = totalGcMillis() - gcTimeBefore;
+        final var retained = usedHeapAfterGc() - baseline;
+
+        System.out.printf("%s (%s): %d entities, %d MiB retained, %.1f bytes/entity, %d ms in GC while loading%n",
+                storageMode, database.hasSecondaryIndexes() ? "indexed" : "unindexed", database.count(), retained >> 20, retained / (double) entities, gcMillis);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long totalGcMillis()
+    {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
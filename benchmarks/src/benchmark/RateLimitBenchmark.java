@@ -0,0 +1,101 @@
+package benchmark;
+
+import api.MarsApiResource;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import database.Database;
+import models.Clearance;
+import models.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import server.ClearanceRateLimits;
+
+import java.util.concurrent.TimeUnit;
+
+//What the admission check adds to each request: a level with no limit, one whose bucket admits every call (the compare-and-set path) and
+//one that is exhausted (the read-only refusal path), alone and with four threads on the same bucket. A retrieve through the resource is
+//the yardstick. main() reports CPU time per call alongside gc.alloc.rate.norm (bytes/op), which should be zero for every check
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimitBenchmark
+{
+    private final ClearanceRateLimits limits = ClearanceRateLimits.unlimited()
+            //A permit every nanosecond with a two-second burst: never runs dry, so every call takes the compare-and-set
+            .limit(Clearance.STANDARD_CLEARANCE, 1e9, Integer.MAX_VALUE)
+            //One permit an hour, taken in setup, so every call is refused
+            .limit(Clearance.ACCESS_RESTRICTED, 1.0 / 3600, 1);
+    private MarsApiResource resource;
+    private String id;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        limits.tryAcquire(Clearance.ACCESS_RESTRICTED);
+        final var database = new Database();
+        id = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        resource = new MarsApiResource(database);
+    }
+
+    @Benchmark
+    public long unlimited()
+    {
+        return limits.tryAcquire(Clearance.TOP_LEVEL_CLEARANCE);
+    }
+
+    @Benchmark
+    public long admitted()
+    {
+        return limits.tryAcquire(Clearance.STANDARD_CLEARANCE);
+    }
+
+    @Benchmark
+    public long refused()
+    {
+        return limits.tryAcquire(Clearance.ACCESS_RESTRICTED);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long admittedContended()
+    {
+        return limits.tryAcquire(Clearance.STANDARD_CLEARANCE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long refusedContended()
+    {
+        return limits.tryAcquire(Clearance.ACCESS_RESTRICTED);
+    }
+
+    @Benchmark
+    public Response retrieveForScale() throws JsonProcessingException
+    {
+        return resource.retrieveMartianEntity(id, Clearance.TOP_LEVEL_CLEARANCE);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(RateLimitBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+package benchmark;
+
+import database.Database;
+import models.Clearance;
+import models.MartianEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+//Time to reopen a persistent Database, either from the log alone or from a snapshot plus an empty log tail
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RecoveryBenchmark
+{
+    private static final int BATCH_SIZE = 10_000;
+
+    @Param({"100000", "1000000"})
+    public int datasetSize;
+
+    @Param({"false", "true"})
+    public boolean fromSnapshot;
+
+    private Path dataDirectory;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException
+    {
+        dataDirectory = Files.createTempDirectory("martian-recovery");
+        try (final var database = new Database(dataDirectory, Duration.ZERO))
+        {
+            final var batch = new ArrayList<MartianEntity>(BATCH_SIZE);
+            for (int i = 0; i < datasetSize; i++)
+            {
+                batch.add(new MartianEntity("Moon fly " + (i % 100), Clearance.MINIMAL_CLEARANCE));
+                if (batch.size() == BATCH_SIZE)
+                {
+                    database.addMartians(batch);
+                    batch.clear();
+                }
+            }
+            database.addMartians(batch);
+            if (fromSnapshot)
+            {
+                database.snapshot();
+            }
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException
+    {
+        try (final var database = new Database(dataDirectory, Duration.ZERO))
+        {
+            return database.count();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataDirectory() throws IOException
+    {
+        try (final var paths = Files.walk(dataDirectory))
+        {
+            for (final var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package benchmark;
+
+import database.Database;
+import database.ShardTaggedIds;
+import database.StorageMode;
+import models.Clearance;
+import models.MartianEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+//Write and read scaling of a sharded Database against the unsharded one (shards = 1, which also mints ids with UUID.randomUUID).
+//main() sweeps 1 to 64 threads and writes one JSON result file per thread count
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ShardedDatabaseBenchmark
+{
+    private static final int DATASET_SIZE = 1_000_000;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final MartianEntity UPDATED = new MartianEntity("Mechanised Moonfly", Clearance.MINIMAL_CLEARANCE);
+
+    @Param({"1", "16", "64"})
+    public int shards;
+
+    @Param({"HEAP", "COMPACT"})
+    public StorageMode storageMode;
+
+    private Database database;
+    private String[] ids;
+
+    @State(Scope.Thread)
+    public static class IdPicker
+    {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound)
+        {
+            return random.nextInt(bound);
+        }
+    }
+
+    //Secondary indexes are shared across shards, so they are left off to measure the shards themselves
+    @Setup(Level.Trial)
+    public void populate()
+    {
+        database = shards == 1 ? new Database(storageMode, false) : new Database(storageMode, new ShardTaggedIds(shards), false);
+        ids = new String[DATASET_SIZE];
+        for (int i = 0; i < DATASET_SIZE; i++)
+        {
+            ids[i] = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        }
+    }
+
+    @Benchmark
+    public String addMartian()
+    {
+        return database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+    }
+
+    @Benchmark
+    public MartianEntity retrieveMartian(IdPicker picker)
+    {
+        return database.retrieveMartian(ids[picker.next(DATASET_SIZE)], Clearance.TOP_LEVEL_CLEARANCE);
+    }
+
+    @Benchmark
+    public boolean updateMartian(IdPicker picker)
+    {
+        return database.updateMartian(ids[picker.next(DATASET_SIZE)], UPDATED);
+    }
+
+    @Benchmark
+    public int count()
+    {
+        return database.count();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        for (final var threads : THREAD_COUNTS)
+        {
+            new Runner(new OptionsBuilder()
+                    .include(ShardedDatabaseBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(String.format("sharded-database-%d-threads.json", threads))
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import api.Deserialiser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import models.Clearance;
+import models.MartianEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import serialisation.BinaryEntityCodec;
+import serialisation.JsonEngine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+//JSON against the binary format for the work each upload and retrieve does on its body: decoding a request as the server receives it
+//(JSON is made into a String first, binary is not) and encoding a response to the bytes that are sent. main() prints the body sizes on
+//the wire, then CPU time per operation alongside gc.alloc.rate.norm (bytes/op)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark
+{
+    private static final MartianEntity ENTITY = new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE);
+    private static final byte[] JSON_BODY = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BINARY_BODY = BinaryEntityCodec.encode(ENTITY);
+
+    @Benchmark
+    public MartianEntity decodeJson()
+    {
+        return Deserialiser.deserialiseMartianEntity(new String(JSON_BODY, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public MartianEntity decodeBinary()
+    {
+        return Deserialiser.deserialiseBinaryMartianEntity(BINARY_BODY);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws JsonProcessingException
+    {
+        return JsonEngine.writeEntityAsBytes(ENTITY);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary()
+    {
+        return BinaryEntityCodec.encode(ENTITY);
+    }
+
+    public static void main(String[] args) throws RunnerException, JsonProcessingException
+    {
+        System.out.printf("Entity body: JSON %d bytes, binary %d bytes%n", JsonEngine.writeEntityAsBytes(ENTITY).length, BINARY_BODY.length);
+        new Runner(new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package api;
+
+import metrics.Counter;
+import metrics.Metrics;
+import models.MartianEntity;
+import serialisation.BinaryEntityCodec;
+import serialisation.EntityParseResult;
+import serialisation.JsonEngine;
+
+import java.util.List;
+
+public class Deserialiser
+{
+    private static final Counter ENTITY_FAILURES = failures("entity");
+    private static final Counter ENTITY_ARRAY_FAILURES = failures("entity_array");
+    private static final Counter ID_ARRAY_FAILURES = failures("id_array");
+    private static final Counter BINARY_ENTITY_FAILURES = failures("binary_entity");
+
+    //Says exactly what was wrong with a rejected body. Every rejection still counts as a failure
+    public static EntityParseResult parseMartianEntity(String payload)
+    {
+        final var result = JsonEngine.parseEntity(payload);
+        if (!result.isValid())
+        {
+            ENTITY_FAILURES.increment();
+        }
+        return result;
+    }
+
+    //Null when the body was rejected
+    public static MartianEntity deserialiseMartianEntity(String payload)
+    {
+        return parseMartianEntity(payload).getEntity();
+    }
+
+    //Decoded straight from the request bytes, with no String made of the body
+    public static EntityParseResult parseBinaryMartianEntity(byte[] payload)
+    {
+        final var result = BinaryEntityCodec.parse(payload, 0, payload == null ? 0 : payload.length);
+        if (!result.isValid())
+        {
+            BINARY_ENTITY_FAILURES.increment();
+        }
+        return result;
+    }
+
+    //Null when the body was rejected
+    public static MartianEntity deserialiseBinaryMartianEntity(byte[] payload)
+    {
+        return parseBinaryMartianEntity(payload).getEntity();
+    }
+
+    //Null when the body is not a JSON array; otherwise a result for each element
+    public static List<EntityParseResult> parseMartianEntities(String payload)
+    {
+        try
+        {
+            return JsonEngine.readEntityArray(payload);
+        }
+        catch (Exception e)
+        {
+            ENTITY_ARRAY_FAILURES.increment();
+            return null;
+        }
+    }
+
+    public static List<String> deserialiseIds(String payload)
+    {
+        try
+        {
+            return JsonEngine.readIdArray(payload);
+        }
+        catch (Exception e)
+        {
+            ID_ARRAY_FAILURES.increment();
+            return null;
+        }
+    }
+
+    private static Counter failures(String payload)
+    {
+        return Metrics.counter("martian_deserialise_failures_total", "Request payloads that could not be deserialised, by payload kind", "payload", payload);
+    }
+}
@@ -0,0 +1,38 @@
+package api;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import models.Response;
+
+//Latency and responses by status class for one endpoint. Every series is looked up when the endpoint is created,
+//so recording a request is a handful of LongAdder increments with no map lookups or allocation
+final class EndpointMetrics
+{
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final LatencyHistogram latency;
+    private final Counter[] responses = new Counter[STATUS_CLASSES.length];
+
+    EndpointMetrics(String endpoint)
+    {
+        latency = Metrics.histogram("martian_api_request_seconds", "Time spent handling requests to each endpoint", "endpoint", endpoint);
+        for (int i = 0; i < STATUS_CLASSES.length; i++)
+        {
+            responses[i] = Metrics.counter("martian_api_responses_total", "Responses returned by each endpoint, by status class",
+                    "endpoint", endpoint, "status", STATUS_CLASSES[i]);
+        }
+    }
+
+    //A null response means the endpoint threw, which the container turns into a 500
+    void record(long startNanos, Response response)
+    {
+        record(startNanos, response == null ? 500 : response.getStatusCode());
+    }
+
+    void record(long startNanos, int statusCode)
+    {
+        latency.recordSince(startNanos);
+        responses[Math.min(Math.max(statusCode / 100, 1), STATUS_CLASSES.length) - 1].increment();
+    }
+}
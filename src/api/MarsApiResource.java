@@ -0,0 +1,569 @@
+package api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import database.ChangeFeed.FallenBehindException;
+import database.Database;
+import database.UpdateOutcome;
+import metrics.Metrics;
+import models.BatchItemResult;
+import models.CacheStats;
+import models.ChangePage;
+import models.Clearance;
+import models.MartianEntity;
+import models.QueryPage;
+import models.Response;
+import serialisation.BinaryEntityCodec;
+import serialisation.EntityParseResult;
+import serialisation.EntityProblem;
+import serialisation.JsonEngine;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Path("MarsApi")
+public class MarsApiResource
+{
+    private final Database database;
+    private final static String FAILED_BATCH_DESERIALISE_MESSAGE = "Failed to deserialise batch. Please submit a valid JSON array";
+    private final static int MULTI_STATUS = 207;
+    private final static int MAX_QUERY_PAGE_SIZE = 1000;
+    private final static int MAX_CHANGE_WAIT_SECONDS = 60;
+    private final static int NOT_MODIFIED = 304;
+    private final static int GONE = 410;
+    private final static int PAYLOAD_TOO_LARGE = 413;
+    private final static int PRECONDITION_FAILED = 412;
+    private final static int NOT_IMPLEMENTED = 501;
+    public final static String NOT_INDEXED_MESSAGE = "Queries need secondary indexes, which this database was opened without";
+    private final static EndpointMetrics RETRIEVE = new EndpointMetrics("retrieve");
+    private final static EndpointMetrics UPLOAD_ENTITY = new EndpointMetrics("uploadEntity");
+    private final static EndpointMetrics UPLOAD_ENTITIES = new EndpointMetrics("uploadEntities");
+    private final static EndpointMetrics RETRIEVE_BATCH = new EndpointMetrics("retrieveBatch");
+    private final static EndpointMetrics DELETE = new EndpointMetrics("deleteEntity");
+    private final static EndpointMetrics MODIFY = new EndpointMetrics("modifyEntity");
+    private final static EndpointMetrics QUERY = new EndpointMetrics("query");
+    private final static EndpointMetrics COUNT = new EndpointMetrics("count");
+    private final static EndpointMetrics CACHE_STATS = new EndpointMetrics("cacheStats");
+    private final static EndpointMetrics EXPORT = new EndpointMetrics("export");
+    private final static EndpointMetrics CHANGES = new EndpointMetrics("changes");
+    public final static String NDJSON = "application/x-ndjson";
+
+    public MarsApiResource()
+    {
+        this(new Database());
+    }
+
+    //The caller keeps ownership of the database, including closing it
+    public MarsApiResource(Database database)
+    {
+        this.database = database;
+    }
+
+    public Response retrieveMartianEntity(String id, Clearance clearance) throws JsonProcessingException
+    {
+        return retrieveMartianEntity(id, clearance, null);
+    }
+
+    @Path("/retrieve/{id}/{clearance}")
+    public Response retrieveMartianEntity(@PathParam("id") String id, @PathParam("clearance") Clearance clearance,
+                                          @HeaderParam("If-None-Match") String ifNoneMatch) throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = retrieve(id, clearance, ifNoneMatch, false);
+            return response;
+        }
+        finally
+        {
+            RETRIEVE.record(start, response);
+        }
+    }
+
+    //The same entity in the compact binary encoding, for clients that ask for it in Accept
+    @Path("/retrieve/{id}/{clearance}")
+    @Produces(BinaryEntityCodec.MEDIA_TYPE)
+    public Response retrieveMartianEntityAsBinary(@PathParam("id") String id, @PathParam("clearance") Clearance clearance,
+                                                  @HeaderParam("If-None-Match") String ifNoneMatch) throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = retrieve(id, clearance, ifNoneMatch, true);
+            return response;
+        }
+        finally
+        {
+            RETRIEVE.record(start, response);
+        }
+    }
+
+    @Path("/uploadEntity")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createMartianEntity(String payload)
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = create(payload);
+            return response;
+        }
+        finally
+        {
+            UPLOAD_ENTITY.record(start, response);
+        }
+    }
+
+    @Path("/uploadEntity")
+    @Consumes(BinaryEntityCodec.MEDIA_TYPE)
+    public Response createMartianEntityFromBinary(byte[] payload)
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            final var decoded = Deserialiser.parseBinaryMartianEntity(payload);
+            response = decoded.isValid() ? store(decoded.getEntity()) : rejection(decoded);
+            return response;
+        }
+        finally
+        {
+            UPLOAD_ENTITY.record(start, response);
+        }
+    }
+
+    @Path("/uploadEntities")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createMartianEntities(String payload) throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = createBatch(payload);
+            return response;
+        }
+        finally
+        {
+            UPLOAD_ENTITIES.record(start, response);
+        }
+    }
+
+    @Path("/retrieveBatch/{clearance}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response retrieveMartianEntities(String payload, @PathParam("clearance") Clearance clearance) throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = retrieveBatch(payload, clearance);
+            return response;
+        }
+        finally
+        {
+            RETRIEVE_BATCH.record(start, response);
+        }
+    }
+
+    @Path("/deleteEntity/{id}/{clearance}")
+    public Response deleteMartianEntry(@PathParam("id") String id, @PathParam("clearance") Clearance clearance)
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = delete(id, clearance);
+            return response;
+        }
+        finally
+        {
+            DELETE.record(start, response);
+        }
+    }
+
+    public Response updateMartianEntity(String payload, String id, Clearance clearance)
+    {
+        return updateMartianEntity(payload, id, clearance, null);
+    }
+
+    //Without If-Match (or with *) the update is unconditional. Otherwise it only applies if the entity is still at the version in the ETag,
+    //checked atomically with the write, so concurrent writers get a 412 instead of silently overwriting each other
+    @Path("/modifyEntity/{id}/{clearance}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response updateMartianEntity(String payload, @PathParam("id") String id, @PathParam("clearance") Clearance clearance,
+                                        @HeaderParam("If-Match") String ifMatch)
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = update(payload, id, clearance, ifMatch);
+            return response;
+        }
+        finally
+        {
+            MODIFY.record(start, response);
+        }
+    }
+
+    @Path("/query")
+    public Response queryMartianEntities(@QueryParam("species") String species, @QueryParam("clearance") Clearance clearance,
+                                         @QueryParam("after") String after, @QueryParam("limit") @DefaultValue("100") int limit) throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = query(species, clearance, after, limit);
+            return response;
+        }
+        finally
+        {
+            QUERY.record(start, response);
+        }
+    }
+
+    //Every entity the clearance may see, one JSON object per line in the database's export order, written as the store is walked so nothing is
+    //buffered. After a disconnect, pass the id on the last complete line as "after" to carry on from there; an "after" the database could
+    //never hold is refused with IllegalArgumentException before anything is written. Timed to the end of the stream
+    @Path("/export/{clearance}")
+    @Produces(NDJSON)
+    public StreamingOutput exportMartianEntities(@PathParam("clearance") Clearance clearance, @QueryParam("after") String after)
+    {
+        final var entries = database.exportMartians(clearance, after);
+        return output ->
+        {
+            final var start = System.nanoTime();
+            var statusCode = 500;
+            try
+            {
+                JsonEngine.writeExportLines(entries, output);
+                statusCode = 200;
+            }
+            finally
+            {
+                EXPORT.record(start, statusCode);
+            }
+        };
+    }
+
+    //Long poll for changes the clearance may see, in the order they were applied. Without "after" only changes from now on are returned;
+    //otherwise pass back the previous page's cursor. Answers as soon as there is at least one change, or with an empty page once the wait is up.
+    //A 410 means changes were missed: re-read with /export, then poll from the latest sequence given, which was taken before that read
+    @Path("/changes/{clearance}")
+    public Response pollChanges(@PathParam("clearance") Clearance clearance, @QueryParam("after") Long after,
+                                @QueryParam("limit") @DefaultValue("100") int limit, @QueryParam("waitSeconds") @DefaultValue("30") int waitSeconds)
+            throws JsonProcessingException, InterruptedException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = changes(clearance, after, limit, waitSeconds);
+            return response;
+        }
+        finally
+        {
+            CHANGES.record(start, response);
+        }
+    }
+
+    @Path("/count")
+    public int countOfEntities()
+    {
+        final var start = System.nanoTime();
+        final var count = database.count();
+        COUNT.record(start, 200);
+        return count;
+    }
+
+    @Path("/cacheStats")
+    public Response serialisedEntityCacheStats() throws JsonProcessingException
+    {
+        final var start = System.nanoTime();
+        Response response = null;
+        try
+        {
+            response = cacheStats();
+            return response;
+        }
+        finally
+        {
+            CACHE_STATS.record(start, response);
+        }
+    }
+
+    //Every counter and latency summary in the process, plus this database's serialised entity cache, in the Prometheus text format
+    @Path("/metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response metrics()
+    {
+        final var output = new StringBuilder(16 * 1024);
+        Metrics.writePrometheus(output);
+        final var cache = database.getSerialisedEntityCache();
+        Metrics.writeUnlabelled(output, "martian_serialised_cache_hits_total", "Retrieves served from already-serialised JSON", "counter", cache.getHits());
+        Metrics.writeUnlabelled(output, "martian_serialised_cache_misses_total", "Retrieves that had to serialise the entity", "counter", cache.getMisses());
+        Metrics.writeUnlabelled(output, "martian_serialised_cache_evictions_total", "Entries evicted to keep the cache within its bound", "counter", cache.getEvictions());
+        Metrics.writeUnlabelled(output, "martian_serialised_cache_entries", "Entries currently held in the cache", "gauge", cache.size());
+        Metrics.writeUnlabelled(output, "martian_entities", "Entities currently stored", "gauge", database.count());
+        return new Response(output.toString(), 200);
+    }
+
+    private Response retrieve(String id, Clearance clearance, String ifNoneMatch, boolean binary) throws JsonProcessingException
+    {
+        final var entity = database.retrieveMartian(id, clearance);
+        if (entity == null)
+        {
+            //For security reasons only return 404. Returning 403 implies a resource exists.
+            return new Response(String.format("Either no entity exists with id [%s] or user lacks the permissions to access the entity", id), 404);
+        }
+        final var eTag = eTag(entity.getVersion());
+        //Checked before serialising, so a poller holding the current version costs a lookup and nothing more
+        if (ifNoneMatch != null && matchesETag(ifNoneMatch, entity.getVersion()))
+        {
+            return new Response("", NOT_MODIFIED, id, eTag);
+        }
+        //The binary form is cheaper to encode than to look up, so only JSON goes through the serialised cache
+        if (binary)
+        {
+            return new Response(BinaryEntityCodec.encode(entity), 200, id, eTag);
+        }
+        return new Response(serialise(id, entity), 200, id, eTag);
+    }
+
+    private Response create(String payload)
+    {
+        final var parsed = Deserialiser.parseMartianEntity(payload);
+        if (!parsed.isValid())
+        {
+            return rejection(parsed);
+        }
+        return store(parsed.getEntity());
+    }
+
+    //The client's mistake, so a 4xx naming it rather than a generic failure
+    private static Response rejection(EntityParseResult parsed)
+    {
+        return new Response(parsed.getMessage(), parsed.getProblem() == EntityProblem.TOO_LARGE ? PAYLOAD_TOO_LARGE : 400);
+    }
+
+    //Entities without a ttlSeconds, which includes every binary upload, never expire
+    private Response store(MartianEntity deserialisedEntity)
+    {
+        final var ttlSeconds = deserialisedEntity.getTtlSeconds();
+        final var id = database.addMartian(deserialisedEntity.getSpecies(), deserialisedEntity.getClearanceRequired(),
+                ttlSeconds == null ? null : Duration.ofSeconds(ttlSeconds));
+        return new Response(String.format("Successfully created and uploaded entity to DB with id [%s]", id), 200, id);
+    }
+
+    private Response createBatch(String payload) throws JsonProcessingException
+    {
+        final var parsed = Deserialiser.parseMartianEntities(payload);
+        if (parsed == null)
+        {
+            return new Response(FAILED_BATCH_DESERIALISE_MESSAGE, 400);
+        }
+
+        //Rejected elements stay in place as nulls, which addMartians skips, so each id lines up with its element
+        final var entities = new ArrayList<MartianEntity>(parsed.size());
+        parsed.forEach(result -> entities.add(result.getEntity()));
+        final var ids = database.addMartians(entities);
+        final var results = new ArrayList<BatchItemResult>(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+        {
+            final var id = ids.get(i);
+            results.add(id == null
+                    ? new BatchItemResult(i, null, 400, null, parsed.get(i).getMessage())
+                    : new BatchItemResult(i, id, 200, null, null));
+        }
+        return batchResponse(results);
+    }
+
+    private Response retrieveBatch(String payload, Clearance clearance) throws JsonProcessingException
+    {
+        final var ids = Deserialiser.deserialiseIds(payload);
+        if (ids == null)
+        {
+            return new Response(FAILED_BATCH_DESERIALISE_MESSAGE, 400);
+        }
+
+        final var entities = database.retrieveMartians(ids, clearance);
+        final var results = new ArrayList<BatchItemResult>(entities.size());
+        for (int i = 0; i < entities.size(); i++)
+        {
+            final var entity = entities.get(i);
+            if (ids.get(i) == null)
+            {
+                results.add(new BatchItemResult(i, null, 400, null, "Id must be a JSON string"));
+                continue;
+            }
+            //Same 404 for missing and forbidden entities, as with single retrieval
+            results.add(entity == null
+                    ? new BatchItemResult(i, ids.get(i), 404, null, "Either no entity exists with this id or user lacks the permissions to access the entity")
+                    : new BatchItemResult(i, ids.get(i), 200, entity, null));
+        }
+        return batchResponse(results);
+    }
+
+    private Response delete(String id, Clearance clearance)
+    {
+        final var entityDeleted = database.deleteMartian(id, clearance);
+        if (!entityDeleted)
+        {
+            return new Response("The entity you are trying to delete is either not present in the database or you lack permissions to execute the deletion", 404);
+        }
+        return new Response(String.format("Deleted martian from db with id [%s]", id), 200);
+    }
+
+    private Response update(String payload, String id, Clearance clearance, String ifMatch)
+    {
+        final var parsed = Deserialiser.parseMartianEntity(payload);
+        if (!parsed.isValid())
+        {
+            return rejection(parsed);
+        }
+
+        final var expectedVersion = ifMatch == null || ifMatch.trim().equals("*") ? Database.ANY_VERSION : parseETag(ifMatch);
+        if (expectedVersion < 0)
+        {
+            return new Response("If-Match must be * or an ETag previously returned for this entity", PRECONDITION_FAILED);
+        }
+
+        final var outcome = database.updateMartianIfAuthorised(id, parsed.getEntity(), clearance, expectedVersion);
+        if (outcome == UpdateOutcome.NOT_FOUND)
+        {
+            return new Response("Either you don't have permission or the entity you have requested to update does not exist in the database", 404);
+        }
+        if (outcome == UpdateOutcome.VERSION_MISMATCH)
+        {
+            return new Response(String.format("Entity with id [%s] has been modified since the supplied ETag was issued", id), PRECONDITION_FAILED);
+        }
+        return new Response(String.format("Successfully updated entity in DB with id [%s]", id), 200);
+    }
+
+    private Response query(String species, Clearance clearance, String after, int limit) throws JsonProcessingException
+    {
+        if (clearance == null)
+        {
+            return new Response("A clearance must be supplied to query entities", 400);
+        }
+        if (!database.hasSecondaryIndexes())
+        {
+            return new Response(NOT_INDEXED_MESSAGE, NOT_IMPLEMENTED);
+        }
+        if (limit < 1 || limit > MAX_QUERY_PAGE_SIZE)
+        {
+            return new Response(String.format("Page size must be between 1 and %d", MAX_QUERY_PAGE_SIZE), 400);
+        }
+
+        final var entities = database.queryMartians(species, clearance, after, limit);
+        String nextPageToken = null;
+        for (final var id : entities.keySet())
+        {
+            nextPageToken = id;
+        }
+        return new Response(JsonEngine.writeQueryPage(new QueryPage(entities, entities.size() < limit ? null : nextPageToken)), 200);
+    }
+
+    private Response changes(Clearance clearance, Long after, int limit, int waitSeconds) throws JsonProcessingException, InterruptedException
+    {
+        if (limit < 1 || limit > MAX_QUERY_PAGE_SIZE)
+        {
+            return new Response(String.format("Page size must be between 1 and %d", MAX_QUERY_PAGE_SIZE), 400);
+        }
+        if (waitSeconds < 0 || waitSeconds > MAX_CHANGE_WAIT_SECONDS)
+        {
+            return new Response(String.format("Wait must be between 0 and %d seconds", MAX_CHANGE_WAIT_SECONDS), 400);
+        }
+
+        final var feed = database.getChangeFeed();
+        try
+        {
+            final var subscription = feed.subscribe(clearance, after == null ? feed.getLatestSequence() : after);
+            final var events = subscription.poll(limit, Duration.ofSeconds(waitSeconds));
+            return new Response(JsonEngine.writeChangePage(new ChangePage(events, subscription.getCursor())), 200);
+        }
+        catch (FallenBehindException e)
+        {
+            return new Response(e.getMessage(), GONE);
+        }
+    }
+
+    private Response cacheStats() throws JsonProcessingException
+    {
+        final var cache = database.getSerialisedEntityCache();
+        return new Response(JsonEngine.writeCacheStats(new CacheStats(cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.size())), 200);
+    }
+
+    //Most retrieves hit a small hot set, so the serialised form is reused until the entity changes
+    private String serialise(String id, MartianEntity entity) throws JsonProcessingException
+    {
+        final var cache = database.getSerialisedEntityCache();
+        final var cached = cache.get(id, entity.getVersion());
+        if (cached != null)
+        {
+            return cached;
+        }
+        final var serialised = JsonEngine.writeEntity(entity);
+        cache.put(id, entity.getVersion(), serialised);
+        return serialised;
+    }
+
+    private static String eTag(long version)
+    {
+        return "\"" + version + "\"";
+    }
+
+    //If-None-Match may carry *, a list of ETags, or weak ETags; weak comparison is the right one for a conditional GET
+    private static boolean matchesETag(String header, long version)
+    {
+        for (final var candidate : header.split(","))
+        {
+            final var trimmed = candidate.trim();
+            if (trimmed.equals("*") || parseETag(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed) == version)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Version inside a quoted ETag, or -1 when it is not one this resource issued
+    private static long parseETag(String eTag)
+    {
+        final var trimmed = eTag.trim();
+        if (trimmed.length() < 3 || trimmed.charAt(0) != '"' || trimmed.charAt(trimmed.length() - 1) != '"')
+        {
+            return -1;
+        }
+        try
+        {
+            final var version = Long.parseLong(trimmed.substring(1, trimmed.length() - 1));
+            return version > 0 ? version : -1;
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    //200 only when every item succeeded, otherwise 207 so callers know to inspect the per-item statuses
+    private Response batchResponse(List<BatchItemResult> results) throws JsonProcessingException
+    {
+        final var allSucceeded = results.stream().allMatch(result -> result.getStatusCode() == 200);
+        return new Response(JsonEngine.writeBatchResults(results), allSucceeded ? 200 : MULTI_STATUS);
+    }
+}
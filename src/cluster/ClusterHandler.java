@@ -0,0 +1,488 @@
+package cluster;
+
+import api.MarsApiResource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import models.BatchItemResult;
+import models.MartianEntity;
+import models.QueryPage;
+import serialisation.JsonEngine;
+import server.MarsApiServer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static server.HttpExchanges.JSON;
+import static server.HttpExchanges.TEXT;
+import static server.HttpExchanges.body;
+import static server.HttpExchanges.bodyAsString;
+import static server.HttpExchanges.queryParameters;
+import static server.HttpExchanges.send;
+
+//Sits in front of the node's own API handler. Requests naming an id go to the id's owner, handled here when that is this node and
+//forwarded otherwise; uploads always stay here, since this node mints ids it owns. Requests spanning every id (count, query and batch
+//retrieval) are answered by asking every node for its local answer and merging. Requests marked local skip all of this, which is how
+//nodes ask each other for their share
+final class ClusterHandler implements HttpHandler
+{
+    static final String LOCAL_HEADER = "X-Cluster-Local";
+    static final String HOPS_HEADER = "X-Cluster-Hops";
+    //A forwarded request can meet a node that has not yet seen a join and be forwarded on; more hops than this means rings disagree for longer
+    private static final int MAX_HOPS = 3;
+    private static final int MULTI_STATUS = 207;
+    private static final String[] FORWARDED_REQUEST_HEADERS = {"Accept", "Content-Type", "If-Match", "If-None-Match"};
+    private static final String[] FORWARDED_RESPONSE_HEADERS = {"ETag", "Retry-After"};
+
+    private final ClusterNode node;
+    private final HttpHandler local;
+
+    ClusterHandler(ClusterNode node, HttpHandler local)
+    {
+        this.node = node;
+        this.local = local;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        if (node.isJoining())
+        {
+            try
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, TEXT, "Node is joining the cluster, please retry");
+            }
+            finally
+            {
+                exchange.close();
+            }
+            return;
+        }
+        final var segments = exchange.getRequestURI().getPath().substring(MarsApiServer.CONTEXT.length()).split("/");
+        final var endpoint = segments.length > 1 ? segments[1] : "";
+        final var localOnly = exchange.getRequestHeaders().containsKey(LOCAL_HEADER);
+
+        switch (endpoint)
+        {
+            case "retrieve":
+                if (segments.length > 2)
+                {
+                    routeById(exchange, segments[2], false);
+                    return;
+                }
+                break;
+            case "deleteEntity":
+            case "modifyEntity":
+                if (segments.length > 2)
+                {
+                    routeById(exchange, segments[2], true);
+                    return;
+                }
+                break;
+            case "uploadEntity":
+            case "uploadEntities":
+                handleLocalWrite(exchange);
+                return;
+            case "count":
+            case "query":
+            case "retrieveBatch":
+            case "export":
+                if (!localOnly)
+                {
+                    handleAcrossNodes(exchange, endpoint);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        local.handle(exchange);
+    }
+
+    //Writes hold the handover lock from the ownership check to the end of the write, so an id cannot move away mid-write
+    private void routeById(HttpExchange exchange, String id, boolean write) throws IOException
+    {
+        final var routing = node.routing();
+        if (write)
+        {
+            node.writesLock().lock();
+        }
+        final URI owner;
+        try
+        {
+            owner = routing.ring().ownerOf(id);
+            if (owner.equals(routing.self()))
+            {
+                local.handle(exchange);
+                return;
+            }
+        }
+        finally
+        {
+            if (write)
+            {
+                node.writesLock().unlock();
+            }
+        }
+        forward(exchange, owner);
+    }
+
+    private void handleLocalWrite(HttpExchange exchange) throws IOException
+    {
+        node.writesLock().lock();
+        try
+        {
+            local.handle(exchange);
+        }
+        finally
+        {
+            node.writesLock().unlock();
+        }
+    }
+
+    private void forward(HttpExchange exchange, URI owner) throws IOException
+    {
+        try
+        {
+            final var hopsHeader = exchange.getRequestHeaders().getFirst(HOPS_HEADER);
+            final var hops = hopsHeader == null ? 0 : Integer.parseInt(hopsHeader.trim());
+            if (hops >= MAX_HOPS)
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, TEXT, "Cluster membership is changing, please retry");
+                return;
+            }
+            final var payload = body(exchange);
+            final var request = HttpRequest.newBuilder(target(owner, exchange.getRequestURI()))
+                    .method(exchange.getRequestMethod(), payload.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(payload))
+                    .header(HOPS_HEADER, Integer.toString(hops + 1));
+            for (final var name : FORWARDED_REQUEST_HEADERS)
+            {
+                final var value = exchange.getRequestHeaders().getFirst(name);
+                if (value != null)
+                {
+                    request.header(name, value);
+                }
+            }
+            final var response = node.client().send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            for (final var name : FORWARDED_RESPONSE_HEADERS)
+            {
+                response.headers().firstValue(name).ifPresent(value -> exchange.getResponseHeaders().set(name, value));
+            }
+            send(exchange, response.statusCode(), response.headers().firstValue("Content-Type").orElse(TEXT), response.body());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, TEXT, "Node is shutting down");
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            send(exchange, 502, TEXT, String.format("Could not reach the node owning this id [%s]", owner));
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void handleAcrossNodes(HttpExchange exchange, String endpoint) throws IOException
+    {
+        try
+        {
+            switch (endpoint)
+            {
+                case "count":
+                    count(exchange);
+                    break;
+                case "query":
+                    query(exchange);
+                    break;
+                case "export":
+                    export(exchange);
+                    break;
+                default:
+                    retrieveBatch(exchange);
+                    break;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, TEXT, "Node is shutting down");
+        }
+        catch (IOException e)
+        {
+            //An export that fails part way has already sent its status
+            if (exchange.getResponseCode() == -1)
+            {
+                send(exchange, 502, TEXT, "Could not reach every node in the cluster");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    //Entities part way through a handover can be counted on both nodes, so the total is approximate while a node joins
+    private void count(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        var total = 0L;
+        for (final var response : askEveryNode(exchange, null).values())
+        {
+            if (response.statusCode() != 200)
+            {
+                relay(exchange, response);
+                return;
+            }
+            total += Long.parseLong(response.body().trim());
+        }
+        send(exchange, 200, TEXT, Long.toString(total));
+    }
+
+    //Each node returns its first page after the cursor, so the cluster's first page is the lowest ids across all of them
+    private void query(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        final var merged = new TreeMap<String, MartianEntity>();
+        for (final var response : askEveryNode(exchange, null).values())
+        {
+            if (response.statusCode() != 200)
+            {
+                relay(exchange, response);
+                return;
+            }
+            merged.putAll(JsonEngine.readQueryPage(response.body()).getEntities());
+        }
+        //Every node accepted the request, so the limit is a valid number
+        final var limit = Integer.parseInt(queryParameters(exchange.getRequestURI().getRawQuery()).getOrDefault("limit", "100"));
+        final var page = new LinkedHashMap<String, MartianEntity>();
+        for (final var entry : merged.entrySet())
+        {
+            if (page.size() == limit)
+            {
+                break;
+            }
+            page.put(entry.getKey(), entry.getValue());
+        }
+        final var nextPageToken = page.size() < limit ? null : lastKey(page);
+        send(exchange, 200, JSON, JsonEngine.writeQueryPage(new QueryPage(page, nextPageToken)));
+    }
+
+    private static String lastKey(Map<String, MartianEntity> page)
+    {
+        String last = null;
+        for (final var id : page.keySet())
+        {
+            last = id;
+        }
+        return last;
+    }
+
+    //Each node streams its own export in the same export order, since they are built alike, so merging the streams in that order gives the
+    //cluster's export in it while holding only one line per node. The "after" cursor passes straight through, since every node skips to the same point
+    private void export(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        final var responses = askEveryNode(exchange, null, HttpResponse.BodyHandlers.ofLines());
+        try
+        {
+            for (final var response : responses.values())
+            {
+                if (response.statusCode() != 200)
+                {
+                    send(exchange, response.statusCode(), response.headers().firstValue("Content-Type").orElse(TEXT),
+                            String.join("\n", (Iterable<String>) response.body()::iterator));
+                    return;
+                }
+            }
+            final var heads = new PriorityQueue<ExportHead>(Comparator.comparing((ExportHead head) -> head.id, node.getDatabase().exportOrder()));
+            for (final var response : responses.values())
+            {
+                final var head = new ExportHead(response.body().iterator());
+                if (head.advance())
+                {
+                    heads.add(head);
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", MarsApiResource.NDJSON);
+            exchange.sendResponseHeaders(200, 0);
+            try (final var output = new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024))
+            {
+                while (!heads.isEmpty())
+                {
+                    final var head = heads.poll();
+                    output.write(head.line.getBytes(StandardCharsets.UTF_8));
+                    output.write('\n');
+                    if (head.advance())
+                    {
+                        heads.add(head);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for (final var response : responses.values())
+            {
+                response.body().close();
+            }
+        }
+    }
+
+    //Splits the ids by owner, asks each owner for its share, and puts the answers back in request order
+    private void retrieveBatch(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        final var payload = bodyAsString(exchange);
+        final List<String> ids;
+        try
+        {
+            ids = JsonEngine.readIdArray(payload);
+        }
+        catch (IOException e)
+        {
+            //Not an id array, so let this node's resource turn it down in its usual way
+            relay(exchange, askEveryNode(exchange, Map.of(node.routing().self(), payload)).get(node.routing().self()));
+            return;
+        }
+
+        final var ring = node.routing().ring();
+        final var positions = new HashMap<URI, List<Integer>>();
+        for (int i = 0; i < ids.size(); i++)
+        {
+            //Non-string entries can only be turned down, which this node can do as well as any
+            final var owner = ids.get(i) == null ? node.routing().self() : ring.ownerOf(ids.get(i));
+            positions.computeIfAbsent(owner, key -> new ArrayList<>()).add(i);
+        }
+        final var shares = new HashMap<URI, String>();
+        for (final var owner : positions.entrySet())
+        {
+            final var share = new ArrayList<String>(owner.getValue().size());
+            for (final var position : owner.getValue())
+            {
+                share.add(ids.get(position));
+            }
+            shares.put(owner.getKey(), JsonEngine.writeIdArray(share));
+        }
+
+        final var results = new BatchItemResult[ids.size()];
+        for (final var answer : askEveryNode(exchange, shares).entrySet())
+        {
+            final var response = answer.getValue();
+            if (response.statusCode() != 200 && response.statusCode() != MULTI_STATUS)
+            {
+                relay(exchange, response);
+                return;
+            }
+            final var ownerPositions = positions.get(answer.getKey());
+            for (final var result : JsonEngine.readBatchResults(response.body()))
+            {
+                if (result.getIndex() < 0 || result.getIndex() >= ownerPositions.size())
+                {
+                    send(exchange, 502, TEXT, String.format("Node [%s] answered for an id it was not asked about", answer.getKey()));
+                    return;
+                }
+                final var index = ownerPositions.get(result.getIndex());
+                results[index] = new BatchItemResult(index, result.getId(), result.getStatusCode(), result.getEntity(), result.getMessage());
+            }
+        }
+        //A node that answered for fewer ids than it was sent leaves gaps, and a partial answer would pass off missing entities as found or absent
+        var allSucceeded = true;
+        for (final var result : results)
+        {
+            if (result == null)
+            {
+                send(exchange, 502, TEXT, "Not every node answered for all the ids it was sent");
+                return;
+            }
+            allSucceeded &= result.getStatusCode() == 200;
+        }
+        send(exchange, allSucceeded ? 200 : MULTI_STATUS, JSON, JsonEngine.writeBatchResults(List.of(results)));
+    }
+
+    //Sends the request to nodes in parallel, marked local so each answers from its own data alone. Without bodies every node is asked
+    //with no body; with them only the nodes given one are asked
+    private Map<URI, HttpResponse<String>> askEveryNode(HttpExchange exchange, Map<URI, String> bodies) throws IOException, InterruptedException
+    {
+        return askEveryNode(exchange, bodies, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private <T> Map<URI, HttpResponse<T>> askEveryNode(HttpExchange exchange, Map<URI, String> bodies, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException
+    {
+        final var nodes = bodies == null ? node.routing().ring().getNodes() : bodies.keySet();
+        final var pending = new HashMap<URI, CompletableFuture<HttpResponse<T>>>();
+        for (final var member : nodes)
+        {
+            final var request = HttpRequest.newBuilder(target(member, exchange.getRequestURI())).header(LOCAL_HEADER, "true")
+                    .method(exchange.getRequestMethod(), bodies == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(bodies.get(member)))
+                    .build();
+            pending.put(member, node.client().sendAsync(request, bodyHandler));
+        }
+        final var responses = new HashMap<URI, HttpResponse<T>>();
+        for (final var answer : pending.entrySet())
+        {
+            try
+            {
+                responses.put(answer.getKey(), answer.getValue().get());
+            }
+            catch (ExecutionException e)
+            {
+                throw new IOException(String.format("Node [%s] did not answer", answer.getKey()), e.getCause());
+            }
+        }
+        return responses;
+    }
+
+    private static final class ExportHead
+    {
+        private final Iterator<String> lines;
+        private String line;
+        private String id;
+
+        private ExportHead(Iterator<String> lines)
+        {
+            this.lines = lines;
+        }
+
+        //False once the node's stream is exhausted
+        private boolean advance() throws IOException
+        {
+            while (lines.hasNext())
+            {
+                line = lines.next();
+                id = JsonEngine.readExportLineId(line);
+                if (id != null)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static URI target(URI member, URI requested)
+    {
+        final var query = requested.getRawQuery();
+        return URI.create(member + requested.getRawPath() + (query == null ? "" : "?" + query));
+    }
+
+    private static void relay(HttpExchange exchange, HttpResponse<String> response) throws IOException
+    {
+        send(exchange, response.statusCode(), response.headers().firstValue("Content-Type").orElse(TEXT), response.body());
+    }
+}
@@ -0,0 +1,274 @@
+package cluster;
+
+import api.MarsApiResource;
+import com.sun.net.httpserver.HttpExchange;
+import database.Database;
+import database.StorageMode;
+import models.EntityTransfer;
+import serialisation.JsonEngine;
+import server.MarsApiServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static server.HttpExchanges.TEXT;
+import static server.HttpExchanges.body;
+import static server.HttpExchanges.bodyAsString;
+import static server.HttpExchanges.send;
+
+//One member of a partitioned cluster: a database and the API in front of it, owning the ids a consistent-hash ring assigns to it and
+//forwarding requests for any other id to its owner. Members find each other through /cluster, which is for node-to-node traffic only.
+//
+//A node joins through any existing member. Each member in turn hands over the entities the grown ring assigns to the newcomer and only
+//then switches to the grown ring, so an id is always held by whichever node its current owner says; writes on that member wait while
+//it hands over. Joins must happen one at a time, and nodes never leave: there is no replication, so a lost node loses its range
+public final class ClusterNode implements AutoCloseable
+{
+    public static final String CLUSTER_CONTEXT = "/cluster";
+    //Keeps each handover request well inside the server's body limit
+    private static final int TRANSFER_BATCH = 10_000;
+    private static final Duration PEER_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_SHUTDOWN_GRACE = Duration.ofSeconds(10);
+
+    private final Database database;
+    private final MarsApiServer server;
+    private final ClusterIdRouting routing = new ClusterIdRouting();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(PEER_TIMEOUT).build();
+    //Held for reading by every local write and for writing while entities are handed over, so none is lost between copy and delete
+    private final ReentrantReadWriteLock handover = new ReentrantReadWriteLock();
+    private volatile boolean joining;
+
+    //The address must be one the other members can reach this node on, since it becomes the node's identity in the ring
+    public ClusterNode(StorageMode storageMode, InetSocketAddress address, int maxConcurrentRequests) throws IOException
+    {
+        this.database = new Database(storageMode, routing, true);
+        this.server = new MarsApiServer(new MarsApiResource(database), address, maxConcurrentRequests, maxConcurrentRequests,
+                api -> new ClusterHandler(this, api));
+        this.server.addContext(CLUSTER_CONTEXT, this::membership);
+        routing.bind(URI.create("http://" + address.getHostString() + ":" + server.getPort()));
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public URI getUri()
+    {
+        return routing.self();
+    }
+
+    //Held locally, i.e. the ids this node owns, apart from any it is part way through handing over
+    public Database getDatabase()
+    {
+        return database;
+    }
+
+    public HashRing getRing()
+    {
+        return routing.ring();
+    }
+
+    //Joins the cluster the seed belongs to, taking over this node's share of every member's ids. Requests to this node are turned
+    //away with a 503 until every member has handed over
+    public synchronized void join(URI seed) throws IOException, InterruptedException
+    {
+        joining = true;
+        try
+        {
+            final var members = members(seed);
+            for (final var member : members)
+            {
+                final var response = client.send(HttpRequest.newBuilder(member.resolve(CLUSTER_CONTEXT + "/join")).timeout(PEER_TIMEOUT)
+                        .POST(HttpRequest.BodyPublishers.ofString(getUri().toString())).build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200)
+                {
+                    throw new IOException(String.format("Member [%s] refused the join with status %d: %s", member, response.statusCode(), response.body()));
+                }
+            }
+            members.add(getUri());
+            routing.setRing(new HashRing(members));
+        }
+        finally
+        {
+            joining = false;
+        }
+    }
+
+    //Stops serving, giving in-flight requests up to the grace period, then closes the database
+    public void shutdown(Duration grace) throws InterruptedException
+    {
+        try
+        {
+            server.shutdown(grace);
+        }
+        finally
+        {
+            database.close();
+        }
+    }
+
+    //As for MarsApiServer, the interrupt is kept on the thread rather than thrown
+    @Override
+    public void close()
+    {
+        try
+        {
+            shutdown(DEFAULT_SHUTDOWN_GRACE);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isJoining()
+    {
+        return joining;
+    }
+
+    ClusterIdRouting routing()
+    {
+        return routing;
+    }
+
+    HttpClient client()
+    {
+        return client;
+    }
+
+    ReentrantReadWriteLock.ReadLock writesLock()
+    {
+        return handover.readLock();
+    }
+
+    private HashSet<URI> members(URI seed) throws IOException, InterruptedException
+    {
+        final var response = client.send(HttpRequest.newBuilder(seed.resolve(CLUSTER_CONTEXT + "/members")).timeout(PEER_TIMEOUT).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+        {
+            throw new IOException(String.format("Seed [%s] returned status %d for its members", seed, response.statusCode()));
+        }
+        final var members = new HashSet<URI>();
+        for (final var line : response.body().split("\n"))
+        {
+            if (!line.isBlank())
+            {
+                members.add(URI.create(line.trim()));
+            }
+        }
+        return members;
+    }
+
+    private void membership(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            final var path = exchange.getRequestURI().getPath();
+            if (path.equals(CLUSTER_CONTEXT + "/members"))
+            {
+                send(exchange, 200, TEXT, String.join("\n", routing.ring().getNodes().stream().map(URI::toString).toArray(String[]::new)));
+            }
+            else if (path.equals(CLUSTER_CONTEXT + "/join") && exchange.getRequestMethod().equals("POST"))
+            {
+                handOver(URI.create(bodyAsString(exchange).trim()));
+                send(exchange, 200, TEXT, "Joined");
+            }
+            else if (path.equals(CLUSTER_CONTEXT + "/import") && exchange.getRequestMethod().equals("POST"))
+            {
+                final var transfers = JsonEngine.readTransfers(body(exchange));
+                //Checked up front so a bad id refuses the whole batch rather than failing part way through it
+                for (final var transfer : transfers)
+                {
+                    if (!database.acceptsId(transfer.getId()))
+                    {
+                        send(exchange, 400, TEXT, String.format("This node cannot store an entity under id [%s]", transfer.getId()));
+                        return;
+                    }
+                }
+                var imported = 0;
+                for (final var transfer : transfers)
+                {
+                    imported += database.putMartian(transfer.getId(), transfer.toEntity()) ? 1 : 0;
+                }
+                send(exchange, 200, TEXT, Integer.toString(imported));
+            }
+            else
+            {
+                send(exchange, 404, TEXT, "Not found");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, TEXT, "Node is shutting down");
+        }
+        catch (Exception e)
+        {
+            send(exchange, 500, TEXT, String.valueOf(e.getMessage()));
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    //Copies every entity the grown ring gives to the newcomer across, switches to the grown ring, and only then deletes the local copies,
+    //so until the switch this node still serves them and afterwards it forwards to a node that already has them. A failed copy leaves
+    //the ring unchanged and the join fails; anything already copied is overwritten by the next attempt's newer or equal version
+    private void handOver(URI newcomer) throws IOException, InterruptedException
+    {
+        handover.writeLock().lock();
+        try
+        {
+            final var current = routing.ring();
+            if (current.getNodes().contains(newcomer))
+            {
+                return;
+            }
+            final var grown = current.withNode(newcomer);
+            final var moving = new ArrayList<EntityTransfer>();
+            for (final var entry : database.entities())
+            {
+                if (grown.ownerOf(entry.getKey()).equals(newcomer))
+                {
+                    moving.add(EntityTransfer.of(entry.getKey(), entry.getValue()));
+                }
+            }
+            for (int from = 0; from < moving.size(); from += TRANSFER_BATCH)
+            {
+                transfer(newcomer, moving.subList(from, Math.min(moving.size(), from + TRANSFER_BATCH)));
+            }
+            routing.setRing(grown);
+            for (final var transfer : moving)
+            {
+                database.releaseMartian(transfer.getId(), transfer.getVersion());
+            }
+        }
+        finally
+        {
+            handover.writeLock().unlock();
+        }
+    }
+
+    private void transfer(URI newcomer, List<EntityTransfer> batch) throws IOException, InterruptedException
+    {
+        final var response = client.send(HttpRequest.newBuilder(newcomer.resolve(CLUSTER_CONTEXT + "/import")).timeout(PEER_TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(JsonEngine.writeTransfers(batch))).build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200)
+        {
+            throw new IOException(String.format("Newcomer [%s] rejected a handover with status %d: %s", newcomer, response.statusCode(), response.body()));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package cluster;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+//Immutable consistent-hash ring over node base URIs. Each node is placed at many pseudo-random points so ranges stay even, and adding a node
+//only moves the ids that now fall just before its points, roughly 1/n of them, all of which move to the new node
+public final class HashRing
+{
+    private static final int POINTS_PER_NODE = 128;
+
+    private final Set<URI> nodes;
+    //Sorted ring positions, with the owner of each at the same index
+    private final long[] positions;
+    private final URI[] owners;
+
+    public HashRing(Set<URI> nodes)
+    {
+        if (nodes.isEmpty())
+        {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+
+        //Each point is its ring position paired with the index of the node it belongs to
+        final var nodeOrder = this.nodes.toArray(new URI[0]);
+        final var points = new long[nodeOrder.length * POINTS_PER_NODE][];
+        for (int node = 0; node < nodeOrder.length; node++)
+        {
+            for (int i = 0; i < POINTS_PER_NODE; i++)
+            {
+                points[node * POINTS_PER_NODE + i] = new long[]{hash(nodeOrder[node] + "#" + i), node};
+            }
+        }
+        Arrays.sort(points, (left, right) -> Long.compare(left[0], right[0]));
+
+        positions = new long[points.length];
+        owners = new URI[points.length];
+        for (int i = 0; i < points.length; i++)
+        {
+            positions[i] = points[i][0];
+            owners[i] = nodeOrder[(int) points[i][1]];
+        }
+    }
+
+    public HashRing withNode(URI node)
+    {
+        final var grown = new TreeSet<>(nodes);
+        grown.add(node);
+        return new HashRing(grown);
+    }
+
+    public Set<URI> getNodes()
+    {
+        return nodes;
+    }
+
+    //The first node point at or after the id's hash, wrapping round past the end
+    public URI ownerOf(String id)
+    {
+        final var index = Arrays.binarySearch(positions, hash(id));
+        final var point = index >= 0 ? index : -index - 1;
+        return owners[point == positions.length ? 0 : point];
+    }
+
+    //FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that ids differing only in their last characters still scatter
+    static long hash(String key)
+    {
+        var hash = 0xcbf29ce484222325L;
+        for (final var b : key.getBytes(StandardCharsets.UTF_8))
+        {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
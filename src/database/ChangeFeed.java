@@ -0,0 +1,191 @@
+package database;
+
+import models.ChangeEvent;
+import models.ChangeType;
+import models.Clearance;
+import models.MartianEntity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+//Every add, update and delete as a stream, held in a fixed-size ring in the manner of the LMAX Disruptor. A writer claims a sequence with one
+//atomic increment and stores the change in that sequence's slot, and never waits on subscribers. Each subscriber reads the slots itself from
+//its own cursor, so a slow one only ever holds itself up: once it is more than a ring's length behind, its next change has been overwritten
+//and it must resynchronise, e.g. from an export
+public final class ChangeFeed
+{
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final AtomicReferenceArray<Change> slots;
+    private final int mask;
+    //Sequences start from the wall clock, in microseconds, so a cursor kept from before a restart falls outside this run's range and is
+    //reported as lost rather than silently skipping or replaying changes
+    private final long first;
+    private final AtomicLong latest;
+
+    ChangeFeed(int capacity)
+    {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException(String.format("Change feed capacity must be a power of two, got [%d]", capacity));
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.first = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.latest = new AtomicLong(first - 1);
+    }
+
+    //Called inside the atomic step that applies the change, so the changes to any one id are sequenced in the order they were applied
+    void publish(String id, MartianEntity previous, MartianEntity next)
+    {
+        final var change = new Change(latest.incrementAndGet(), id, previous, next);
+        //A writer that was lapped between claiming its sequence and storing it must not overwrite the newer change already in its slot
+        slots.accumulateAndGet((int) (change.sequence & mask), change,
+                (current, candidate) -> current == null || current.sequence < candidate.sequence ? candidate : current);
+    }
+
+    //The most recent sequence handed out. Subscribing after it sees only changes made from now on
+    public long getLatestSequence()
+    {
+        return latest.get();
+    }
+
+    //Starts reading after the given sequence, which must be one this feed handed out and has not yet overwritten
+    public Subscription subscribe(Clearance clearance, long afterSequence) throws FallenBehindException
+    {
+        final var latestSequence = latest.get();
+        if (afterSequence < first - 1 || afterSequence > latestSequence || afterSequence < latestSequence - slots.length())
+        {
+            throw new FallenBehindException(afterSequence, latestSequence);
+        }
+        return new Subscription(clearance, afterSequence);
+    }
+
+    //One per consumer, and not for sharing between threads
+    public final class Subscription
+    {
+        private final Clearance clearance;
+        private long cursor;
+
+        private Subscription(Clearance clearance, long cursor)
+        {
+            this.clearance = clearance;
+            this.cursor = cursor;
+        }
+
+        //The sequence of the last change read, whether or not the clearance could see it
+        public long getCursor()
+        {
+            return cursor;
+        }
+
+        //Up to max changes the clearance may see, waiting up to the given time for the first. Waiting parks with a growing back-off instead of
+        //being signalled, so writers never touch a lock or a list of waiters on a subscriber's behalf
+        public List<ChangeEvent> poll(int max, Duration wait) throws FallenBehindException, InterruptedException
+        {
+            final var events = new ArrayList<ChangeEvent>();
+            final var deadline = System.nanoTime() + wait.toNanos();
+            var park = MIN_PARK_NANOS;
+            while (true)
+            {
+                read(events, max);
+                final var remaining = deadline - System.nanoTime();
+                if (!events.isEmpty() || remaining <= 0)
+                {
+                    return events;
+                }
+                LockSupport.parkNanos(Math.min(park, remaining));
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedException();
+                }
+                park = Math.min(park * 2, MAX_PARK_NANOS);
+            }
+        }
+
+        private void read(List<ChangeEvent> events, int max) throws FallenBehindException
+        {
+            while (events.size() < max)
+            {
+                final var sequence = cursor + 1;
+                final var change = slots.get((int) (sequence & mask));
+                //Either not claimed yet, or claimed by a writer that has not stored it yet
+                if (change == null || change.sequence < sequence)
+                {
+                    return;
+                }
+                if (change.sequence > sequence)
+                {
+                    //What was already read is handed over first; the next poll reports the loss
+                    if (events.isEmpty())
+                    {
+                        throw new FallenBehindException(cursor, latest.get());
+                    }
+                    return;
+                }
+                cursor = sequence;
+                final var event = change.asSeenAt(clearance);
+                if (event != null)
+                {
+                    events.add(event);
+                }
+            }
+        }
+    }
+
+    //The cursor given is no longer in the ring, or never was. Reading the current state and then polling from the latest sequence taken
+    //before that read misses nothing
+    public static final class FallenBehindException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long latestSequence;
+
+        private FallenBehindException(long cursor, long latestSequence)
+        {
+            super(String.format("Changes after [%d] are no longer available; the latest change is [%d]", cursor, latestSequence));
+            this.latestSequence = latestSequence;
+        }
+
+        public long getLatestSequence()
+        {
+            return latestSequence;
+        }
+    }
+
+    private static final class Change
+    {
+        private final long sequence;
+        private final String id;
+        //Null for an add
+        private final MartianEntity previous;
+        //Null for a delete
+        private final MartianEntity next;
+
+        private Change(long sequence, String id, MartianEntity previous, MartianEntity next)
+        {
+            this.sequence = sequence;
+            this.id = id;
+            this.previous = previous;
+            this.next = next;
+        }
+
+        //An update that moves an entity into or out of the clearance's sight is an add or a delete as far as that subscriber is concerned
+        private ChangeEvent asSeenAt(Clearance clearance)
+        {
+            final var wasVisible = previous != null && previous.getClearanceRequired().authorisesClearanceLevel(clearance);
+            final var isVisible = next != null && next.getClearanceRequired().authorisesClearanceLevel(clearance);
+            if (isVisible)
+            {
+                return new ChangeEvent(sequence, wasVisible ? ChangeType.UPDATED : ChangeType.ADDED, id, next.getSpecies(), next.getClearanceRequired(), next.getVersion());
+            }
+            return wasVisible ? new ChangeEvent(sequence, ChangeType.DELETED, id, null, null, null) : null;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package database;
+
+import models.Clearance;
+import models.MartianEntity;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+//Stores each entity as 16 bytes of id, an 8 byte version, an 8 byte expiry, a 4 byte species code and a 1 byte clearance ordinal in parallel primitive arrays, with no per-entity objects.
+//Ids are split across segments, each an open-addressing table with linear probing. Reads are optimistic and only fall back to the segment's
+//read lock if a writer got in the way; writers take the segment's write lock
+class CompactStore implements EntityStore
+{
+    private static final int SEGMENT_BITS = 8;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    private final SpeciesDictionary dictionary = new SpeciesDictionary();
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    CompactStore()
+    {
+        for (int i = 0; i < segments.length; i++)
+        {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public MartianEntity get(String id)
+    {
+        if (!Uuids.isCanonical(id))
+        {
+            return null;
+        }
+        final var high = Uuids.mostSignificantBits(id);
+        final var low = Uuids.leastSignificantBits(id);
+        return segmentFor(high, low).get(high, low);
+    }
+
+    @Override
+    public boolean accepts(String id)
+    {
+        return Uuids.isCanonical(id);
+    }
+
+    //Nothing can be stored under an id that is not a UUID, so there is nothing for the remapping to see and it is never called: its side
+    //effects would describe a change that cannot happen. Database refuses to put one before it gets here
+    @Override
+    public MartianEntity compute(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        if (!Uuids.isCanonical(id))
+        {
+            return null;
+        }
+        final var high = Uuids.mostSignificantBits(id);
+        final var low = Uuids.leastSignificantBits(id);
+        return segmentFor(high, low).compute(id, high, low, remapping);
+    }
+
+    @Override
+    public int size()
+    {
+        var size = 0;
+        for (final var segment : segments)
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    //Copies one segment at a time, so iteration holds at most a single segment's entries and each segment read lock only briefly
+    @Override
+    public Iterable<Map.Entry<String, MartianEntity>> entries()
+    {
+        return () -> new Iterator<>()
+        {
+            private int nextSegment;
+            private Iterator<Map.Entry<String, MartianEntity>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextSegment < segments.length)
+                {
+                    current = segments[nextSegment++].copyEntries().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<String> cursorOrder()
+    {
+        return Uuids.HASH_ORDER;
+    }
+
+    //Segments follow the top bits of the mix, so walking them in turn and sorting each copy walks the whole store in hash order while
+    //holding no more than one segment's entries
+    @Override
+    public Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId)
+    {
+        return new Iterator<>()
+        {
+            private int nextSegment = afterId == null ? 0 : segmentIndex(Uuids.mostSignificantBits(afterId), Uuids.leastSignificantBits(afterId));
+            private Iterator<Map.Entry<String, MartianEntity>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextSegment < segments.length)
+                {
+                    final var entries = segments[nextSegment++].copyEntries();
+                    if (afterId != null)
+                    {
+                        entries.removeIf(entry -> Uuids.HASH_ORDER.compare(entry.getKey(), afterId) <= 0);
+                    }
+                    entries.sort(Map.Entry.comparingByKey(Uuids.HASH_ORDER));
+                    current = entries.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private Segment segmentFor(long high, long low)
+    {
+        return segments[segmentIndex(high, low)];
+    }
+
+    private static int segmentIndex(long high, long low)
+    {
+        return (int) (Uuids.mix(high, low) >>> (Long.SIZE - SEGMENT_BITS));
+    }
+
+
+    private MartianEntity materialise(Table table, int slot)
+    {
+        return new MartianEntity(dictionary.species(table.speciesCodes[slot]), CLEARANCES[table.clearances[slot]], table.versions[slot], table.expiries[slot]);
+    }
+
+    //Replaced wholesale on resize so an optimistic reader always sees arrays of one consistent capacity
+    private static final class Table
+    {
+        private final long[] highs;
+        private final long[] lows;
+        private final long[] versions;
+        private final long[] expiries;
+        private final int[] speciesCodes;
+        private final byte[] clearances;
+        private final int mask;
+
+        private Table(int capacity)
+        {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            versions = new long[capacity];
+            expiries = new long[capacity];
+            speciesCodes = new int[capacity];
+            clearances = new byte[capacity];
+            mask = capacity - 1;
+        }
+
+        private int home(long high, long low)
+        {
+            return (int) Uuids.mix(high, low) & mask;
+        }
+
+        //Slot holding the id, or the negated (minus one) empty slot where it would be inserted
+        private int find(long high, long low)
+        {
+            var slot = home(high, low);
+            for (int probes = 0; probes <= mask; probes++)
+            {
+                if (speciesCodes[slot] == 0)
+                {
+                    return -slot - 1;
+                }
+                if (highs[slot] == high && lows[slot] == low)
+                {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    private final class Segment
+    {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        private volatile int size;
+
+        private MartianEntity get(long high, long low)
+        {
+            final var stamp = lock.tryOptimisticRead();
+            if (stamp != 0)
+            {
+                final var current = table;
+                final var slot = current.find(high, low);
+                final var speciesCode = slot >= 0 ? current.speciesCodes[slot] : 0;
+                final var clearance = slot >= 0 ? current.clearances[slot] : 0;
+                final var version = slot >= 0 ? current.versions[slot] : 0;
+                final var expiresAt = slot >= 0 ? current.expiries[slot] : 0;
+                if (lock.validate(stamp))
+                {
+                    return slot >= 0 ? new MartianEntity(dictionary.species(speciesCode), CLEARANCES[clearance], version, expiresAt) : null;
+                }
+            }
+
+            final var readStamp = lock.readLock();
+            try
+            {
+                final var slot = table.find(high, low);
+                return slot >= 0 ? materialise(table, slot) : null;
+            }
+            finally
+            {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        private MartianEntity compute(String id, long high, long low, BiFunction<String, MartianEntity, MartianEntity> remapping)
+        {
+            final var stamp = lock.writeLock();
+            try
+            {
+                var slot = table.find(high, low);
+                final var existing = slot >= 0 ? materialise(table, slot) : null;
+                final var replacement = remapping.apply(id, existing);
+                if (replacement == null)
+                {
+                    if (existing != null)
+                    {
+                        delete(slot);
+                    }
+                    return null;
+                }
+
+                if (slot < 0)
+                {
+                    if ((size + 1) * 4L > (table.mask + 1) * 3L)
+                    {
+                        resize();
+                    }
+                    slot = -table.find(high, low) - 1;
+                    table.highs[slot] = high;
+                    table.lows[slot] = low;
+                    size++;
+                }
+                table.versions[slot] = replacement.getVersion();
+                table.expiries[slot] = replacement.getExpiresAt();
+                table.clearances[slot] = (byte) replacement.getClearanceRequired().ordinal();
+                table.speciesCodes[slot] = dictionary.intern(replacement.getSpecies());
+                return replacement;
+            }
+            finally
+            {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        //Backward-shift deletion keeps probe chains intact without tombstones
+        private void delete(int slot)
+        {
+            final var current = table;
+            var gap = slot;
+            var next = (gap + 1) & current.mask;
+            while (current.speciesCodes[next] != 0)
+            {
+                final var home = current.home(current.highs[next], current.lows[next]);
+                final var movable = gap <= next ? home <= gap || home > next : home <= gap && home > next;
+                if (movable)
+                {
+                    current.highs[gap] = current.highs[next];
+                    current.lows[gap] = current.lows[next];
+                    current.versions[gap] = current.versions[next];
+                    current.expiries[gap] = current.expiries[next];
+                    current.speciesCodes[gap] = current.speciesCodes[next];
+                    current.clearances[gap] = current.clearances[next];
+                    gap = next;
+                }
+                next = (next + 1) & current.mask;
+            }
+            current.speciesCodes[gap] = 0;
+            size--;
+        }
+
+        private void resize()
+        {
+            final var previous = table;
+            final var resized = new Table((previous.mask + 1) * 2);
+            for (int slot = 0; slot <= previous.mask; slot++)
+            {
+                if (previous.speciesCodes[slot] != 0)
+                {
+                    final var target = -resized.find(previous.highs[slot], previous.lows[slot]) - 1;
+                    resized.highs[target] = previous.highs[slot];
+                    resized.lows[target] = previous.lows[slot];
+                    resized.versions[target] = previous.versions[slot];
+                    resized.expiries[target] = previous.expiries[slot];
+                    resized.speciesCodes[target] = previous.speciesCodes[slot];
+                    resized.clearances[target] = previous.clearances[slot];
+                }
+            }
+            table = resized;
+        }
+
+        private List<Map.Entry<String, MartianEntity>> copyEntries()
+        {
+            final var stamp = lock.readLock();
+            try
+            {
+                final var entries = new ArrayList<Map.Entry<String, MartianEntity>>(size);
+                for (int slot = 0; slot <= table.mask; slot++)
+                {
+                    if (table.speciesCodes[slot] != 0)
+                    {
+                        final var id = new UUID(table.highs[slot], table.lows[slot]).toString();
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(id, materialise(table, slot)));
+                    }
+                }
+                return entries;
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package database;
+
+import models.MartianEntity;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+class ConcurrentMapStore implements EntityStore
+{
+    private final ConcurrentHashMap<String, MartianEntity> entities = new ConcurrentHashMap<>();
+
+    @Override
+    public MartianEntity get(String id)
+    {
+        return entities.get(id);
+    }
+
+    @Override
+    public MartianEntity compute(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        return entities.compute(id, remapping);
+    }
+
+    @Override
+    public MartianEntity computeIfPresent(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        return entities.computeIfPresent(id, remapping);
+    }
+
+    @Override
+    public int size()
+    {
+        return entities.size();
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, MartianEntity>> entries()
+    {
+        return entities.entrySet();
+    }
+
+    @Override
+    public Comparator<String> cursorOrder()
+    {
+        return ID_ORDER;
+    }
+
+    //A hash map has no order of its own, so the ids are copied and sorted up front; each entity is still read only when the cursor reaches it,
+    //and one removed in the meantime is skipped
+    @Override
+    public Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId)
+    {
+        final var ids = new ArrayList<String>(entities.size());
+        for (final var id : entities.keySet())
+        {
+            if (afterId == null || id.compareTo(afterId) > 0)
+            {
+                ids.add(id);
+            }
+        }
+        ids.sort(ID_ORDER);
+        final var remaining = ids.iterator();
+        return new Iterator<>()
+        {
+            private Map.Entry<String, MartianEntity> next;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (next == null && remaining.hasNext())
+                {
+                    final var id = remaining.next();
+                    final var entity = entities.get(id);
+                    if (entity != null)
+                    {
+                        next = new AbstractMap.SimpleImmutableEntry<>(id, entity);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                final var entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+}
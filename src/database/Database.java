@@ -1,85 +1,780 @@
 package database;
 
+import database.persistence.Persistence;
+import database.persistence.RecoveryReport;
+import database.persistence.RecoverySink;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import models.Clearance;
 import models.MartianEntity;
 
-import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
-public class Database
+public class Database implements AutoCloseable
 {
-    private final List<String> presentIds = new ArrayList<>();
-    private final Map<String, MartianEntity> presentEntities = new HashMap<>();
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+    //Stored entities start at version 1 and every update increments it, so no stored entity is ever at this version
+    public static final long ANY_VERSION = 0;
+    private static final int SERIALISED_CACHE_ENTRIES = 10_000;
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final int CHANGE_FEED_CAPACITY = 1 << 16;
+    private static final LatencyHistogram ADD = operation("add");
+    private static final LatencyHistogram ADD_BATCH = operation("add_batch");
+    private static final LatencyHistogram RETRIEVE = operation("retrieve");
+    private static final LatencyHistogram RETRIEVE_BATCH = operation("retrieve_batch");
+    private static final LatencyHistogram UPDATE = operation("update");
+    private static final LatencyHistogram DELETE = operation("delete");
+    private static final LatencyHistogram QUERY = operation("query");
+    private static final LatencyHistogram COUNT = operation("count");
+
+    //Single keyed store: ids are never tracked separately, so lookup, update and delete are O(1) and reads take no lock
+    private final EntityStore presentEntities;
+    //Null when the database is purely in-memory
+    private final Persistence persistence;
+    //Null when secondary indexes are disabled
+    private final SecondaryIndexes indexes;
+    //Filled by callers that serialise entities; the database only invalidates it
+    private final SerialisedEntityCache serialisedEntityCache = new SerialisedEntityCache(SERIALISED_CACHE_ENTRIES);
+    //Changes made since this instance was opened; recovery replays nothing into it
+    private final ChangeFeed changeFeed = new ChangeFeed(CHANGE_FEED_CAPACITY);
+    //Both created with the first entity that has a time to live, so databases that never use one carry no thread for it
+    private volatile ExpiryWheel expiryWheel;
+    private ScheduledExecutorService expiryTicker;
+    private boolean closed;
+
+    //Mutations are logged inside the same atomic map step that applies them, so the log order for an id always matches the order they were applied in.
+    //Waiting for the log to reach disk happens afterwards, outside that step
+    private static class Mutation
+    {
+        private boolean applied;
+        private boolean versionMismatch;
+        private CompletableFuture<Long> durable;
+    }
+
+    public Database()
+    {
+        this(StorageMode.HEAP);
+    }
+
+    //Indexed only in HEAP mode by default: an index holds every id as a String on the heap, which would undo what the other modes save
+    public Database(StorageMode storageMode)
+    {
+        this(storageMode, indexedByDefault(storageMode));
+    }
+
+    //Secondary indexes cost a sorted set entry per entity per index, so memory-sensitive callers can turn them off and lose queryMartians
+    public Database(StorageMode storageMode, boolean secondaryIndexes)
+    {
+        this(storageMode, (ShardRouting) null, secondaryIndexes);
+    }
+
+    //Splits entities across independent stores of the given mode, with new ids tagged with their shard
+    public Database(StorageMode storageMode, int shards)
+    {
+        this(storageMode, new ShardTaggedIds(shards), indexedByDefault(storageMode));
+    }
+
+    public Database(StorageMode storageMode, ShardRouting shardRouting, boolean secondaryIndexes)
+    {
+        this.presentEntities = createStore(storageMode, shardRouting);
+        this.indexes = secondaryIndexes ? new SecondaryIndexes() : null;
+        this.persistence = null;
+    }
+
+    public Database(Path dataDirectory) throws IOException
+    {
+        this(dataDirectory, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    public Database(Path dataDirectory, Duration snapshotInterval) throws IOException
+    {
+        this(StorageMode.HEAP, dataDirectory, snapshotInterval);
+    }
+
+    //Indexed by the same default as Database(StorageMode)
+    public Database(StorageMode storageMode, Path dataDirectory, Duration snapshotInterval) throws IOException
+    {
+        this.presentEntities = createStore(storageMode, null);
+        this.indexes = indexedByDefault(storageMode) ? new SecondaryIndexes() : null;
+        this.persistence = new Persistence(dataDirectory, snapshotInterval, new RecoverySink()
+        {
+            @Override
+            public void put(String id, MartianEntity entity)
+            {
+                presentEntities.compute(id, (key, existing) ->
+                {
+                    reindex(key, existing, entity);
+                    return entity;
+                });
+                //Entities that expired while the process was down are removed on the first tick
+                scheduleExpiry(id, entity);
+            }
+
+            @Override
+            public void remove(String id)
+            {
+                presentEntities.computeIfPresent(id, (key, existing) ->
+                {
+                    reindex(key, existing, null);
+                    return null;
+                });
+            }
+        }, presentEntities::entries);
+    }
+
+    //Mapped storage is its own persistence: the store's files stay in storeDirectory and reopening it picks them up, with no write-ahead log.
+    //Writes land in the OS page cache as they are made, so they survive the process dying; close forces them to disk. Opened without
+    //secondary indexes, since they are not persisted and rebuilding them would hold an entry per stored entity on the heap
+    public Database(StorageMode storageMode, Path storeDirectory) throws IOException
+    {
+        this(storageMode, storeDirectory, indexedByDefault(storageMode));
+    }
+
+    public Database(StorageMode storageMode, Path storeDirectory, boolean secondaryIndexes) throws IOException
+    {
+        if (storageMode != StorageMode.MAPPED)
+        {
+            throw new IllegalArgumentException(String.format("Only mapped storage keeps its entities in a directory of its own, got [%s]", storageMode));
+        }
+        this.presentEntities = new MappedStore(storeDirectory);
+        this.indexes = secondaryIndexes ? new SecondaryIndexes() : null;
+        this.persistence = null;
+        //Without indexes the scan only looks for entities with an expiry, and the mapped entities it passes never decode their species
+        for (final var entry : presentEntities.entries())
+        {
+            if (indexes != null)
+            {
+                reindex(entry.getKey(), null, entry.getValue());
+            }
+            //Entities that expired while the process was down are removed on the first tick
+            scheduleExpiry(entry.getKey(), entry.getValue());
+        }
+    }
+
     public String addMartian(String species, Clearance clearance)
     {
-        if (species == null || clearance == null)
+        return addMartian(species, clearance, null);
+    }
+
+    //The entity reads as absent once the time to live has passed, and is removed in the background shortly after. Null means it never expires
+    public String addMartian(String species, Clearance clearance, Duration timeToLive)
+    {
+        final var start = System.nanoTime();
+        try
         {
-            return null;
+            final var mutation = new Mutation();
+            final var id = insert(species, clearance, expiresAt(timeToLive), mutation);
+            awaitDurable(mutation);
+            return id;
+        }
+        finally
+        {
+            ADD.recordSince(start);
+        }
+    }
+
+    //Ids are returned in input order; an entry is null when the entity at that position could not be stored
+    public List<String> addMartians(List<MartianEntity> entities)
+    {
+        final var start = System.nanoTime();
+        try
+        {
+            final var ids = new ArrayList<String>(entities.size());
+            final var mutations = new ArrayList<Mutation>(entities.size());
+            for (final var entity : entities)
+            {
+                final var mutation = new Mutation();
+                ids.add(entity == null ? null : insert(entity.getSpecies(), entity.getClearanceRequired(), expiresAt(timeToLive(entity)), mutation));
+                mutations.add(mutation);
+            }
+            //The whole batch is queued before waiting so it shares group commits rather than paying one each
+            mutations.forEach(this::awaitDurable);
+            return ids;
+        }
+        finally
+        {
+            ADD_BATCH.recordSince(start);
         }
-        final var martian = new MartianEntity(species, clearance);
-        final var id = UUID.randomUUID().toString();
-        presentEntities.put(id, martian);
-        presentIds.add(id);
-        return id;
     }
 
     public boolean deleteMartian(String id, Clearance clearance)
     {
-        return removeEntityFromIdAndMartianCollection(id, clearance);
+        if (id == null)
+        {
+            return false;
+        }
+
+        final var start = System.nanoTime();
+        try
+        {
+            //Clearance check and removal happen in one atomic step, so an entity replaced in the meantime is never removed on a stale check
+            final var mutation = new Mutation();
+            presentEntities.computeIfPresent(id, (key, entity) ->
+            {
+                if (entity.isExpired() || !entity.getClearanceRequired().authorisesClearanceLevel(clearance))
+                {
+                    return entity;
+                }
+                mutation.applied = true;
+                mutation.durable = persistence == null ? null : persistence.logDelete(key);
+                reindex(key, entity, null);
+                serialisedEntityCache.invalidate(key);
+                changeFeed.publish(key, entity, null);
+                return null;
+            });
+            awaitDurable(mutation);
+            return mutation.applied;
+        }
+        finally
+        {
+            DELETE.recordSince(start);
+        }
+    }
+
+    //Drops an entity that has moved to another database, provided it is still at the version that was moved. Unlike a delete nothing is
+    //published to the change feed, since clients can still read the entity from its new owner. The log still records the removal, so that
+    //recovery does not bring back a copy this database no longer owns
+    public boolean releaseMartian(String id, long version)
+    {
+        final var mutation = new Mutation();
+        presentEntities.computeIfPresent(id, (key, entity) ->
+        {
+            if (entity.getVersion() != version)
+            {
+                return entity;
+            }
+            mutation.applied = true;
+            mutation.durable = persistence == null ? null : persistence.logDelete(key);
+            reindex(key, entity, null);
+            serialisedEntityCache.invalidate(key);
+            return null;
+        });
+        awaitDurable(mutation);
+        return mutation.applied;
     }
 
     public MartianEntity retrieveMartian(String id, Clearance clearance)
     {
-        if (!presentIds.contains(id))
+        final var start = System.nanoTime();
+        final var entity = lookup(id, clearance);
+        RETRIEVE.recordSince(start);
+        return entity;
+    }
+
+    //Entities are returned in input order; an entry is null when the id is absent or the clearance is insufficient
+    public List<MartianEntity> retrieveMartians(List<String> ids, Clearance clearance)
+    {
+        final var start = System.nanoTime();
+        final var entities = new ArrayList<MartianEntity>(ids.size());
+        for (final var id : ids)
+        {
+            entities.add(lookup(id, clearance));
+        }
+        RETRIEVE_BATCH.recordSince(start);
+        return entities;
+    }
+
+    public MartianEntity retrieveMartianWithoutClearance(String id)
+    {
+        if (id == null)
         {
             return null;
         }
+        final var start = System.nanoTime();
         final var entity = presentEntities.get(id);
+        RETRIEVE.recordSince(start);
+        return entity == null || entity.isExpired() ? null : entity;
+    }
+
+    //Permission has already been granted when this method is called
+    public boolean updateMartian(String id, MartianEntity entity)
+    {
+        return replaceIf(id, entity, existing -> true, ANY_VERSION) == UpdateOutcome.UPDATED;
+    }
+
+    //Clearance check and replacement happen in one atomic step, so the entity that was checked is the one replaced and
+    //callers need no separate retrieve. False when the id is absent or the clearance does not cover the current entity
+    public boolean updateMartianIfAuthorised(String id, MartianEntity entity, Clearance clearance)
+    {
+        return updateMartianIfAuthorised(id, entity, clearance, ANY_VERSION) == UpdateOutcome.UPDATED;
+    }
 
-        if (!entity.getClearanceRequired().authorisesClearanceLevel(clearance))
+    //As above, but only replaces the entity if it is still at the expected version, checked in the same atomic step. Lets callers do
+    //optimistic concurrency: read, modify, then write back against the version they read. ANY_VERSION skips the check
+    public UpdateOutcome updateMartianIfAuthorised(String id, MartianEntity entity, Clearance clearance, long expectedVersion)
+    {
+        return replaceIf(id, entity, existing -> clearance != null && existing.getClearanceRequired().authorisesClearanceLevel(clearance), expectedVersion);
+    }
+
+    //Up to limit entities the clearance may see, optionally of one species, in ascending id order strictly after the given id (null for the first page).
+    //Index candidates are re-checked against the store so a concurrent change can never leak an entity the caller is not cleared for
+    public LinkedHashMap<String, MartianEntity> queryMartians(String species, Clearance clearance, String afterId, int limit)
+    {
+        if (indexes == null)
+        {
+            throw new IllegalStateException("Queries require a database with secondary indexes enabled");
+        }
+
+        final var start = System.nanoTime();
+        final var page = new LinkedHashMap<String, MartianEntity>();
+        final var candidates = indexes.candidates(species, clearance, afterId);
+        while (page.size() < limit && candidates.hasNext())
+        {
+            final var id = candidates.next();
+            final var entity = lookup(id, clearance);
+            if (entity != null && (species == null || species.equals(entity.getSpecies())))
+            {
+                page.put(id, entity);
+            }
+        }
+        QUERY.recordSince(start);
+        return page;
+    }
+
+    //Every entity the clearance may see, in exportOrder strictly after the given id (null for the start), fetched as the caller advances.
+    //The store is walked a segment or window at a time and no lock is held between steps, so memory stays bounded and writers carry on: an
+    //entity changed mid-export is seen in whichever state it was in when reached, and ids appearing behind the cursor are missed. Resuming
+    //after the last id seen continues exactly where an interrupted export stopped
+    public Iterator<Map.Entry<String, MartianEntity>> exportMartians(Clearance clearance, String afterId)
+    {
+        if (afterId != null && !presentEntities.accepts(afterId))
+        {
+            throw new IllegalArgumentException(String.format("An export can only resume after an id this database could hold, got [%s]", afterId));
+        }
+
+        //The indexes hold the ids already sorted and can skip what the clearance may not see, so they are walked instead whenever that
+        //gives the same order
+        final var candidates = indexes != null && presentEntities.cursorOrder() == EntityStore.ID_ORDER
+                ? withEntities(indexes.candidates(null, clearance, afterId))
+                : presentEntities.entriesAfter(afterId);
+        return new Iterator<>()
+        {
+            private Map.Entry<String, MartianEntity> next;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (next == null && candidates.hasNext())
+                {
+                    final var candidate = candidates.next();
+                    if (visible(candidate.getValue(), clearance) != null)
+                    {
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                final var entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    //The order exportMartians walks ids in. It depends only on the ids, so exports from databases built alike, such as the nodes of a
+    //cluster, can be merged in it
+    public Comparator<String> exportOrder()
+    {
+        return presentEntities.cursorOrder();
+    }
+
+    //Stores the entity under an id minted elsewhere, keeping its version, for moving entities between databases. An existing entity
+    //at the same or a newer version is left in place, so a repeated or out-of-order transfer can never roll an entity back.
+    //Ids this database cannot hold are rejected before the store, the log, the indexes or the change feed see anything
+    public boolean putMartian(String id, MartianEntity entity)
+    {
+        if (id == null || entity == null || entity.getSpecies() == null || entity.getClearanceRequired() == null)
+        {
+            return false;
+        }
+        if (!acceptsId(id))
+        {
+            throw new IllegalArgumentException(String.format("This database only accepts canonical UUID ids, got [%s]", id));
+        }
+
+        final var mutation = new Mutation();
+        presentEntities.compute(id, (key, existing) ->
+        {
+            if (existing != null && existing.getVersion() >= entity.getVersion())
+            {
+                return existing;
+            }
+            mutation.applied = true;
+            mutation.durable = persistence == null ? null : persistence.logAdd(key, entity);
+            reindex(key, existing, entity);
+            serialisedEntityCache.invalidate(key);
+            changeFeed.publish(key, existing, entity);
+            return entity;
+        });
+        awaitDurable(mutation);
+        if (mutation.applied)
+        {
+            scheduleExpiry(id, entity);
+        }
+        return mutation.applied;
+    }
+
+    //Compact and mapped storage only hold canonical UUIDs, and a persisted database only takes those, which the log can record exactly
+    public boolean acceptsId(String id)
+    {
+        return id != null && presentEntities.accepts(id) && (persistence == null || Uuids.isCanonical(id));
+    }
+
+    //Every stored entity with its id. Weakly consistent: never fails under concurrent mutation and sees every entity present for the whole iteration
+    public Iterable<Map.Entry<String, MartianEntity>> entities()
+    {
+        return presentEntities.entries();
+    }
+
+    //Shared by every caller that serialises entities for this database, so invalidation on update and delete reaches all of them
+    public SerialisedEntityCache getSerialisedEntityCache()
+    {
+        return serialisedEntityCache;
+    }
+
+    //Subscribers see changes as they are applied, which can be before a writer has been told its change is durable
+    public ChangeFeed getChangeFeed()
+    {
+        return changeFeed;
+    }
+
+    //Includes expired entities the background expiry has not removed yet, which is normally for no more than a tick
+    public int count()
+    {
+        final var start = System.nanoTime();
+        final var count = presentEntities.size();
+        COUNT.recordSince(start);
+        return count;
+    }
+
+    //Takes a snapshot now rather than waiting for the next scheduled one. Returns the number of entities written
+    public long snapshot() throws IOException
+    {
+        if (persistence == null)
+        {
+            throw new IllegalStateException("Snapshots require a database opened with a data directory");
+        }
+        return persistence.snapshot();
+    }
+
+    //False when the database was opened without secondary indexes, in which case queryMartians is unavailable
+    public boolean hasSecondaryIndexes()
+    {
+        return indexes != null;
+    }
+
+    //Null when the database is purely in-memory
+    public RecoveryReport getRecoveryReport()
+    {
+        return persistence == null ? null : persistence.getRecoveryReport();
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            if (expiryTicker != null)
+            {
+                expiryTicker.shutdownNow();
+            }
+        }
+        if (persistence != null)
+        {
+            persistence.close();
+        }
+        presentEntities.close();
+    }
+
+    private static LatencyHistogram operation(String name)
+    {
+        return Metrics.histogram("martian_database_operation_seconds", "Time spent in each Database operation, including waiting for the write-ahead log", "operation", name);
+    }
+
+    //Expired entities read as absent from the moment they expire, whether or not the wheel has removed them yet
+    private MartianEntity lookup(String id, Clearance clearance)
+    {
+        return visible(id == null ? null : presentEntities.get(id), clearance);
+    }
+
+    private static MartianEntity visible(MartianEntity entity, Clearance clearance)
+    {
+        if (entity == null || entity.isExpired() || !entity.getClearanceRequired().authorisesClearanceLevel(clearance))
         {
             return null;
         }
         return entity;
     }
 
-    public MartianEntity retrieveMartianWithoutClearance(String id)
+    //Pairs each id with its entity as it is reached, or with null once it has gone
+    private Iterator<Map.Entry<String, MartianEntity>> withEntities(Iterator<String> ids)
+    {
+        return new Iterator<>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ids.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                final var id = ids.next();
+                return new AbstractMap.SimpleImmutableEntry<>(id, presentEntities.get(id));
+            }
+        };
+    }
+
+    private static boolean indexedByDefault(StorageMode storageMode)
+    {
+        return storageMode == StorageMode.HEAP;
+    }
+
+    //Unsharded when no routing is given. A single-shard routing still gets a sharded store, since it may care how ids are minted
+    private static EntityStore createStore(StorageMode storageMode, ShardRouting shardRouting)
     {
-        if (!presentIds.contains(id))
+        if (shardRouting != null)
+        {
+            return new ShardedStore(shardRouting, () -> createStore(storageMode, null));
+        }
+        switch (storageMode)
+        {
+            case COMPACT:
+                return new CompactStore();
+            case MAPPED:
+                try
+                {
+                    return MappedStore.temporary();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            case HEAP:
+            default:
+                return new ConcurrentMapStore();
+        }
+    }
+
+    private String insert(String species, Clearance clearance, long expiresAt, Mutation mutation)
+    {
+        if (species == null || clearance == null)
         {
             return null;
         }
-        return presentEntities.get(id);
+        final var martian = new MartianEntity(species, clearance, 1, expiresAt);
+        String id;
+        do
+        {
+            id = presentEntities.newId();
+            presentEntities.compute(id, (key, existing) ->
+            {
+                //Ids are random, so a clash is vanishingly unlikely, but one must never overwrite another entity; mint another instead
+                if (existing != null)
+                {
+                    return existing;
+                }
+                mutation.applied = true;
+                mutation.durable = persistence == null ? null : persistence.logAdd(key, martian);
+                reindex(key, null, martian);
+                changeFeed.publish(key, null, martian);
+                return martian;
+            });
+        }
+        while (!mutation.applied);
+        scheduleExpiry(id, martian);
+        return id;
     }
 
-    //Permission has already been granted when this method is called
-    public boolean updateMartian(String id, MartianEntity entity)
+    private UpdateOutcome replaceIf(String id, MartianEntity entity, Predicate<MartianEntity> permitted, long expectedVersion)
     {
-        if (!presentIds.contains(id))
+        if (id == null || entity == null || entity.getSpecies() == null || entity.getClearanceRequired() == null)
         {
-            return false;
+            return UpdateOutcome.NOT_FOUND;
+        }
+
+        final var start = System.nanoTime();
+        try
+        {
+            final var mutation = new Mutation();
+            presentEntities.computeIfPresent(id, (key, existing) ->
+            {
+                if (existing.isExpired() || !permitted.test(existing))
+                {
+                    return existing;
+                }
+                //Only checked once clearance has passed, so a mismatch never reveals an entity the caller may not see
+                if (expectedVersion != ANY_VERSION && existing.getVersion() != expectedVersion)
+                {
+                    mutation.versionMismatch = true;
+                    return existing;
+                }
+                //An update keeps the expiry set at upload
+                final var replacement = entity.withVersion(existing.getVersion() + 1, existing.getExpiresAt());
+                mutation.applied = true;
+                mutation.durable = persistence == null ? null : persistence.logUpdate(key, replacement);
+                reindex(key, existing, replacement);
+                serialisedEntityCache.invalidate(key);
+                changeFeed.publish(key, existing, replacement);
+                return replacement;
+            });
+            awaitDurable(mutation);
+            if (mutation.applied)
+            {
+                return UpdateOutcome.UPDATED;
+            }
+            return mutation.versionMismatch ? UpdateOutcome.VERSION_MISMATCH : UpdateOutcome.NOT_FOUND;
+        }
+        finally
+        {
+            UPDATE.recordSince(start);
         }
-        presentEntities.put(id, entity);
-        return true;
     }
 
+    private static long expiresAt(Duration timeToLive)
+    {
+        if (timeToLive == null)
+        {
+            return MartianEntity.NEVER_EXPIRES;
+        }
+        try
+        {
+            return Math.addExact(System.currentTimeMillis(), timeToLive.toMillis());
+        }
+        catch (ArithmeticException e)
+        {
+            return Long.MAX_VALUE;
+        }
+    }
 
-    private boolean removeEntityFromIdAndMartianCollection(String id, Clearance clearance)
+    //Null, for no expiry, unless the entity was uploaded with a time to live
+    private static Duration timeToLive(MartianEntity entity)
     {
-        if (presentIds.contains(id) && presentEntities.containsKey(id))
+        return entity.getTtlSeconds() == null ? null : Duration.ofSeconds(entity.getTtlSeconds());
+    }
+
+    private void scheduleExpiry(String id, MartianEntity entity)
+    {
+        if (entity.getExpiresAt() == MartianEntity.NEVER_EXPIRES)
+        {
+            return;
+        }
+        var wheel = expiryWheel;
+        if (wheel == null)
+        {
+            wheel = startExpiry();
+        }
+        wheel.schedule(id, entity.getExpiresAt());
+    }
+
+    private synchronized ExpiryWheel startExpiry()
+    {
+        if (expiryWheel == null)
         {
-            if (!presentEntities.get(id).getClearanceRequired().authorisesClearanceLevel(clearance))
+            final var wheel = new ExpiryWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+            if (!closed)
             {
-                return false;
+                expiryTicker = Executors.newSingleThreadScheduledExecutor(runnable ->
+                {
+                    final var thread = new Thread(runnable, "martian-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                expiryTicker.scheduleAtFixedRate(() -> wheel.advance(System.currentTimeMillis(), this::expire),
+                        EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
             }
-            presentIds.remove(id);
-            presentEntities.remove(id);
-            return true;
+            expiryWheel = wheel;
         }
-        return false;
+        return expiryWheel;
     }
 
-    public int count()
+    //Runs on the expiry thread. Only removes the entity if it still has the deadline that was scheduled, and does not wait for the log:
+    //an expiry lost in a crash is simply repeated when the entity is recovered with its deadline already past
+    private void expire(String id, long expiresAt)
+    {
+        try
+        {
+            final var early = new boolean[1];
+            presentEntities.computeIfPresent(id, (key, entity) ->
+            {
+                if (entity.getExpiresAt() != expiresAt)
+                {
+                    return entity;
+                }
+                //Only possible if the wall clock was set back after the deadline was filed
+                if (!entity.isExpired())
+                {
+                    early[0] = true;
+                    return entity;
+                }
+                if (persistence != null)
+                {
+                    persistence.logDelete(key);
+                }
+                reindex(key, entity, null);
+                serialisedEntityCache.invalidate(key);
+                changeFeed.publish(key, entity, null);
+                return null;
+            });
+            if (early[0])
+            {
+                expiryWheel.schedule(id, expiresAt);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            //Left in place, where it still reads as absent; the rest of the tick's expiries carry on
+        }
+    }
+
+    private void reindex(String id, MartianEntity previous, MartianEntity next)
+    {
+        if (indexes != null)
+        {
+            indexes.onChange(id, previous, next);
+        }
+    }
+
+    private void awaitDurable(Mutation mutation)
     {
-        return presentEntities.size();
+        if (mutation.durable == null)
+        {
+            return;
+        }
+        try
+        {
+            mutation.durable.join();
+        }
+        catch (CompletionException e)
+        {
+            throw new IllegalStateException("Change was applied in memory but could not be written to the write-ahead log", e.getCause());
+        }
     }
 }
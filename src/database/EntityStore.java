@@ -0,0 +1,65 @@
+package database;
+
+import models.MartianEntity;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+//Storage behind Database. Implementations must give lock-free or optimistic reads and make compute atomic per id,
+//invoking the remapping function while no other mutation of that id can interleave
+interface EntityStore
+{
+    Comparator<String> ID_ORDER = Comparator.naturalOrder();
+
+    MartianEntity get(String id);
+
+    //Same contract as ConcurrentMap.compute: the function sees the current entity (or null) and returning null removes it
+    MartianEntity compute(String id, BiFunction<String, MartianEntity, MartianEntity> remapping);
+
+    default MartianEntity computeIfPresent(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        return compute(id, (key, existing) -> existing == null ? null : remapping.apply(key, existing));
+    }
+
+    default void put(String id, MartianEntity entity)
+    {
+        compute(id, (key, existing) -> entity);
+    }
+
+    default void remove(String id)
+    {
+        compute(id, (key, existing) -> null);
+    }
+
+    //Whether an entity can be stored under this id at all. Stores that only hold UUIDs refuse anything else
+    default boolean accepts(String id)
+    {
+        return true;
+    }
+
+    //Id for a new entity. Stores that care where new ids land, such as sharded ones, mint their own
+    default String newId()
+    {
+        return UUID.randomUUID().toString();
+    }
+
+    int size();
+
+    //Weakly consistent: never fails under concurrent mutation and sees every entity present for the whole iteration
+    Iterable<Map.Entry<String, MartianEntity>> entries();
+
+    //The order entriesAfter walks ids in. It depends only on the ids, never on where they happen to sit, so a cursor taken from one store
+    //resumes on any store built the same way
+    Comparator<String> cursorOrder();
+
+    //Every entity whose id comes strictly after the given one in cursorOrder, from the start when it is null, and weakly consistent like entries
+    Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId);
+
+    //Releases whatever the store holds outside the heap. Stores that are purely in-memory have nothing to release
+    default void close()
+    {
+    }
+}
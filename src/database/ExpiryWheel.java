@@ -0,0 +1,122 @@
+package database;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+
+//Hierarchical timing wheel: four levels of 64 slots, each slot of a level spanning a whole turn of the level below. An expiry is filed in
+//the coarsest level it fits and moved down a level each time its slot comes round, so scheduling and firing are O(1) each and a tick only
+//touches the entries due around it, however many entities are stored. With 100ms ticks the levels span 6.4s, 6.8m, 7.3h and 19.4 days;
+//later deadlines wait in the top level and are re-filed as it turns.
+//Writers only append to a lock-free queue, which the single ticking thread drains into the wheel, so the wheel itself needs no locking
+final class ExpiryWheel
+{
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final ArrayDeque<Expiry>[][] levels;
+    private final ConcurrentLinkedQueue<Expiry> scheduled = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Expiry> due = new ArrayDeque<>();
+    private long currentTick;
+
+    //The slots are a generic array, which can only be created raw
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ExpiryWheel(long tickMillis, long nowMillis)
+    {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        this.levels = new ArrayDeque[LEVELS][SLOTS];
+        for (final var level : levels)
+        {
+            for (int slot = 0; slot < SLOTS; slot++)
+            {
+                level[slot] = new ArrayDeque<>();
+            }
+        }
+    }
+
+    //Safe from any thread
+    void schedule(String id, long expiresAt)
+    {
+        scheduled.add(new Expiry(id, expiresAt));
+    }
+
+    //Ticking thread only. Turns the wheel up to the given time, handing each id whose deadline has passed to the consumer with that deadline
+    void advance(long nowMillis, BiConsumer<String, Long> expire)
+    {
+        Expiry incoming;
+        while ((incoming = scheduled.poll()) != null)
+        {
+            file(incoming);
+        }
+        final var targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick)
+        {
+            currentTick++;
+            //Coarser levels first, so entries they hand down for this very tick are fired below
+            for (int level = LEVELS - 1; level > 0; level--)
+            {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                {
+                    final var slot = levels[level][slotOf(currentTick, level)];
+                    Expiry cascading;
+                    while ((cascading = slot.poll()) != null)
+                    {
+                        file(cascading);
+                    }
+                }
+            }
+            due.addAll(levels[0][slotOf(currentTick, 0)]);
+            levels[0][slotOf(currentTick, 0)].clear();
+        }
+        Expiry expiry;
+        while ((expiry = due.poll()) != null)
+        {
+            expire.accept(expiry.id, expiry.expiresAt);
+        }
+    }
+
+    //Rounded up to a whole tick, so an entry never fires before its deadline
+    private void file(Expiry expiry)
+    {
+        final var deadlineTick = (expiry.expiresAt + tickMillis - 1) / tickMillis;
+        final var delta = deadlineTick - currentTick;
+        if (delta <= 0)
+        {
+            due.add(expiry);
+            return;
+        }
+        if (delta >= SPAN)
+        {
+            //Beyond the top level's reach: park it in the last slot the top level can address and re-file it from there
+            levels[LEVELS - 1][slotOf(currentTick + SPAN - 1, LEVELS - 1)].add(expiry);
+            return;
+        }
+        var level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1)))
+        {
+            level++;
+        }
+        levels[level][slotOf(deadlineTick, level)].add(expiry);
+    }
+
+    private static int slotOf(long tick, int level)
+    {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+
+    private static final class Expiry
+    {
+        private final String id;
+        private final long expiresAt;
+
+        private Expiry(String id, long expiresAt)
+        {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package database;
+
+import models.Clearance;
+import models.MartianEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//An entity read from a MappedStore record. The species stays as UTF-8 in the mapped file until something asks for it, so a read that only
+//checks clearance or expiry never builds a String. Records are never overwritten while referenced, so the bytes cannot change underneath it
+final class MappedEntity extends MartianEntity
+{
+    private static final long serialVersionUID = 1L;
+    private final ByteBuffer records;
+    private final int speciesOffset;
+    private final int speciesLength;
+    //Racy single-check caching: two threads may both decode, but they produce equal Strings and either may win
+    private String species;
+
+    MappedEntity(ByteBuffer records, int speciesOffset, int speciesLength, Clearance clearanceRequired, long version, long expiresAt)
+    {
+        super(null, clearanceRequired, version, expiresAt);
+        this.records = records;
+        this.speciesOffset = speciesOffset;
+        this.speciesLength = speciesLength;
+    }
+
+    @Override
+    public String getSpecies()
+    {
+        var decoded = species;
+        if (decoded == null)
+        {
+            final var bytes = new byte[speciesLength];
+            records.duplicate().position(speciesOffset).get(bytes);
+            decoded = new String(bytes, StandardCharsets.UTF_8);
+            species = decoded;
+        }
+        return decoded;
+    }
+
+    //Serialised as a plain entity, since the mapping it reads from cannot travel with it
+    private Object writeReplace()
+    {
+        return new MartianEntity(getSpecies(), getClearanceRequired(), getVersion(), getExpiresAt());
+    }
+}
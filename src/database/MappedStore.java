@@ -0,0 +1,866 @@
+package database;
+
+import models.Clearance;
+import models.MartianEntity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+//Keeps entities off the heap in memory-mapped files, so the data set can outgrow the heap and the OS page cache holds whatever is hot.
+//Ids are split across segments, each with an index file and a records file. The index is an open-addressing table with linear probing of
+//16 bytes of id and an 8 byte reference into the records file, which is an append-only log of version, expiry, clearance ordinal and
+//length-prefixed UTF-8 species. A record is written before the reference to it and a reference is a single aligned 8 byte store, so the
+//files hold a consistent store whenever the process stops. Superseded records are reclaimed by rewriting the segment into a new generation
+//of files. Reads are optimistic, as in CompactStore, and leave the species undecoded until it is asked for
+class MappedStore implements EntityStore
+{
+    private static final int SEGMENT_BITS = 5;
+    private static final int INITIAL_INDEX_CAPACITY = 256;
+    private static final int MAX_INDEX_CAPACITY = 1 << 26;
+    private static final int INITIAL_RECORDS_BYTES = 16 * 1024;
+    private static final int MAX_RECORDS_BYTES = 1 << 30;
+    //Slots copied per read lock hold while iterating
+    private static final int ITERATION_BATCH_SLOTS = 1024;
+    //Magic, format and capacity, then a flag set once the generation has been completely written
+    private static final int INDEX_HEADER_BYTES = 64;
+    private static final int MAGIC = 0x4D415253;
+    //Format 2 homes ids by the mix bits just below the segment's, so slot order follows hash order
+    private static final int FORMAT = 2;
+    private static final int COMPLETE_OFFSET = 12;
+    private static final int SLOT_BYTES = 24;
+    //Version, expiry, clearance ordinal and species length, ahead of the species itself
+    private static final int RECORD_HEADER_BYTES = 21;
+    //A slot's reference is its record's offset plus one, so zero-filled slots read as empty
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final Clearance[] CLEARANCES = Clearance.values();
+    private static final Pattern INDEX_FILE = Pattern.compile("segment-(\\d+)\\.(\\d+)\\.index");
+
+    private final Path directory;
+    //Temporary stores unlink each file as soon as it is mapped, so nothing outlives them even if they are never closed
+    private final boolean temporary;
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    //Opens the store kept in the directory, with everything a previous store there held
+    MappedStore(Path directory) throws IOException
+    {
+        this(directory, false);
+    }
+
+    private MappedStore(Path directory, boolean temporary) throws IOException
+    {
+        this.directory = directory;
+        this.temporary = temporary;
+        Files.createDirectories(directory);
+        for (int i = 0; i < segments.length; i++)
+        {
+            segments[i] = new Segment(i, openLatestGeneration(i));
+        }
+    }
+
+    static MappedStore temporary() throws IOException
+    {
+        final var directory = Files.createTempDirectory("martian-mapped");
+        directory.toFile().deleteOnExit();
+        return new MappedStore(directory, true);
+    }
+
+    @Override
+    public MartianEntity get(String id)
+    {
+        if (!Uuids.isCanonical(id))
+        {
+            return null;
+        }
+        final var high = Uuids.mostSignificantBits(id);
+        final var low = Uuids.leastSignificantBits(id);
+        return segmentFor(high, low).get(high, low);
+    }
+
+    @Override
+    public boolean accepts(String id)
+    {
+        return Uuids.isCanonical(id);
+    }
+
+    //As with CompactStore, a non-UUID id can hold nothing, so the remapping is never called for one
+    @Override
+    public MartianEntity compute(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        if (!Uuids.isCanonical(id))
+        {
+            return null;
+        }
+        final var high = Uuids.mostSignificantBits(id);
+        final var low = Uuids.leastSignificantBits(id);
+        try
+        {
+            return segmentFor(high, low).compute(id, high, low, remapping);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        var size = 0;
+        for (final var segment : segments)
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    //One segment at a time, and within it a batch of slots per read lock hold, so iteration never copies more than a batch onto the heap
+    @Override
+    public Iterable<Map.Entry<String, MartianEntity>> entries()
+    {
+        return () -> new Iterator<>()
+        {
+            private int nextSegment;
+            private Iterator<Map.Entry<String, MartianEntity>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextSegment < segments.length)
+                {
+                    current = segments[nextSegment++].entries();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<String> cursorOrder()
+    {
+        return Uuids.HASH_ORDER;
+    }
+
+    //Segment by segment, and within each a window of homes at a time, sorted, so the whole store is walked in hash order without ever
+    //copying more than a window onto the heap
+    @Override
+    public Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId)
+    {
+        return new Iterator<>()
+        {
+            private int nextSegment = afterId == null ? 0 : segmentIndex(Uuids.mostSignificantBits(afterId), Uuids.leastSignificantBits(afterId));
+            private Iterator<Map.Entry<String, MartianEntity>> current = Collections.emptyIterator();
+            private String after = afterId;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextSegment < segments.length)
+                {
+                    current = segments[nextSegment++].entriesAfter(after);
+                    after = null;
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    //Forces every segment to disk. Entities already read stay readable, as the mappings outlive their channels
+    @Override
+    public void close()
+    {
+        try
+        {
+            for (final var segment : segments)
+            {
+                segment.close();
+            }
+            if (temporary)
+            {
+                Files.deleteIfExists(directory);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment segmentFor(long high, long low)
+    {
+        return segments[segmentIndex(high, low)];
+    }
+
+    private static int segmentIndex(long high, long low)
+    {
+        return (int) (Uuids.mix(high, low) >>> (Long.SIZE - SEGMENT_BITS));
+    }
+
+    private static MartianEntity readRecord(ByteBuffer records, int offset)
+    {
+        return new MappedEntity(records, offset + RECORD_HEADER_BYTES, records.getInt(offset + 17), CLEARANCES[records.get(offset + 16)],
+                records.getLong(offset), records.getLong(offset + 8));
+    }
+
+    private static int recordLength(ByteBuffer records, int offset)
+    {
+        return RECORD_HEADER_BYTES + records.getInt(offset + 17);
+    }
+
+    //Smallest power of two that leaves the table at most half full, so a rebuilt segment has room to grow before the next rebuild
+    private static int indexCapacityFor(int entries)
+    {
+        var capacity = INITIAL_INDEX_CAPACITY;
+        while (capacity < entries * 2L)
+        {
+            if (capacity == MAX_INDEX_CAPACITY)
+            {
+                throw new IllegalStateException(String.format("A mapped segment cannot index more than [%d] entities", MAX_INDEX_CAPACITY / 2));
+            }
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int recordsBytesFor(long bytes)
+    {
+        if (bytes > MAX_RECORDS_BYTES)
+        {
+            throw new IllegalStateException(String.format("A mapped segment cannot hold more than [%d] bytes of records", MAX_RECORDS_BYTES));
+        }
+        var capacity = INITIAL_RECORDS_BYTES;
+        while (capacity < bytes)
+        {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private Path indexPath(int segment, int generation)
+    {
+        return directory.resolve(String.format("segment-%02d.%d.index", segment, generation));
+    }
+
+    private Path recordsPath(int segment, int generation)
+    {
+        return directory.resolve(String.format("segment-%02d.%d.records", segment, generation));
+    }
+
+    //The newest completely written generation, discarding the rest. A newer incomplete one is a rebuild the process stopped part way through,
+    //and an older complete one was superseded by a rebuild that finished but had not yet deleted it
+    private Generation openLatestGeneration(int segment) throws IOException
+    {
+        final var numbers = new TreeSet<Integer>(Collections.reverseOrder());
+        try (final var files = Files.list(directory))
+        {
+            files.forEach(file ->
+            {
+                final var matcher = INDEX_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && Integer.parseInt(matcher.group(1)) == segment)
+                {
+                    numbers.add(Integer.parseInt(matcher.group(2)));
+                }
+            });
+        }
+
+        Generation latest = null;
+        for (final var number : numbers)
+        {
+            if (latest == null)
+            {
+                latest = openGeneration(segment, number);
+                if (latest != null)
+                {
+                    continue;
+                }
+            }
+            Files.deleteIfExists(indexPath(segment, number));
+            Files.deleteIfExists(recordsPath(segment, number));
+        }
+        if (latest == null)
+        {
+            latest = createGeneration(segment, 0, INITIAL_INDEX_CAPACITY, INITIAL_RECORDS_BYTES);
+            latest.seal();
+        }
+        return latest;
+    }
+
+    //Null when the generation was never completely written
+    private Generation openGeneration(int segment, int number) throws IOException
+    {
+        final var indexPath = indexPath(segment, number);
+        final var recordsPath = recordsPath(segment, number);
+        if (!Files.exists(recordsPath))
+        {
+            return null;
+        }
+        final MappedByteBuffer index;
+        try (final var channel = FileChannel.open(indexPath, READ, WRITE))
+        {
+            if (channel.size() < INDEX_HEADER_BYTES)
+            {
+                return null;
+            }
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (index.get(COMPLETE_OFFSET) == 0)
+        {
+            return null;
+        }
+        final var capacity = index.getInt(8);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != FORMAT || Integer.bitCount(capacity) != 1
+                || index.capacity() != INDEX_HEADER_BYTES + (long) capacity * SLOT_BYTES)
+        {
+            throw new IOException(String.format("[%s] is not a mapped store index this version can read", indexPath));
+        }
+        final var recordsChannel = FileChannel.open(recordsPath, READ, WRITE);
+        try
+        {
+            return new Generation(number, index, recordsChannel, recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, recordsChannel.size()));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            recordsChannel.close();
+            throw e;
+        }
+    }
+
+    private Generation createGeneration(int segment, int number, int indexCapacity, int recordsBytes) throws IOException
+    {
+        final var indexPath = indexPath(segment, number);
+        final var recordsPath = recordsPath(segment, number);
+        final MappedByteBuffer index;
+        //Mapping past the end of a file extends it, so both files start out at their full size
+        try (final var channel = FileChannel.open(indexPath, CREATE, TRUNCATE_EXISTING, READ, WRITE))
+        {
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_BYTES + (long) indexCapacity * SLOT_BYTES);
+        }
+        index.putInt(0, MAGIC);
+        index.putInt(4, FORMAT);
+        index.putInt(8, indexCapacity);
+        final var recordsChannel = FileChannel.open(recordsPath, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        try
+        {
+            final var generation = new Generation(number, index, recordsChannel, recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, recordsBytes));
+            if (temporary)
+            {
+                Files.delete(indexPath);
+                Files.delete(recordsPath);
+            }
+            return generation;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            recordsChannel.close();
+            throw e;
+        }
+    }
+
+    //One segment's index and records files. A rebuild replaces it wholesale, so an optimistic reader always sees an index and records that
+    //belong together, and once retired it is never written again
+    private final class Generation
+    {
+        private final int number;
+        private final MappedByteBuffer index;
+        private final int mask;
+        //Moves the mix bits below the segment's down to a slot number
+        private final int homeShift;
+        private final FileChannel recordsChannel;
+        //Remapped larger as the log grows. Mappings it replaces stay valid, so entities read from them remain readable
+        private MappedByteBuffer records;
+        private int recordsEnd;
+        private long liveBytes;
+        //Slots holding an id, live or deleted, since both lengthen probes
+        private int usedSlots;
+
+        private Generation(int number, MappedByteBuffer index, FileChannel recordsChannel, MappedByteBuffer records)
+        {
+            this.number = number;
+            this.index = index;
+            this.mask = index.getInt(8) - 1;
+            this.homeShift = Long.SIZE - Integer.numberOfTrailingZeros(mask + 1);
+            this.recordsChannel = recordsChannel;
+            this.records = records;
+        }
+
+        private int home(long high, long low)
+        {
+            return (int) ((Uuids.mix(high, low) << SEGMENT_BITS) >>> homeShift);
+        }
+
+        private int position(int slot)
+        {
+            return INDEX_HEADER_BYTES + slot * SLOT_BYTES;
+        }
+
+        private long reference(int slot)
+        {
+            return index.getLong(position(slot) + 16);
+        }
+
+        //Slot holding the id, or the negated (minus one) slot where it would be inserted: the first deleted slot on its probe path, else the
+        //empty slot that ends it
+        private int find(long high, long low)
+        {
+            var slot = home(high, low);
+            var deleted = -1;
+            for (int probes = 0; probes <= mask; probes++)
+            {
+                final var reference = reference(slot);
+                if (reference == EMPTY)
+                {
+                    return -(deleted >= 0 ? deleted : slot) - 1;
+                }
+                if (reference == DELETED)
+                {
+                    if (deleted < 0)
+                    {
+                        deleted = slot;
+                    }
+                }
+                else if (index.getLong(position(slot)) == high && index.getLong(position(slot) + 8) == low)
+                {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return deleted >= 0 ? -deleted - 1 : Integer.MIN_VALUE;
+        }
+
+        private MartianEntity read(int slot)
+        {
+            return readRecord(records, (int) reference(slot) - 1);
+        }
+
+        //The record goes in first and the reference to it last, so a reader or a restart sees either the old record or the whole new one
+        private void write(int slot, long high, long low, MartianEntity entity, byte[] species)
+        {
+            final var offset = recordsEnd;
+            records.putLong(offset, entity.getVersion());
+            records.putLong(offset + 8, entity.getExpiresAt());
+            records.put(offset + 16, (byte) entity.getClearanceRequired().ordinal());
+            records.putInt(offset + 17, species.length);
+            records.duplicate().position(offset + RECORD_HEADER_BYTES).put(species);
+            recordsEnd += RECORD_HEADER_BYTES + species.length;
+            liveBytes += RECORD_HEADER_BYTES + species.length;
+
+            final var target = slot >= 0 ? slot : -slot - 1;
+            final var previous = reference(target);
+            if (previous > 0)
+            {
+                liveBytes -= recordLength(records, (int) previous - 1);
+            }
+            else
+            {
+                index.putLong(position(target), high);
+                index.putLong(position(target) + 8, low);
+                if (previous == EMPTY)
+                {
+                    usedSlots++;
+                }
+            }
+            index.putLong(position(target) + 16, offset + 1L);
+        }
+
+        //Marked rather than shifted out, so the delete is a single store and no live slot ever moves
+        private void delete(int slot)
+        {
+            liveBytes -= recordLength(records, (int) reference(slot) - 1);
+            index.putLong(position(slot) + 16, DELETED);
+        }
+
+        private void copyFrom(Generation source, int slot, ByteBuffer target)
+        {
+            final var offset = (int) source.reference(slot) - 1;
+            final var length = recordLength(source.records, offset);
+            final var high = source.index.getLong(source.position(slot));
+            final var low = source.index.getLong(source.position(slot) + 8);
+            target.position(recordsEnd).put(source.records.duplicate().limit(offset + length).position(offset));
+
+            var free = home(high, low);
+            while (reference(free) != EMPTY)
+            {
+                free = (free + 1) & mask;
+            }
+            index.putLong(position(free), high);
+            index.putLong(position(free) + 8, low);
+            index.putLong(position(free) + 16, recordsEnd + 1L);
+            recordsEnd += length;
+            liveBytes += length;
+            usedSlots++;
+        }
+
+        private void growRecords(long needed) throws IOException
+        {
+            records = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, recordsBytesFor(Math.max(needed, Math.min(records.capacity() * 2L, MAX_RECORDS_BYTES))));
+        }
+
+        //Counts what an opened generation holds. Appending resumes after the last live record, overwriting any written after it that were
+        //never referenced or were superseded before the process stopped
+        private int recount()
+        {
+            var live = 0;
+            for (int slot = 0; slot <= mask; slot++)
+            {
+                final var reference = reference(slot);
+                if (reference != EMPTY)
+                {
+                    usedSlots++;
+                }
+                if (reference > 0)
+                {
+                    final var offset = (int) reference - 1;
+                    final var length = recordLength(records, offset);
+                    liveBytes += length;
+                    recordsEnd = Math.max(recordsEnd, offset + length);
+                    live++;
+                }
+            }
+            return live;
+        }
+
+        //Marked complete only once everything else is on disk, so a generation that was being written when the process stopped is ignored
+        private void seal()
+        {
+            force();
+            index.put(COMPLETE_OFFSET, (byte) 1);
+            force();
+        }
+
+        private void force()
+        {
+            if (!temporary)
+            {
+                records.force();
+                index.force();
+            }
+        }
+
+        private void close() throws IOException
+        {
+            force();
+            recordsChannel.close();
+        }
+    }
+
+    private final class Segment
+    {
+        private final int number;
+        private final StampedLock lock = new StampedLock();
+        private Generation generation;
+        private volatile int size;
+
+        private Segment(int number, Generation generation)
+        {
+            this.number = number;
+            this.generation = generation;
+            this.size = generation.recount();
+        }
+
+        private MartianEntity get(long high, long low)
+        {
+            final var stamp = lock.tryOptimisticRead();
+            if (stamp != 0)
+            {
+                final var current = generation;
+                final var slot = current.find(high, low);
+                final var reference = slot >= 0 ? current.reference(slot) : EMPTY;
+                final var records = current.records;
+                //Nothing read before validation is trusted, since a writer may have been part way through the slot
+                if (lock.validate(stamp))
+                {
+                    return reference > 0 ? readRecord(records, (int) reference - 1) : null;
+                }
+            }
+
+            final var readStamp = lock.readLock();
+            try
+            {
+                final var slot = generation.find(high, low);
+                return slot >= 0 ? generation.read(slot) : null;
+            }
+            finally
+            {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        private MartianEntity compute(String id, long high, long low, BiFunction<String, MartianEntity, MartianEntity> remapping) throws IOException
+        {
+            final var stamp = lock.writeLock();
+            try
+            {
+                final var slot = generation.find(high, low);
+                final var existing = slot >= 0 ? generation.read(slot) : null;
+                final var replacement = remapping.apply(id, existing);
+                if (replacement == null)
+                {
+                    if (existing != null)
+                    {
+                        generation.delete(slot);
+                        size--;
+                    }
+                    return null;
+                }
+
+                final var species = replacement.getSpecies().getBytes(StandardCharsets.UTF_8);
+                makeRoom(existing == null, RECORD_HEADER_BYTES + species.length);
+                generation.write(generation.find(high, low), high, low, replacement, species);
+                if (existing == null)
+                {
+                    size++;
+                }
+                return replacement;
+            }
+            finally
+            {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        //Rebuilds when the index is too full to take another id, or when the log is full and mostly superseded records; otherwise a full log
+        //is grown in place
+        private void makeRoom(boolean inserting, int recordBytes) throws IOException
+        {
+            final var current = generation;
+            final var indexFull = inserting && (current.usedSlots + 1) * 4L > (current.mask + 1) * 3L;
+            final var logFull = current.recordsEnd + (long) recordBytes > current.records.capacity();
+            if (indexFull || logFull && current.recordsEnd - current.liveBytes >= current.liveBytes)
+            {
+                rebuild(recordBytes);
+            }
+            if (generation.recordsEnd + (long) recordBytes > generation.records.capacity())
+            {
+                generation.growRecords(generation.recordsEnd + (long) recordBytes);
+            }
+        }
+
+        //Copies the live records into a fresh generation sized for them, leaving out superseded records and deleted slots. The previous
+        //generation stays on disk until the new one is complete, so a restart part way through picks the previous one up again
+        private void rebuild(int pendingBytes) throws IOException
+        {
+            final var previous = generation;
+            final var needed = previous.liveBytes + pendingBytes;
+            final var next = createGeneration(number, previous.number + 1, indexCapacityFor(size + 1),
+                    recordsBytesFor(Math.max(needed, Math.min(2 * needed, MAX_RECORDS_BYTES))));
+            final var target = next.records.duplicate();
+            for (int slot = 0; slot <= previous.mask; slot++)
+            {
+                if (previous.reference(slot) > 0)
+                {
+                    next.copyFrom(previous, slot, target);
+                }
+            }
+            next.seal();
+            generation = next;
+            previous.recordsChannel.close();
+            if (!temporary)
+            {
+                Files.deleteIfExists(indexPath(number, previous.number));
+                Files.deleteIfExists(recordsPath(number, previous.number));
+            }
+        }
+
+        //Reads the generation that was current when iteration reached the segment. Nothing a live slot holds ever moves, and a generation
+        //retired by a rebuild part way through is no longer written, so every entity present throughout is seen exactly once
+        private Iterator<Map.Entry<String, MartianEntity>> entries()
+        {
+            final Generation source;
+            final var stamp = lock.readLock();
+            try
+            {
+                source = generation;
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+            return new Iterator<>()
+            {
+                private int nextSlot;
+                private Iterator<Map.Entry<String, MartianEntity>> batch = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext()
+                {
+                    while (!batch.hasNext() && nextSlot <= source.mask)
+                    {
+                        final var end = Math.min(nextSlot + ITERATION_BATCH_SLOTS, source.mask + 1);
+                        batch = copyEntries(source, nextSlot, end).iterator();
+                        nextSlot = end;
+                    }
+                    return batch.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, MartianEntity> next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return batch.next();
+                }
+            };
+        }
+
+        //Walks the generation current when iteration reached the segment, as entries does, a window of homes at a time. An id sits at its home
+        //or further along an unbroken run of used slots, and no slot becomes empty again within a generation, so every id homed in a window
+        //is found between the window's first slot and the first empty slot after its last
+        private Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId)
+        {
+            final Generation source;
+            final var stamp = lock.readLock();
+            try
+            {
+                source = generation;
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+            return new Iterator<>()
+            {
+                private int nextHome = afterId == null ? 0 : source.home(Uuids.mostSignificantBits(afterId), Uuids.leastSignificantBits(afterId));
+                private Iterator<Map.Entry<String, MartianEntity>> window = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext()
+                {
+                    while (!window.hasNext() && nextHome <= source.mask)
+                    {
+                        final var end = Math.min(nextHome + ITERATION_BATCH_SLOTS, source.mask + 1);
+                        window = copyWindow(source, nextHome, end, afterId).iterator();
+                        nextHome = end;
+                    }
+                    return window.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, MartianEntity> next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return window.next();
+                }
+            };
+        }
+
+        private List<Map.Entry<String, MartianEntity>> copyWindow(Generation source, int fromHome, int toHome, String afterId)
+        {
+            final var entries = new ArrayList<Map.Entry<String, MartianEntity>>();
+            final var stamp = lock.readLock();
+            try
+            {
+                var slot = fromHome;
+                for (int scanned = 0; scanned <= source.mask; scanned++)
+                {
+                    final var reference = source.reference(slot);
+                    if (reference == EMPTY && scanned >= toHome - fromHome)
+                    {
+                        break;
+                    }
+                    if (reference > 0)
+                    {
+                        final var high = source.index.getLong(source.position(slot));
+                        final var low = source.index.getLong(source.position(slot) + 8);
+                        final var home = source.home(high, low);
+                        final var id = home >= fromHome && home < toHome ? new UUID(high, low).toString() : null;
+                        if (id != null && (afterId == null || Uuids.HASH_ORDER.compare(id, afterId) > 0))
+                        {
+                            entries.add(new AbstractMap.SimpleImmutableEntry<>(id, source.read(slot)));
+                        }
+                    }
+                    slot = (slot + 1) & source.mask;
+                }
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+            entries.sort(Map.Entry.comparingByKey(Uuids.HASH_ORDER));
+            return entries;
+        }
+
+        private List<Map.Entry<String, MartianEntity>> copyEntries(Generation source, int fromSlot, int toSlot)
+        {
+            final var stamp = lock.readLock();
+            try
+            {
+                final var entries = new ArrayList<Map.Entry<String, MartianEntity>>();
+                for (int slot = fromSlot; slot < toSlot; slot++)
+                {
+                    if (source.reference(slot) > 0)
+                    {
+                        final var id = new UUID(source.index.getLong(source.position(slot)), source.index.getLong(source.position(slot) + 8)).toString();
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(id, source.read(slot)));
+                    }
+                }
+                return entries;
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void close() throws IOException
+        {
+            final var stamp = lock.writeLock();
+            try
+            {
+                generation.close();
+            }
+            finally
+            {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
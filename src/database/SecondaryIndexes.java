@@ -0,0 +1,165 @@
+package database;
+
+import models.Clearance;
+import models.MartianEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+//Ids bucketed by clearanceRequired and by species, each kept sorted so queries can page with an "after this id" cursor.
+//Maintained inside the same atomic store step as the mutation, but read without locking, so callers must re-check candidates against the store
+final class SecondaryIndexes
+{
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    private final ConcurrentSkipListSet<String>[] byClearance;
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> bySpecies = new ConcurrentHashMap<>();
+
+    //Java cannot create an array of a generic type, so the array is created raw and every element given its type as it is filled
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SecondaryIndexes()
+    {
+        byClearance = new ConcurrentSkipListSet[CLEARANCES.length];
+        for (int i = 0; i < byClearance.length; i++)
+        {
+            byClearance[i] = new ConcurrentSkipListSet<>();
+        }
+    }
+
+    //New entries are added before old ones are removed, so a concurrent reader may briefly see an id twice but never miss it
+    void onChange(String id, MartianEntity previous, MartianEntity next)
+    {
+        if (next != null)
+        {
+            byClearance[next.getClearanceRequired().ordinal()].add(id);
+            addToSpecies(next.getSpecies(), id);
+        }
+        if (previous == null)
+        {
+            return;
+        }
+        if (next == null || previous.getClearanceRequired() != next.getClearanceRequired())
+        {
+            byClearance[previous.getClearanceRequired().ordinal()].remove(id);
+        }
+        if (next == null || !previous.getSpecies().equals(next.getSpecies()))
+        {
+            removeFromSpecies(previous.getSpecies(), id);
+        }
+    }
+
+    //Candidate ids in ascending order strictly after the given id (or from the start when null). Species narrows to one set;
+    //otherwise the buckets the clearance can see are merged, which is what lets a low clearance skip most of the store
+    Iterator<String> candidates(String species, Clearance clearance, String after)
+    {
+        if (species != null)
+        {
+            final var ids = bySpecies.get(species);
+            return ids == null ? Collections.emptyIterator() : tail(ids, after).iterator();
+        }
+
+        final var sources = new ArrayList<Iterator<String>>();
+        for (final var bucketClearance : CLEARANCES)
+        {
+            if (bucketClearance.authorisesClearanceLevel(clearance))
+            {
+                sources.add(tail(byClearance[bucketClearance.ordinal()], after).iterator());
+            }
+        }
+        return new MergingIterator(sources);
+    }
+
+    //Adding and dropping an emptied set both go through compute on the species, so an add can never land in a set that was just dropped
+    private void addToSpecies(String species, String id)
+    {
+        bySpecies.compute(species, (key, ids) ->
+        {
+            final var speciesIds = ids == null ? new ConcurrentSkipListSet<String>() : ids;
+            speciesIds.add(id);
+            return speciesIds;
+        });
+    }
+
+    private void removeFromSpecies(String species, String id)
+    {
+        bySpecies.computeIfPresent(species, (key, ids) ->
+        {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static ConcurrentSkipListSet<String> tail(ConcurrentSkipListSet<String> ids, String after)
+    {
+        return after == null ? ids : (ConcurrentSkipListSet<String>) ids.tailSet(after, false);
+    }
+
+    //Merges sorted iterators into one sorted stream, dropping adjacent duplicates left by an in-flight clearance change
+    private static final class MergingIterator implements Iterator<String>
+    {
+        private final PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(Comparator.comparing((PeekingIterator head) -> head.peek));
+        private String last;
+
+        private MergingIterator(Iterable<Iterator<String>> sources)
+        {
+            for (final var source : sources)
+            {
+                if (source.hasNext())
+                {
+                    heads.add(new PeekingIterator(source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!heads.isEmpty() && heads.peek().peek.equals(last))
+            {
+                advance();
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            last = advance();
+            return last;
+        }
+
+        private String advance()
+        {
+            final var head = heads.poll();
+            final var value = head.peek;
+            if (head.source.hasNext())
+            {
+                head.peek = head.source.next();
+                heads.add(head);
+            }
+            return value;
+        }
+    }
+
+    private static final class PeekingIterator
+    {
+        private final Iterator<String> source;
+        private String peek;
+
+        private PeekingIterator(Iterator<String> source)
+        {
+            this.source = source;
+            this.peek = source.next();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+//Size-bounded LRU of already-serialised entities, keyed by id. Entries are tagged with the version they were serialised from and only
+//returned for that version, so a stale put racing an update can never be served; invalidation on update and delete just frees the slot early.
+//Split into independently locked shards because LRU reads reorder the map and so cannot share one lock under read-heavy load
+public final class SerialisedEntityCache
+{
+    private static final int SHARD_BITS = 4;
+
+    private final Shard[] shards = new Shard[1 << SHARD_BITS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SerialisedEntityCache(int maximumEntries)
+    {
+        if (maximumEntries < 0)
+        {
+            throw new IllegalArgumentException(String.format("Cache size must not be negative, got [%d]", maximumEntries));
+        }
+        //Rounded up so a small cache still holds at least one entry per shard rather than none
+        final var perShard = (maximumEntries + shards.length - 1) / shards.length;
+        for (int i = 0; i < shards.length; i++)
+        {
+            shards[i] = new Shard(perShard);
+        }
+    }
+
+    //Null on a miss, including when the cached copy was serialised from a different version
+    public String get(String id, long version)
+    {
+        final var cached = shardFor(id).get(id);
+        if (cached == null || cached.version != version)
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.serialised;
+    }
+
+    public void put(String id, long version, String serialised)
+    {
+        shardFor(id).put(id, new Cached(version, serialised));
+    }
+
+    void invalidate(String id)
+    {
+        shardFor(id).remove(id);
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    public int size()
+    {
+        var size = 0;
+        for (final var shard : shards)
+        {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Shard shardFor(String id)
+    {
+        final var hash = id.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private static final class Cached
+    {
+        private final long version;
+        private final String serialised;
+
+        private Cached(long version, String serialised)
+        {
+            this.version = version;
+            this.serialised = serialised;
+        }
+    }
+
+    private final class Shard
+    {
+        private final int capacity;
+        private final LinkedHashMap<String, Cached> entries;
+
+        private Shard(int capacity)
+        {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest)
+                {
+                    if (size() > Shard.this.capacity)
+                    {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Cached get(String id)
+        {
+            return entries.get(id);
+        }
+
+        private synchronized void put(String id, Cached cached)
+        {
+            if (capacity > 0)
+            {
+                entries.put(id, cached);
+            }
+        }
+
+        private synchronized void remove(String id)
+        {
+            entries.remove(id);
+        }
+
+        private synchronized int size()
+        {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package database;
+
+//Decides which shard owns an id, and mints new ids that land on a shard of its choosing. Must be deterministic for every id it may be
+//asked about, including ids it did not mint (recovered from disk, or supplied by a caller), since those are routed through it too
+public interface ShardRouting
+{
+    int shards();
+
+    int shardOf(String id);
+
+    //Must be a lower-case canonical UUID, which compact storage and the write-ahead log both rely on
+    String newId();
+}
@@ -0,0 +1,70 @@
+package database;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+//Random version 4 style UUIDs whose last four hex digits name the owning shard, so routing reads four characters instead of hashing the id.
+//Randomness comes from the calling thread's ThreadLocalRandom rather than the SecureRandom behind UUID.randomUUID, which every writer
+//would otherwise contend on; ids are unguessable enough to be unique (106 random bits) but are not meant as secrets.
+//Each id is tagged with a shard drawn at random, so even a single writer spreads its entities evenly across every shard
+public final class ShardTaggedIds implements ShardRouting
+{
+    //Four hex digits in the id's final group
+    private static final int MAX_SHARDS = 1 << 16;
+    private static final long TAG_MASK = MAX_SHARDS - 1;
+
+    private final int shards;
+
+    public ShardTaggedIds(int shards)
+    {
+        if (shards < 1 || shards > MAX_SHARDS)
+        {
+            throw new IllegalArgumentException(String.format("Shard count must be between 1 and %d, got [%d]", MAX_SHARDS, shards));
+        }
+        this.shards = shards;
+    }
+
+    @Override
+    public int shards()
+    {
+        return shards;
+    }
+
+    //Ids minted elsewhere still route deterministically: a UUID by its tag digits modulo the shard count, anything else by its hash
+    @Override
+    public int shardOf(String id)
+    {
+        final var length = id.length();
+        var tag = 0;
+        if (length == 36)
+        {
+            for (int i = length - 4; i < length; i++)
+            {
+                final var digit = Character.digit(id.charAt(i), 16);
+                if (digit < 0)
+                {
+                    return hashShard(id);
+                }
+                tag = (tag << 4) | digit;
+            }
+            return tag % shards;
+        }
+        return hashShard(id);
+    }
+
+    @Override
+    public String newId()
+    {
+        final var random = ThreadLocalRandom.current();
+        final var shard = random.nextInt(shards);
+        final var mostSignificant = (random.nextLong() & ~0xF000L) | 0x4000L;
+        final var leastSignificant = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL & ~TAG_MASK) | Long.MIN_VALUE | shard;
+        return new UUID(mostSignificant, leastSignificant).toString();
+    }
+
+    private int hashShard(String id)
+    {
+        final var hash = id.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards;
+    }
+}
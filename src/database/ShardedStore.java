@@ -0,0 +1,154 @@
+package database;
+
+import models.MartianEntity;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+//Independent stores, one per shard, with every id-keyed operation sent straight to the shard the routing names. Shards share nothing,
+//so writers on different shards never touch the same map segments, resize locks or size counters
+class ShardedStore implements EntityStore
+{
+    private final ShardRouting routing;
+    private final EntityStore[] shards;
+    private final Comparator<String> cursorOrder;
+
+    ShardedStore(ShardRouting routing, Supplier<EntityStore> shardFactory)
+    {
+        this.routing = routing;
+        this.shards = new EntityStore[routing.shards()];
+        for (int i = 0; i < shards.length; i++)
+        {
+            shards[i] = shardFactory.get();
+        }
+        this.cursorOrder = shards.length == 1 ? shards[0].cursorOrder() : Comparator.comparingInt(routing::shardOf).thenComparing(shards[0].cursorOrder());
+    }
+
+    @Override
+    public MartianEntity get(String id)
+    {
+        return shardFor(id).get(id);
+    }
+
+    @Override
+    public MartianEntity compute(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        return shardFor(id).compute(id, remapping);
+    }
+
+    @Override
+    public MartianEntity computeIfPresent(String id, BiFunction<String, MartianEntity, MartianEntity> remapping)
+    {
+        return shardFor(id).computeIfPresent(id, remapping);
+    }
+
+    @Override
+    public boolean accepts(String id)
+    {
+        return shardFor(id).accepts(id);
+    }
+
+    @Override
+    public String newId()
+    {
+        return routing.newId();
+    }
+
+    @Override
+    public int size()
+    {
+        var size = 0;
+        for (final var shard : shards)
+        {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    //Shard by shard, each weakly consistent in its own right
+    @Override
+    public Iterable<Map.Entry<String, MartianEntity>> entries()
+    {
+        return () -> new Iterator<>()
+        {
+            private int nextShard;
+            private Iterator<Map.Entry<String, MartianEntity>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextShard < shards.length)
+                {
+                    current = shards[nextShard++].entries().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    //Shard after shard, each in its own order, so a cursor only ever needs the shard it names and those after it
+    @Override
+    public Comparator<String> cursorOrder()
+    {
+        return cursorOrder;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, MartianEntity>> entriesAfter(String afterId)
+    {
+        return new Iterator<>()
+        {
+            private int nextShard = afterId == null ? 0 : routing.shardOf(afterId) + 1;
+            private Iterator<Map.Entry<String, MartianEntity>> current = afterId == null ? Collections.emptyIterator() : shardFor(afterId).entriesAfter(afterId);
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && nextShard < shards.length)
+                {
+                    current = shards[nextShard++].entriesAfter(null);
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, MartianEntity> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public void close()
+    {
+        for (final var shard : shards)
+        {
+            shard.close();
+        }
+    }
+
+    private EntityStore shardFor(String id)
+    {
+        return shards[routing.shardOf(id)];
+    }
+}
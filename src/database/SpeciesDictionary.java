@@ -0,0 +1,45 @@
+package database;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Maps each distinct species string to a small int code so entities only store the code. Codes start at 1 so 0 can mark an empty slot.
+//Species are never evicted: the dictionary is sized by distinct species, not by entity count
+final class SpeciesDictionary
+{
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] speciesByCode = new String[64];
+    private int nextCode = 1;
+
+    int intern(String species)
+    {
+        final var code = codes.get(species);
+        if (code != null)
+        {
+            return code;
+        }
+        synchronized (this)
+        {
+            final var existing = codes.get(species);
+            if (existing != null)
+            {
+                return existing;
+            }
+            var table = speciesByCode;
+            if (nextCode == table.length)
+            {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[nextCode] = species;
+            //Volatile write after the element store publishes it to readers that obtained the code elsewhere
+            speciesByCode = table;
+            codes.put(species, nextCode);
+            return nextCode++;
+        }
+    }
+
+    String species(int code)
+    {
+        return speciesByCode[code];
+    }
+}
@@ -0,0 +1,11 @@
+package database;
+
+public enum StorageMode
+{
+    //Entities kept as objects in a ConcurrentHashMap keyed by their id string
+    HEAP,
+    //Ids kept as two longs, species interned into a dictionary and clearance packed into a byte, all in primitive arrays
+    COMPACT,
+    //Records in memory-mapped files behind an open-addressing index, off the heap and decoded on read, so the data set can outgrow the heap
+    MAPPED
+}
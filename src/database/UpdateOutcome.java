@@ -0,0 +1,9 @@
+package database;
+
+public enum UpdateOutcome
+{
+    UPDATED,
+    //Also returned when the clearance is insufficient, so a caller cannot tell a forbidden entity from a missing one
+    NOT_FOUND,
+    VERSION_MISMATCH
+}
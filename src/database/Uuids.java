@@ -0,0 +1,74 @@
+package database;
+
+import java.util.Comparator;
+
+//Parses canonical (lower-case 8-4-4-4-12, as UUID.toString produces) UUID strings into their two longs without allocating or throwing, so unknown ids are cheap to reject
+public final class Uuids
+{
+    //Canonical UUIDs by their mixed bits read as an unsigned number, then by id for the rare collision. Compact and mapped stores place ids
+    //by the top bits of the mix, so this is the order they can walk their segments in without sorting everything at once
+    static final Comparator<String> HASH_ORDER = Comparator.comparingLong((String id) -> mix(mostSignificantBits(id), leastSignificantBits(id)) ^ Long.MIN_VALUE)
+            .thenComparing(Comparator.naturalOrder());
+
+    private Uuids()
+    {
+    }
+
+    public static boolean isCanonical(String id)
+    {
+        if (id == null || id.length() != 36)
+        {
+            return false;
+        }
+        for (int i = 0; i < 36; i++)
+        {
+            final var isDash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (isDash ? id.charAt(i) != '-' : hexValue(id.charAt(i)) < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Callers must check isCanonical first
+    public static long mostSignificantBits(String id)
+    {
+        return hexRange(id, 0, 8) << 32 | hexRange(id, 9, 13) << 16 | hexRange(id, 14, 18);
+    }
+
+    public static long leastSignificantBits(String id)
+    {
+        return hexRange(id, 19, 23) << 48 | hexRange(id, 24, 36);
+    }
+
+    //Spreads the id's bits so consecutive or patterned ids land far apart
+    static long mix(long high, long low)
+    {
+        final var hash = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static long hexRange(String id, int from, int to)
+    {
+        var value = 0L;
+        for (int i = from; i < to; i++)
+        {
+            value = value << 4 | hexValue(id.charAt(i));
+        }
+        return value;
+    }
+
+    private static int hexValue(char character)
+    {
+        if (character >= '0' && character <= '9')
+        {
+            return character - '0';
+        }
+        if (character >= 'a' && character <= 'f')
+        {
+            return character - 'a' + 10;
+        }
+        return -1;
+    }
+}
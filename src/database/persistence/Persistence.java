@@ -0,0 +1,126 @@
+package database.persistence;
+
+import models.MartianEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+//Durability for an in-memory store: every mutation is appended to the write-ahead log and a compact snapshot is taken periodically.
+//Recovery loads the latest snapshot and replays the log from the segment that was active when that snapshot started
+public class Persistence implements AutoCloseable
+{
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    private final Path directory;
+    private final Supplier<Iterable<Map.Entry<String, MartianEntity>>> snapshotSource;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService snapshotScheduler;
+    private final RecoveryReport recoveryReport;
+
+    public Persistence(Path directory, Duration snapshotInterval, RecoverySink sink,
+                       Supplier<Iterable<Map.Entry<String, MartianEntity>>> snapshotSource) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotSource = snapshotSource;
+        this.recoveryReport = recover(sink);
+        this.log = new WriteAheadLog(directory, WriteAheadLog.latestGeneration(directory) + 1);
+
+        if (snapshotInterval == null || snapshotInterval.isZero() || snapshotInterval.isNegative())
+        {
+            this.snapshotScheduler = null;
+            return;
+        }
+        this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final var thread = new Thread(runnable, "martian-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    //The returned future completes once the record has been forced to disk together with the rest of its group
+    public CompletableFuture<Long> logAdd(String id, MartianEntity entity)
+    {
+        return log.append(RecordCodec.encode(RecordCodec.ADD, id, entity));
+    }
+
+    public CompletableFuture<Long> logUpdate(String id, MartianEntity entity)
+    {
+        return log.append(RecordCodec.encode(RecordCodec.UPDATE, id, entity));
+    }
+
+    public CompletableFuture<Long> logDelete(String id)
+    {
+        return log.append(RecordCodec.encode(RecordCodec.DELETE, id, null));
+    }
+
+    //Writers keep going while the snapshot is taken. Replaying the previous segment over it reapplies anything the iteration missed,
+    //and as replayed adds and updates are puts that is harmless for anything it did see
+    public synchronized long snapshot() throws IOException
+    {
+        final var replayFromGeneration = log.roll();
+        final var count = Snapshots.write(directory.resolve(SNAPSHOT_FILE), replayFromGeneration, snapshotSource.get());
+        log.deleteSegmentsBefore(replayFromGeneration);
+        return count;
+    }
+
+    public RecoveryReport getRecoveryReport()
+    {
+        return recoveryReport;
+    }
+
+    @Override
+    public void close()
+    {
+        if (snapshotScheduler != null)
+        {
+            snapshotScheduler.shutdownNow();
+        }
+        log.close();
+    }
+
+    private RecoveryReport recover(RecoverySink sink) throws IOException
+    {
+        final var start = System.nanoTime();
+        final var snapshotEntities = new long[1];
+        final var replayFromGeneration = Snapshots.read(directory.resolve(SNAPSHOT_FILE), new RecoverySink()
+        {
+            @Override
+            public void put(String id, MartianEntity entity)
+            {
+                snapshotEntities[0]++;
+                sink.put(id, entity);
+            }
+
+            @Override
+            public void remove(String id)
+            {
+                sink.remove(id);
+            }
+        });
+        final var replayed = WriteAheadLog.replay(directory, replayFromGeneration, sink);
+        return new RecoveryReport(snapshotEntities[0], replayed, System.nanoTime() - start);
+    }
+
+    private void snapshotQuietly()
+    {
+        try
+        {
+            snapshot();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            //The log still holds everything, so a failed snapshot only delays compaction until the next attempt.
+            //Rethrowing would cancel every later run of the schedule
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package database.persistence;
+
+import database.Uuids;
+import models.Clearance;
+import models.MartianEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+//Compact binary layout shared by the write-ahead log and snapshots:
+//op (1 byte) | id as two longs (16 bytes) | [version (8 bytes) | expiry (8 bytes) | species length (4 bytes) | species UTF-8 | clearance ordinal (1 byte)] for adds and updates
+final class RecordCodec
+{
+    static final byte ADD = 1;
+    static final byte UPDATE = 2;
+    static final byte DELETE = 3;
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    private RecordCodec()
+    {
+    }
+
+    //Only canonical ids are accepted, since decoding always yields the canonical form: anything else would come back under a different key
+    static byte[] encode(byte operation, String id, MartianEntity entity)
+    {
+        if (!Uuids.isCanonical(id))
+        {
+            throw new IllegalArgumentException(String.format("Only canonical UUID ids can be logged, got [%s]", id));
+        }
+        final var species = entity == null ? null : entity.getSpecies().getBytes(StandardCharsets.UTF_8);
+        final var buffer = ByteBuffer.allocate(1 + 16 + (species == null ? 0 : 8 + 8 + 4 + species.length + 1));
+        buffer.put(operation)
+                .putLong(Uuids.mostSignificantBits(id))
+                .putLong(Uuids.leastSignificantBits(id));
+        if (species != null)
+        {
+            buffer.putLong(entity.getVersion())
+                    .putLong(entity.getExpiresAt())
+                    .putInt(species.length)
+                    .put(species)
+                    .put((byte) entity.getClearanceRequired().ordinal());
+        }
+        return buffer.array();
+    }
+
+    static void decode(ByteBuffer record, RecoverySink sink)
+    {
+        final var operation = record.get();
+        final var id = new UUID(record.getLong(), record.getLong()).toString();
+        if (operation == DELETE)
+        {
+            sink.remove(id);
+            return;
+        }
+        final var version = record.getLong();
+        final var expiresAt = record.getLong();
+        final var species = new byte[record.getInt()];
+        record.get(species);
+        sink.put(id, new MartianEntity(new String(species, StandardCharsets.UTF_8), CLEARANCES[record.get()], version, expiresAt));
+    }
+}
@@ -0,0 +1,39 @@
+package database.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+public class RecoveryReport
+{
+    private final long snapshotEntities;
+    private final long logRecordsReplayed;
+    private final long durationNanos;
+
+    public RecoveryReport(long snapshotEntities, long logRecordsReplayed, long durationNanos)
+    {
+        this.snapshotEntities = snapshotEntities;
+        this.logRecordsReplayed = logRecordsReplayed;
+        this.durationNanos = durationNanos;
+    }
+
+    public long getSnapshotEntities()
+    {
+        return snapshotEntities;
+    }
+
+    public long getLogRecordsReplayed()
+    {
+        return logRecordsReplayed;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Recovered [%d] entities from snapshot and replayed [%d] log records in [%d] ms",
+                snapshotEntities, logRecordsReplayed, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+}
@@ -0,0 +1,11 @@
+package database.persistence;
+
+import models.MartianEntity;
+
+//Receives recovered state. Replayed adds and updates are both puts so a log tail can be replayed over a snapshot that already contains some of it
+public interface RecoverySink
+{
+    void put(String id, MartianEntity entity);
+
+    void remove(String id);
+}
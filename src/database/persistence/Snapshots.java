@@ -0,0 +1,98 @@
+package database.persistence;
+
+import models.MartianEntity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+//Snapshot layout: magic | format version | first log generation to replay | (record length | record)* | 0 | entity count | CRC32 of everything before it
+//Records use the write-ahead log encoding so both share one decoder
+final class Snapshots
+{
+    private static final int MAGIC = 0x4D534E50;
+    private static final byte FORMAT_VERSION = 3;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private Snapshots()
+    {
+    }
+
+    static long write(Path snapshot, long replayFromGeneration, Iterable<Map.Entry<String, MartianEntity>> entities) throws IOException
+    {
+        final var temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        final var crc = new CRC32();
+        var count = 0L;
+        try (final var output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_BYTES), crc)))
+        {
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(replayFromGeneration);
+            for (final var entry : entities)
+            {
+                final var record = RecordCodec.encode(RecordCodec.ADD, entry.getKey(), entry.getValue());
+                output.writeInt(record.length);
+                output.write(record);
+                count++;
+            }
+            output.writeInt(0);
+            output.writeLong(count);
+            output.flush();
+            output.writeInt((int) crc.getValue());
+        }
+        try (final var channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+        {
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    //Loads the snapshot into the sink and returns the first log generation that must be replayed on top of it, or 0 when there is no snapshot
+    static long read(Path snapshot, RecoverySink sink) throws IOException
+    {
+        if (!Files.exists(snapshot))
+        {
+            return 0;
+        }
+
+        final var crc = new CRC32();
+        try (final var input = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_BYTES), crc)))
+        {
+            if (input.readInt() != MAGIC || input.readByte() != FORMAT_VERSION)
+            {
+                throw new IOException("Unrecognised snapshot format in " + snapshot);
+            }
+            final var replayFromGeneration = input.readLong();
+            var length = input.readInt();
+            var count = 0L;
+            while (length > 0)
+            {
+                final var record = new byte[length];
+                input.readFully(record);
+                RecordCodec.decode(ByteBuffer.wrap(record), sink);
+                count++;
+                length = input.readInt();
+            }
+            final var expectedCount = input.readLong();
+            final var actualCrc = (int) crc.getValue();
+            if (expectedCount != count || input.readInt() != actualCrc)
+            {
+                throw new IOException("Snapshot " + snapshot + " is corrupt");
+            }
+            return replayFromGeneration;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package database.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+//Append-only log split into numbered segments. A single writer thread drains every pending record, writes them in one go and forces the
+//channel once, so concurrent appenders share the cost of each fsync (group commit). Each record is framed as length | CRC32 | payload.
+//A failed write or force is cut back to the end of the last forced group before anything else is written, since replay stops a segment
+//at the first torn frame and would otherwise drop every acknowledged record after it. If even that fails the log refuses all later writes
+class WriteAheadLog implements AutoCloseable
+{
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_DRAIN = 4096;
+
+    private final Path directory;
+    private final SegmentOpener segmentOpener;
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final ByteBuffer batchBuffer = ByteBuffer.allocateDirect(1 << 20);
+    private final Thread writer;
+    private volatile boolean closed;
+    //Set once the log could not be put back to a clean end; every write after that is refused
+    private volatile IOException failure;
+    //Only touched by the writer thread
+    private FileChannel segment;
+    private long generation;
+    //Where the segment's last forced frame ends
+    private long syncedSize;
+
+    interface SegmentOpener
+    {
+        FileChannel open(Path path) throws IOException;
+    }
+
+    private static class PendingWrite
+    {
+        private final byte[] record;
+        private final Control control;
+        private final CompletableFuture<Long> written = new CompletableFuture<>();
+
+        private PendingWrite(byte[] record, Control control)
+        {
+            this.record = record;
+            this.control = control;
+        }
+    }
+
+    private enum Control
+    {
+        NONE, ROLL, CLOSE
+    }
+
+    WriteAheadLog(Path directory, long generation) throws IOException
+    {
+        this(directory, generation, path -> FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    WriteAheadLog(Path directory, long generation, SegmentOpener segmentOpener) throws IOException
+    {
+        this.directory = directory;
+        this.segmentOpener = segmentOpener;
+        this.generation = generation;
+        this.segment = openSegment(generation);
+        this.writer = new Thread(this::writeUntilClosed, "martian-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    CompletableFuture<Long> append(byte[] record)
+    {
+        return enqueue(new PendingWrite(record, Control.NONE));
+    }
+
+    //Switches new appends to a fresh segment and returns the generation of the segment that was active until now
+    long roll()
+    {
+        return enqueue(new PendingWrite(null, Control.ROLL)).join();
+    }
+
+    void deleteSegmentsBefore(long generation) throws IOException
+    {
+        for (final var existing : segmentGenerations(directory))
+        {
+            if (existing < generation)
+            {
+                Files.deleteIfExists(segmentPath(directory, existing));
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        final var closeMarker = new PendingWrite(null, Control.CLOSE);
+        pendingWrites.add(closeMarker);
+        closeMarker.written.join();
+    }
+
+    private CompletableFuture<Long> enqueue(PendingWrite pendingWrite)
+    {
+        if (closed)
+        {
+            pendingWrite.written.completeExceptionally(new IllegalStateException("Write-ahead log is closed"));
+            return pendingWrite.written;
+        }
+        if (failure != null && pendingWrite.control != Control.CLOSE)
+        {
+            pendingWrite.written.completeExceptionally(new IllegalStateException("Write-ahead log has failed", failure));
+            return pendingWrite.written;
+        }
+        pendingWrites.add(pendingWrite);
+        return pendingWrite.written;
+    }
+
+    private void writeUntilClosed()
+    {
+        final var drained = new ArrayList<PendingWrite>();
+        final var awaitingSync = new ArrayList<PendingWrite>();
+        var running = true;
+        while (running)
+        {
+            try
+            {
+                drained.add(pendingWrites.take());
+                pendingWrites.drainTo(drained, MAX_DRAIN);
+                for (final var pendingWrite : drained)
+                {
+                    if (failure != null && pendingWrite.control != Control.CLOSE)
+                    {
+                        pendingWrite.written.completeExceptionally(new IllegalStateException("Write-ahead log has failed", failure));
+                        continue;
+                    }
+                    if (pendingWrite.control == Control.NONE)
+                    {
+                        write(pendingWrite.record);
+                        awaitingSync.add(pendingWrite);
+                        continue;
+                    }
+
+                    sync(awaitingSync);
+                    if (pendingWrite.control == Control.ROLL)
+                    {
+                        final var previousGeneration = generation;
+                        segment.close();
+                        segment = openSegment(++generation);
+                        pendingWrite.written.complete(previousGeneration);
+                    }
+                    else
+                    {
+                        running = false;
+                        segment.close();
+                        pendingWrite.written.complete(generation);
+                    }
+                }
+                sync(awaitingSync);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                drained.forEach(pendingWrite -> pendingWrite.written.completeExceptionally(e));
+                awaitingSync.clear();
+                batchBuffer.clear();
+                discardUnsynced();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            drained.clear();
+        }
+        //Anything that raced in behind the close marker can no longer be written
+        pendingWrites.forEach(pendingWrite -> pendingWrite.written.completeExceptionally(new IllegalStateException("Write-ahead log is closed")));
+    }
+
+    private void write(byte[] record) throws IOException
+    {
+        if (batchBuffer.remaining() < FRAME_HEADER_BYTES + record.length)
+        {
+            flushBatchBuffer();
+        }
+        final var target = batchBuffer.remaining() < FRAME_HEADER_BYTES + record.length
+                ? ByteBuffer.allocate(FRAME_HEADER_BYTES + record.length)
+                : batchBuffer;
+        final var crc = new CRC32();
+        crc.update(record);
+        target.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        if (target != batchBuffer)
+        {
+            writeFully(target.flip());
+        }
+    }
+
+    private void sync(List<PendingWrite> awaitingSync) throws IOException
+    {
+        if (awaitingSync.isEmpty())
+        {
+            return;
+        }
+        flushBatchBuffer();
+        segment.force(false);
+        syncedSize = segment.size();
+        awaitingSync.forEach(pendingWrite -> pendingWrite.written.complete(generation));
+        awaitingSync.clear();
+    }
+
+    //None of what follows the last forced frame was acknowledged, so cutting it off loses nothing and leaves the next frame where replay
+    //will look for it. A segment that was closed by a failed roll cannot be cut back, so that fails the log too
+    private void discardUnsynced()
+    {
+        if (failure != null)
+        {
+            return;
+        }
+        try
+        {
+            segment.truncate(syncedSize);
+            segment.force(false);
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    private void flushBatchBuffer() throws IOException
+    {
+        writeFully(batchBuffer.flip());
+        batchBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            segment.write(buffer);
+        }
+    }
+
+    private FileChannel openSegment(long generation) throws IOException
+    {
+        final var opened = segmentOpener.open(segmentPath(directory, generation));
+        syncedSize = opened.size();
+        return opened;
+    }
+
+    //Replays every intact record from the given generation onwards. A torn or corrupt frame ends replay of that segment, as it can only be a write that never completed
+    static long replay(Path directory, long fromGeneration, RecoverySink sink) throws IOException
+    {
+        var replayed = 0L;
+        for (final var generation : segmentGenerations(directory))
+        {
+            if (generation < fromGeneration)
+            {
+                continue;
+            }
+            try (final var channel = FileChannel.open(segmentPath(directory, generation), StandardOpenOption.READ))
+            {
+                final var contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (contents.remaining() >= FRAME_HEADER_BYTES)
+                {
+                    final var length = contents.getInt();
+                    final var expectedCrc = contents.getInt();
+                    if (length <= 0 || length > contents.remaining())
+                    {
+                        break;
+                    }
+                    final var record = contents.slice().limit(length);
+                    final var crc = new CRC32();
+                    crc.update(record.duplicate());
+                    if ((int) crc.getValue() != expectedCrc)
+                    {
+                        break;
+                    }
+                    RecordCodec.decode(record, sink);
+                    contents.position(contents.position() + length);
+                    replayed++;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    static long latestGeneration(Path directory) throws IOException
+    {
+        final var generations = segmentGenerations(directory);
+        return generations.isEmpty() ? 0 : generations.get(generations.size() - 1);
+    }
+
+    private static List<Long> segmentGenerations(Path directory) throws IOException
+    {
+        try (final var files = Files.list(directory))
+        {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches(SEGMENT_PREFIX + "\\d+\\" + SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path segmentPath(Path directory, long generation)
+    {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+}
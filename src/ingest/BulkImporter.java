@@ -0,0 +1,196 @@
+package ingest;
+
+import database.Database;
+import models.MartianEntity;
+import serialisation.JsonEngine;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//Loads newline-delimited MartianEntity JSON into a Database. The file is read through a sliding memory-mapped window and each line is parsed
+//straight from a reusable byte buffer; parsed batches go through a bounded queue so the reader blocks rather than buffering when inserts fall behind
+public class BulkImporter
+{
+    private static final int DEFAULT_MAPPING_WINDOW_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    private static final List<MartianEntity> END_OF_FILE = new ArrayList<>();
+
+    private final Database database;
+    private final int workers;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final int mappingWindowBytes;
+
+    public BulkImporter(Database database)
+    {
+        this(database, Runtime.getRuntime().availableProcessors(), 64, 1024, DEFAULT_MAPPING_WINDOW_BYTES);
+    }
+
+    public BulkImporter(Database database, int workers, int queueCapacity, int batchSize, int mappingWindowBytes)
+    {
+        this.database = database;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.mappingWindowBytes = mappingWindowBytes;
+    }
+
+    public ImportReport importFile(Path file) throws IOException, InterruptedException
+    {
+        final var start = System.nanoTime();
+        final var accepted = new LongAdder();
+        final var rejected = new LongAdder();
+        final BlockingQueue<List<MartianEntity>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final var executor = Executors.newFixedThreadPool(workers);
+        final var inserters = new ArrayList<Future<?>>();
+        for (int i = 0; i < workers; i++)
+        {
+            inserters.add(executor.submit(() -> insertUntilEndOfFile(queue, accepted, rejected)));
+        }
+
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final var lineBuffer = new byte[MAX_RECORD_BYTES];
+            var lineLength = 0;
+            var oversized = false;
+            var batch = new ArrayList<MartianEntity>(batchSize);
+            final var size = channel.size();
+
+            for (long windowStart = 0; windowStart < size; windowStart += mappingWindowBytes)
+            {
+                final var window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(mappingWindowBytes, size - windowStart));
+                while (window.hasRemaining())
+                {
+                    final var next = window.get();
+                    if (next != '\n')
+                    {
+                        if (lineLength < MAX_RECORD_BYTES)
+                        {
+                            lineBuffer[lineLength++] = next;
+                        }
+                        else
+                        {
+                            oversized = true;
+                        }
+                        continue;
+                    }
+
+                    batch = acceptLine(lineBuffer, lineLength, oversized, batch, queue, rejected, inserters);
+                    lineLength = 0;
+                    oversized = false;
+                }
+            }
+            batch = acceptLine(lineBuffer, lineLength, oversized, batch, queue, rejected, inserters);
+            if (!batch.isEmpty())
+            {
+                enqueue(batch, queue, inserters);
+            }
+            for (int i = 0; i < workers; i++)
+            {
+                enqueue(END_OF_FILE, queue, inserters);
+            }
+            for (final var inserter : inserters)
+            {
+                inserter.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Bulk import failed while inserting into the database", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return new ImportReport(accepted.sum(), rejected.sum(), System.nanoTime() - start);
+    }
+
+    private ArrayList<MartianEntity> acceptLine(byte[] line, int length, boolean oversized, ArrayList<MartianEntity> batch,
+                                                BlockingQueue<List<MartianEntity>> queue, LongAdder rejected, List<Future<?>> inserters)
+            throws InterruptedException, ExecutionException
+    {
+        if (length > 0 && line[length - 1] == '\r')
+        {
+            length--;
+        }
+        if (length == 0 && !oversized)
+        {
+            return batch;
+        }
+
+        final var entity = oversized ? null : parse(line, length);
+        if (entity == null)
+        {
+            rejected.increment();
+            return batch;
+        }
+
+        batch.add(entity);
+        if (batch.size() < batchSize)
+        {
+            return batch;
+        }
+        enqueue(batch, queue, inserters);
+        return new ArrayList<>(batchSize);
+    }
+
+    private static MartianEntity parse(byte[] line, int length)
+    {
+        try
+        {
+            return JsonEngine.readEntityObject(line, 0, length);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    //Blocks while the queue is full, which is the back-pressure on the reader, but gives up if an inserter has died
+    private static void enqueue(List<MartianEntity> batch, BlockingQueue<List<MartianEntity>> queue, List<Future<?>> inserters)
+            throws InterruptedException, ExecutionException
+    {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+        {
+            for (final var inserter : inserters)
+            {
+                if (inserter.isDone())
+                {
+                    inserter.get();
+                }
+            }
+        }
+    }
+
+    private Void insertUntilEndOfFile(BlockingQueue<List<MartianEntity>> queue, LongAdder accepted, LongAdder rejected) throws InterruptedException
+    {
+        var batch = queue.take();
+        while (batch != END_OF_FILE)
+        {
+            for (final var id : database.addMartians(batch))
+            {
+                if (id == null)
+                {
+                    rejected.increment();
+                }
+                else
+                {
+                    accepted.increment();
+                }
+            }
+            batch = queue.take();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package ingest;
+
+import java.util.concurrent.TimeUnit;
+
+public class ImportReport
+{
+    private final long accepted;
+    private final long rejected;
+    private final long elapsedNanos;
+
+    public ImportReport(long accepted, long rejected, long elapsedNanos)
+    {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getAccepted()
+    {
+        return accepted;
+    }
+
+    public long getRejected()
+    {
+        return rejected;
+    }
+
+    public long getRecordsRead()
+    {
+        return accepted + rejected;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    public double getRecordsPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : getRecordsRead() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Imported [%d] records, rejected [%d], in [%d] ms ([%.0f] records/s)",
+                accepted, rejected, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getRecordsPerSecond());
+    }
+}
@@ -0,0 +1,27 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter
+{
+    private final LongAdder value = new LongAdder();
+
+    Counter()
+    {
+    }
+
+    public void increment()
+    {
+        value.increment();
+    }
+
+    public void add(long amount)
+    {
+        value.add(amount);
+    }
+
+    public long get()
+    {
+        return value.sum();
+    }
+}
@@ -0,0 +1,105 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//Log-linear buckets in the style of HdrHistogram: exact below 8ns, then 8 buckets per power of two, so any recorded value is reported within
+//12.5% of its true value across the whole range of a long. Each bucket is a LongAdder, so concurrent recorders never contend on one cache line
+//and recording allocates nothing once the adders have striped. Values are kept since startup, so quantiles are lifetime rather than windowed
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram()
+    {
+        for (int i = 0; i < buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos)
+    {
+        final var value = Math.max(0, nanos);
+        buckets[bucketOf(value)].increment();
+        count.increment();
+        sumNanos.add(value);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getSumNanos()
+    {
+        return sumNanos.sum();
+    }
+
+    //Upper bound of the bucket holding the given quantile, or 0 when nothing has been recorded. Buckets are read one at a time without
+    //stopping recorders, so under load the answer is for a histogram that was never exactly instantaneous, which is fine for monitoring
+    public long quantileNanos(double quantile)
+    {
+        final var counts = new long[buckets.length];
+        var total = 0L;
+        for (int i = 0; i < buckets.length; i++)
+        {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        final var rank = Math.max(1, (long) Math.ceil(quantile * total));
+        var seen = 0L;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(counts.length - 1);
+    }
+
+    public double quantileSeconds(double quantile)
+    {
+        return quantileNanos(quantile) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        final var exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        final var shift = bucket / SUB_BUCKETS - 1;
+        final var lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,140 @@
+package metrics;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//Process-wide registry, in the manner of the Prometheus default registry. Instrumented classes look their metrics up once into static
+//fields, so the hot path only ever touches a LongAdder; registration is idempotent, so every Database instance shares the same series
+public final class Metrics
+{
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final ConcurrentSkipListMap<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics()
+    {
+    }
+
+    //Labels are given as alternating names and values, e.g. counter("requests_total", "...", "endpoint", "retrieve", "status", "2xx")
+    public static Counter counter(String name, String help, String... labels)
+    {
+        return (Counter) family(name, help, "counter", labels).series.computeIfAbsent(render(labels), key -> new Counter());
+    }
+
+    public static LatencyHistogram histogram(String name, String help, String... labels)
+    {
+        return (LatencyHistogram) family(name, help, "summary", labels).series.computeIfAbsent(render(labels), key -> new LatencyHistogram());
+    }
+
+    //Every registered series in the Prometheus text exposition format. Histograms are exported as summaries: quantiles in seconds plus _sum and _count
+    public static void writePrometheus(StringBuilder output)
+    {
+        for (final var entry : FAMILIES.entrySet())
+        {
+            final var name = entry.getKey();
+            final var family = entry.getValue();
+            writeHeader(output, name, family.help, family.type);
+            for (final var series : family.series.entrySet())
+            {
+                final var labels = series.getKey();
+                if (series.getValue() instanceof Counter)
+                {
+                    writeSample(output, name, labels, ((Counter) series.getValue()).get());
+                    continue;
+                }
+                final var histogram = (LatencyHistogram) series.getValue();
+                for (final var quantile : QUANTILES)
+                {
+                    writeSample(output, name, labels + ",quantile=\"" + quantile + "\"", histogram.quantileSeconds(quantile));
+                }
+                writeSample(output, name + "_sum", labels, histogram.getSumNanos() / 1e9);
+                writeSample(output, name + "_count", labels, histogram.getCount());
+            }
+        }
+    }
+
+    //For values that live outside the registry, such as a per-database cache, so they can be appended in the same format
+    public static void writeUnlabelled(StringBuilder output, String name, String help, String type, double value)
+    {
+        writeHeader(output, name, help, type);
+        writeSample(output, name, null, value);
+    }
+
+    private static Family family(String name, String help, String type, String[] labels)
+    {
+        if (labels.length == 0 || labels.length % 2 != 0)
+        {
+            throw new IllegalArgumentException(String.format("Metric [%s] needs labels as name and value pairs", name));
+        }
+        final var labelNames = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2)
+        {
+            labelNames.append(labels[i]).append(',');
+        }
+        final var family = FAMILIES.computeIfAbsent(name, key -> new Family(help, type, labelNames.toString()));
+        if (!family.type.equals(type) || !family.labelNames.equals(labelNames.toString()))
+        {
+            throw new IllegalArgumentException(String.format("Metric [%s] is already registered as a %s labelled by [%s]", name, family.type, family.labelNames));
+        }
+        return family;
+    }
+
+    private static String render(String[] labels)
+    {
+        final var rendered = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2)
+        {
+            if (i > 0)
+            {
+                rendered.append(',');
+            }
+            rendered.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return rendered.toString();
+    }
+
+    private static void writeHeader(StringBuilder output, String name, String help, String type)
+    {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder output, String name, String labels, double value)
+    {
+        output.append(name);
+        if (labels != null)
+        {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ');
+        //Whole numbers without a trailing .0, as counters are conventionally shown
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            output.append((long) value);
+        }
+        else
+        {
+            output.append(value);
+        }
+        output.append('\n');
+    }
+
+    private static String escape(String labelValue)
+    {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Family
+    {
+        private final String help;
+        private final String type;
+        private final String labelNames;
+        //Keyed by the rendered label set, so series come out in a stable order
+        private final ConcurrentSkipListMap<String, Object> series = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type, String labelNames)
+        {
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult
+{
+    @JsonProperty("index")
+    private final int index;
+    @JsonProperty("id")
+    private final String id;
+    @JsonProperty("statusCode")
+    private final int statusCode;
+    @JsonProperty("entity")
+    private final MartianEntity entity;
+    @JsonProperty("message")
+    private final String message;
+
+    @JsonCreator
+    public BatchItemResult(@JsonProperty("index") int index, @JsonProperty("id") String id, @JsonProperty("statusCode") int statusCode,
+                           @JsonProperty("entity") MartianEntity entity, @JsonProperty("message") String message)
+    {
+        this.index = index;
+        this.id = id;
+        this.statusCode = statusCode;
+        this.entity = entity;
+        this.message = message;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    public MartianEntity getEntity()
+    {
+        return entity;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+}
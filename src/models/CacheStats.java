@@ -0,0 +1,50 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CacheStats
+{
+    @JsonProperty("hits")
+    private final long hits;
+    @JsonProperty("misses")
+    private final long misses;
+    @JsonProperty("evictions")
+    private final long evictions;
+    @JsonProperty("size")
+    private final int size;
+
+    public CacheStats(long hits, long misses, long evictions, int size)
+    {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    @JsonProperty("hitRate")
+    public double getHitRate()
+    {
+        final var lookups = hits + misses;
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+}
@@ -0,0 +1,66 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+//One change to one entity, as seen at a subscriber's clearance. Deletions carry only the id
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangeEvent
+{
+    @JsonProperty("sequence")
+    private final long sequence;
+    @JsonProperty("type")
+    private final ChangeType type;
+    @JsonProperty("id")
+    private final String id;
+    @JsonProperty("species")
+    private final String species;
+    @JsonProperty("clearanceRequired")
+    private final Clearance clearanceRequired;
+    @JsonProperty("version")
+    private final Long version;
+
+    @JsonCreator
+    public ChangeEvent(@JsonProperty("sequence") long sequence, @JsonProperty("type") ChangeType type, @JsonProperty("id") String id,
+                       @JsonProperty("species") String species, @JsonProperty("clearanceRequired") Clearance clearanceRequired,
+                       @JsonProperty("version") Long version)
+    {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.species = species;
+        this.clearanceRequired = clearanceRequired;
+        this.version = version;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public ChangeType getType()
+    {
+        return type;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getSpecies()
+    {
+        return species;
+    }
+
+    public Clearance getClearanceRequired()
+    {
+        return clearanceRequired;
+    }
+
+    public Long getVersion()
+    {
+        return version;
+    }
+}
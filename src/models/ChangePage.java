@@ -0,0 +1,33 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class ChangePage
+{
+    //In the order the changes were applied
+    @JsonProperty("events")
+    private final List<ChangeEvent> events;
+    //Pass back as "after" to carry on. Moves past changes the clearance may not see too, so it can be ahead of the last event's sequence
+    @JsonProperty("cursor")
+    private final long cursor;
+
+    @JsonCreator
+    public ChangePage(@JsonProperty("events") List<ChangeEvent> events, @JsonProperty("cursor") long cursor)
+    {
+        this.events = events;
+        this.cursor = cursor;
+    }
+
+    public List<ChangeEvent> getEvents()
+    {
+        return events;
+    }
+
+    public long getCursor()
+    {
+        return cursor;
+    }
+}
@@ -0,0 +1,8 @@
+package models;
+
+public enum ChangeType
+{
+    ADDED,
+    UPDATED,
+    DELETED
+}
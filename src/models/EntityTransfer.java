@@ -0,0 +1,51 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+//An entity with its id, version and expiry, as handed between nodes. Those travel explicitly because MartianEntity keeps them out of JSON
+public class EntityTransfer
+{
+    @JsonProperty("id")
+    private final String id;
+    @JsonProperty("version")
+    private final long version;
+    @JsonProperty("species")
+    private final String species;
+    @JsonProperty("clearanceRequired")
+    private final Clearance clearanceRequired;
+    @JsonProperty("expiresAt")
+    private final long expiresAt;
+
+    @JsonCreator
+    public EntityTransfer(@JsonProperty("id") String id, @JsonProperty("version") long version,
+                          @JsonProperty("species") String species, @JsonProperty("clearanceRequired") Clearance clearanceRequired,
+                          @JsonProperty("expiresAt") long expiresAt)
+    {
+        this.id = id;
+        this.version = version;
+        this.species = species;
+        this.clearanceRequired = clearanceRequired;
+        this.expiresAt = expiresAt;
+    }
+
+    public static EntityTransfer of(String id, MartianEntity entity)
+    {
+        return new EntityTransfer(id, entity.getVersion(), entity.getSpecies(), entity.getClearanceRequired(), entity.getExpiresAt());
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public MartianEntity toEntity()
+    {
+        return new MartianEntity(species, clearanceRequired, version, expiresAt);
+    }
+}
@@ -1,26 +1,64 @@
 package models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public class MartianEntity implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     @JsonProperty("species")
     private final String species;
     @JsonProperty("clearanceRequired")
     private final Clearance clearanceRequired;
+    //Assigned by the database, starting at 1 and incremented on every update. Zero for entities that have not been stored
+    @JsonIgnore
+    private final long version;
+    //Wall-clock milliseconds after which the entity reads as absent, or NEVER_EXPIRES. Assigned by the database from the uploaded ttlSeconds
+    @JsonIgnore
+    private final long expiresAt;
+    //Only ever read from an upload; the stored entity carries expiresAt instead
+    @JsonProperty(value = "ttlSeconds", access = JsonProperty.Access.WRITE_ONLY)
+    private final Long ttlSeconds;
+
+    public static final long NEVER_EXPIRES = 0;
 
     public MartianEntity(String species, Clearance clearanceRequired)
+    {
+        this(species, clearanceRequired, 0);
+    }
+
+    public MartianEntity(String species, Clearance clearanceRequired, long version)
+    {
+        this(species, clearanceRequired, version, NEVER_EXPIRES);
+    }
+
+    public MartianEntity(String species, Clearance clearanceRequired, long version, long expiresAt)
+    {
+        this(species, clearanceRequired, version, expiresAt, null);
+    }
+
+    private MartianEntity(String species, Clearance clearanceRequired, long version, long expiresAt, Long ttlSeconds)
     {
         this.species = species;
         this.clearanceRequired = clearanceRequired;
+        this.version = version;
+        this.expiresAt = expiresAt;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    //An entity as read from an upload, before the database has stored it. A null ttlSeconds means it never expires
+    public static MartianEntity uploaded(String species, Clearance clearanceRequired, Long ttlSeconds)
+    {
+        return new MartianEntity(species, clearanceRequired, 0, NEVER_EXPIRES, ttlSeconds);
     }
 
     public MartianEntity()
     {
-        this.species = null;
-        this.clearanceRequired = null;
+        this(null, null);
     }
 
     public String getSpecies()
@@ -32,4 +70,57 @@ public class MartianEntity implements Serializable
     {
         return clearanceRequired;
     }
+
+    @JsonIgnore
+    public long getVersion()
+    {
+        return version;
+    }
+
+    @JsonIgnore
+    public long getExpiresAt()
+    {
+        return expiresAt;
+    }
+
+    //Null unless the entity was uploaded with a time to live
+    public Long getTtlSeconds()
+    {
+        return ttlSeconds;
+    }
+
+    //Only entities with an expiry read the clock
+    @JsonIgnore
+    public boolean isExpired()
+    {
+        return expiresAt != NEVER_EXPIRES && System.currentTimeMillis() >= expiresAt;
+    }
+
+    public MartianEntity withVersion(long version, long expiresAt)
+    {
+        return new MartianEntity(getSpecies(), clearanceRequired, version, expiresAt);
+    }
+
+    //Value semantics, so entities compare equal however the storage chose to materialise them. The version and expiry are bookkeeping rather
+    //than content and are deliberately left out. The species is always read through its getter, which storage may override to decode it lazily
+    @Override
+    public boolean equals(Object other)
+    {
+        if (this == other)
+        {
+            return true;
+        }
+        if (!(other instanceof MartianEntity))
+        {
+            return false;
+        }
+        final var that = (MartianEntity) other;
+        return Objects.equals(getSpecies(), that.getSpecies()) && clearanceRequired == that.clearanceRequired;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(getSpecies(), clearanceRequired);
+    }
 }
@@ -0,0 +1,35 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class QueryPage
+{
+    //Keyed by id, in ascending id order
+    @JsonProperty("entities")
+    private final Map<String, MartianEntity> entities;
+    //Pass back as "after" to fetch the next page; absent on the last page
+    @JsonProperty("nextPageToken")
+    private final String nextPageToken;
+
+    @JsonCreator
+    public QueryPage(@JsonProperty("entities") Map<String, MartianEntity> entities, @JsonProperty("nextPageToken") String nextPageToken)
+    {
+        this.entities = entities;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public Map<String, MartianEntity> getEntities()
+    {
+        return entities;
+    }
+
+    public String getNextPageToken()
+    {
+        return nextPageToken;
+    }
+}
@@ -8,16 +8,36 @@ public class Response
     private final String message;
     private final int statusCode;
     private final Optional<String> id;
+    private final Optional<String> eTag;
+    private final byte[] binaryMessage;
     public Response(String message, int statusCode)
     {
         this(message, statusCode, null);
     }
 
     public Response(String message, int statusCode, String id)
+    {
+        this(message, statusCode, id, null);
+    }
+
+    public Response(String message, int statusCode, String id, String eTag)
+    {
+        this(message, null, statusCode, id, eTag);
+    }
+
+    //A successful response in a binary format, which has no text message
+    public Response(byte[] binaryMessage, int statusCode, String id, String eTag)
+    {
+        this(null, binaryMessage, statusCode, id, eTag);
+    }
+
+    private Response(String message, byte[] binaryMessage, int statusCode, String id, String eTag)
     {
         this.message = message;
+        this.binaryMessage = binaryMessage;
         this.statusCode = statusCode;
         this.id = Optional.ofNullable(id);
+        this.eTag = Optional.ofNullable(eTag);
     }
 
     public String getMessage()
@@ -25,6 +45,12 @@ public class Response
         return message;
     }
 
+    //Null unless the response was built in a binary format
+    public byte[] getBinaryMessage()
+    {
+        return binaryMessage;
+    }
+
     public int getStatusCode()
     {
         return statusCode;
@@ -35,4 +61,10 @@ public class Response
         return id.orElse("No id detected");
     }
 
+    //Null when the response does not describe a single stored entity
+    public String getETag()
+    {
+        return eTag.orElse(null);
+    }
+
 }
@@ -0,0 +1,83 @@
+package serialisation;
+
+import models.Clearance;
+import models.MartianEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+//A compact alternative to JSON for a single entity, negotiated with the media type below. An entity is one format byte, one clearance
+//byte (the enum's ordinal) and then the species as UTF-8 running to the end of the body, so "Moon fly" takes 10 bytes against 64 as JSON
+//and decoding is a bounds check, an array index and one String construction straight from the request bytes
+public final class BinaryEntityCodec
+{
+    public static final String MEDIA_TYPE = "application/x-martian-entity";
+    private static final byte FORMAT = 1;
+    private static final int HEADER_BYTES = 2;
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    private BinaryEntityCodec()
+    {
+    }
+
+    public static byte[] encode(MartianEntity entity)
+    {
+        final var species = entity.getSpecies().getBytes(StandardCharsets.UTF_8);
+        final var encoded = new byte[HEADER_BYTES + species.length];
+        encoded[0] = FORMAT;
+        encoded[1] = (byte) entity.getClearanceRequired().ordinal();
+        System.arraycopy(species, 0, encoded, HEADER_BYTES, species.length);
+        return encoded;
+    }
+
+    //Null, rather than an exception, for anything that is not a well-formed entity
+    public static MartianEntity decode(byte[] payload, int offset, int length)
+    {
+        return parse(payload, offset, length).getEntity();
+    }
+
+    //Says what was wrong with anything that is not a well-formed entity: too short, an unknown format or clearance, or species bytes that
+    //are not valid UTF-8
+    public static EntityParseResult parse(byte[] payload, int offset, int length)
+    {
+        if (payload == null || length < HEADER_BYTES)
+        {
+            return EntityParseResult.invalid(EntityProblem.TRUNCATED, null);
+        }
+        if (payload[offset] != FORMAT)
+        {
+            return EntityParseResult.invalid(EntityProblem.UNKNOWN_FORMAT, Integer.toString(payload[offset] & 0xff));
+        }
+        final var clearance = payload[offset + 1] & 0xff;
+        if (clearance >= CLEARANCES.length)
+        {
+            return EntityParseResult.invalid(EntityProblem.INVALID_CLEARANCE, Integer.toString(clearance));
+        }
+        final var species = species(payload, offset + HEADER_BYTES, length - HEADER_BYTES);
+        return species == null
+                ? EntityParseResult.invalid(EntityProblem.MALFORMED_SPECIES, null)
+                : EntityParseResult.valid(new MartianEntity(species, CLEARANCES[clearance]));
+    }
+
+    //ASCII, the usual case, is built directly from the bytes. Anything else goes through a reporting decoder, since String's own
+    //constructor would quietly turn malformed input into replacement characters where the JSON path rejects it
+    private static String species(byte[] payload, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (payload[i] < 0)
+            {
+                try
+                {
+                    return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(payload, offset, length)).toString();
+                }
+                catch (CharacterCodingException e)
+                {
+                    return null;
+                }
+            }
+        }
+        return new String(payload, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
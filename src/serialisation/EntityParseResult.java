@@ -0,0 +1,54 @@
+package serialisation;
+
+import models.MartianEntity;
+
+//Either the entity read from a body or what was wrong with the body, never both
+public final class EntityParseResult
+{
+    //Echoed values are cut short so a rejection cannot be used to reflect a large body back
+    private static final int MAX_DETAIL_CHARS = 64;
+
+    private final MartianEntity entity;
+    private final EntityProblem problem;
+    private final String message;
+
+    private EntityParseResult(MartianEntity entity, EntityProblem problem, String message)
+    {
+        this.entity = entity;
+        this.problem = problem;
+        this.message = message;
+    }
+
+    static EntityParseResult valid(MartianEntity entity)
+    {
+        return new EntityParseResult(entity, null, null);
+    }
+
+    static EntityParseResult invalid(EntityProblem problem, String detail)
+    {
+        final var shortened = detail != null && detail.length() > MAX_DETAIL_CHARS ? detail.substring(0, MAX_DETAIL_CHARS) + "..." : detail;
+        return new EntityParseResult(null, problem, problem.message(shortened));
+    }
+
+    public boolean isValid()
+    {
+        return problem == null;
+    }
+
+    //Null when the body was rejected
+    public MartianEntity getEntity()
+    {
+        return entity;
+    }
+
+    //Null when the body was accepted
+    public EntityProblem getProblem()
+    {
+        return problem;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+}
@@ -0,0 +1,32 @@
+package serialisation;
+
+//Why an entity body was rejected. The %s in a message stands for the offending detail, where there is one
+public enum EntityProblem
+{
+    TOO_LARGE("Entity body must not exceed %s bytes"),
+    MALFORMED("Entity body is not well-formed JSON"),
+    NOT_AN_OBJECT("Entity body must be a single JSON object"),
+    UNKNOWN_FIELD("Unknown field [%s]; an entity has species, clearanceRequired and optionally ttlSeconds"),
+    WRONG_TYPE("Field [%s] must be a string"),
+    MISSING_SPECIES("species is required"),
+    MISSING_CLEARANCE("clearanceRequired is required"),
+    INVALID_CLEARANCE("clearanceRequired [%s] is not a clearance level"),
+    INVALID_TTL("ttlSeconds must be a positive whole number of seconds"),
+    //The binary form's own problems
+    TRUNCATED("Entity body is too short to hold a format and a clearance"),
+    UNKNOWN_FORMAT("Entity body has unknown format [%s]"),
+    MALFORMED_SPECIES("species is not valid UTF-8");
+
+    private final String message;
+
+    EntityProblem(String message)
+    {
+        this.message = message;
+    }
+
+    //A plain substitution rather than String.format, which would cost more than finding the problem did
+    String message(String detail)
+    {
+        return detail == null ? message : message.replace("%s", detail);
+    }
+}
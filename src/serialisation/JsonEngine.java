@@ -0,0 +1,345 @@
+package serialisation;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import models.BatchItemResult;
+import models.CacheStats;
+import models.ChangePage;
+import models.Clearance;
+import models.EntityTransfer;
+import models.MartianEntity;
+import models.QueryPage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+//Built once and shared: ObjectReader/ObjectWriter are immutable and thread-safe, so the (de)serialiser caches for MartianEntity are only populated on first use
+public final class JsonEngine
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader ENTITY_READER = MAPPER.readerFor(MartianEntity.class);
+    private static final ObjectWriter ENTITY_WRITER = MAPPER.writerFor(MartianEntity.class);
+    private static final ObjectWriter BATCH_WRITER = MAPPER.writerFor(new TypeReference<List<BatchItemResult>>() {});
+    private static final ObjectReader BATCH_READER = MAPPER.readerFor(new TypeReference<List<BatchItemResult>>() {});
+    private static final ObjectWriter QUERY_PAGE_WRITER = MAPPER.writerFor(QueryPage.class);
+    private static final ObjectReader QUERY_PAGE_READER = MAPPER.readerFor(QueryPage.class);
+    private static final ObjectWriter CHANGE_PAGE_WRITER = MAPPER.writerFor(ChangePage.class);
+    private static final ObjectWriter CACHE_STATS_WRITER = MAPPER.writerFor(CacheStats.class);
+    private static final ObjectWriter ID_ARRAY_WRITER = MAPPER.writerFor(new TypeReference<List<String>>() {});
+    private static final ObjectWriter TRANSFER_WRITER = MAPPER.writerFor(new TypeReference<List<EntityTransfer>>() {});
+    private static final ObjectReader TRANSFER_READER = MAPPER.readerFor(new TypeReference<List<EntityTransfer>>() {});
+    private static final Clearance[] CLEARANCES = Clearance.values();
+    //Far beyond any real entity, which is a species name and a clearance. The server enforces it on the UTF-8 body as it arrives, before any
+    //of it is buffered; parseEntity checks it again for callers that hand over a String, where it is a lower bound since no character
+    //takes less than a byte
+    public static final int MAX_ENTITY_BYTES = 64 * 1024;
+
+    private JsonEngine()
+    {
+    }
+
+    public static MartianEntity readEntity(String payload) throws JsonProcessingException
+    {
+        return ENTITY_READER.readValue(payload);
+    }
+
+    //Validates as it streams, stopping at the first field that is unknown or holds a bad value, and reports what was wrong rather than
+    //throwing. Only a body that is not well-formed JSON costs an exception, the one Jackson's parser raises
+    public static EntityParseResult parseEntity(String payload)
+    {
+        if (payload == null)
+        {
+            return EntityParseResult.invalid(EntityProblem.NOT_AN_OBJECT, null);
+        }
+        if (payload.length() > MAX_ENTITY_BYTES)
+        {
+            return EntityParseResult.invalid(EntityProblem.TOO_LARGE, Integer.toString(MAX_ENTITY_BYTES));
+        }
+        try (final var parser = factory().createParser(payload))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return EntityParseResult.invalid(EntityProblem.NOT_AN_OBJECT, null);
+            }
+            final var result = readEntityFields(parser, false);
+            if (result.isValid() && parser.nextToken() != null)
+            {
+                return EntityParseResult.invalid(EntityProblem.NOT_AN_OBJECT, null);
+            }
+            return result;
+        }
+        catch (IOException e)
+        {
+            return EntityParseResult.invalid(EntityProblem.MALFORMED, null);
+        }
+    }
+
+    public static MartianEntity readEntity(byte[] payload, int offset, int length) throws IOException
+    {
+        return ENTITY_READER.readValue(payload, offset, length);
+    }
+
+    public static String writeEntity(MartianEntity entity) throws JsonProcessingException
+    {
+        return ENTITY_WRITER.writeValueAsString(entity);
+    }
+
+    public static byte[] writeEntityAsBytes(MartianEntity entity) throws JsonProcessingException
+    {
+        return ENTITY_WRITER.writeValueAsBytes(entity);
+    }
+
+    public static JsonFactory factory()
+    {
+        return MAPPER.getFactory();
+    }
+
+    public static String writeBatchResults(List<BatchItemResult> results) throws JsonProcessingException
+    {
+        return BATCH_WRITER.writeValueAsString(results);
+    }
+
+    public static String writeQueryPage(QueryPage page) throws JsonProcessingException
+    {
+        return QUERY_PAGE_WRITER.writeValueAsString(page);
+    }
+
+    public static String writeChangePage(ChangePage page) throws JsonProcessingException
+    {
+        return CHANGE_PAGE_WRITER.writeValueAsString(page);
+    }
+
+    public static List<BatchItemResult> readBatchResults(String payload) throws JsonProcessingException
+    {
+        return BATCH_READER.readValue(payload);
+    }
+
+    public static QueryPage readQueryPage(String payload) throws JsonProcessingException
+    {
+        return QUERY_PAGE_READER.readValue(payload);
+    }
+
+    public static String writeCacheStats(CacheStats stats) throws JsonProcessingException
+    {
+        return CACHE_STATS_WRITER.writeValueAsString(stats);
+    }
+
+    public static String writeIdArray(List<String> ids) throws JsonProcessingException
+    {
+        return ID_ARRAY_WRITER.writeValueAsString(ids);
+    }
+
+    public static byte[] writeTransfers(List<EntityTransfer> transfers) throws JsonProcessingException
+    {
+        return TRANSFER_WRITER.writeValueAsBytes(transfers);
+    }
+
+    public static List<EntityTransfer> readTransfers(byte[] payload) throws IOException
+    {
+        return TRANSFER_READER.readValue(payload);
+    }
+
+    //One JSON object per line (NDJSON) with the id and version alongside the entity's fields, written as the entries are pulled from the iterator.
+    //The generator's own buffer is the only one, so memory does not grow with the number of entries
+    public static void writeExportLines(Iterator<Map.Entry<String, MartianEntity>> entries, OutputStream output) throws IOException
+    {
+        try (final var generator = factory().createGenerator(output))
+        {
+            //Lines are ended explicitly, so the space Jackson would otherwise put between top-level values is dropped
+            generator.setRootValueSeparator(null);
+            while (entries.hasNext())
+            {
+                final var entry = entries.next();
+                final var entity = entry.getValue();
+                generator.writeStartObject();
+                generator.writeStringField("id", entry.getKey());
+                generator.writeStringField("species", entity.getSpecies());
+                generator.writeStringField("clearanceRequired", entity.getClearanceRequired().name());
+                generator.writeNumberField("version", entity.getVersion());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    //The id of a line written by writeExportLines, or null when the line does not start with one
+    public static String readExportLineId(String line) throws IOException
+    {
+        try (final var parser = factory().createParser(line))
+        {
+            if (parser.nextToken() == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME && "id".equals(parser.getCurrentName())
+                    && parser.nextToken() == JsonToken.VALUE_STRING)
+            {
+                return parser.getText();
+            }
+            return null;
+        }
+    }
+
+    //Streams a JSON array of entities. Each element gets its own result, saying what was wrong with it where it cannot be bound, so the batch
+    //can report them individually
+    public static List<EntityParseResult> readEntityArray(String payload) throws IOException
+    {
+        try (final var parser = factory().createParser(payload))
+        {
+            expectArray(parser);
+            final var entities = new ArrayList<EntityParseResult>();
+            while (parser.nextToken() != JsonToken.END_ARRAY)
+            {
+                entities.add(readEntityFields(parser, true));
+            }
+            return entities;
+        }
+    }
+
+    //Streams a JSON array of ids. Non-string elements come back as null
+    public static List<String> readIdArray(String payload) throws IOException
+    {
+        try (final var parser = factory().createParser(payload))
+        {
+            expectArray(parser);
+            final var ids = new ArrayList<String>();
+            while (parser.nextToken() != JsonToken.END_ARRAY)
+            {
+                ids.add(parser.currentToken() == JsonToken.VALUE_STRING ? parser.getText() : null);
+                parser.skipChildren();
+            }
+            return ids;
+        }
+    }
+
+    //Reads a single entity object from a slice of bytes without building a String for it. Returns null when the object cannot be bound
+    public static MartianEntity readEntityObject(byte[] payload, int offset, int length) throws IOException
+    {
+        try (final var parser = factory().createParser(payload, offset, length))
+        {
+            parser.nextToken();
+            final var entity = readEntityFields(parser, false).getEntity();
+            return parser.nextToken() == null ? entity : null;
+        }
+    }
+
+    private static void expectArray(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_ARRAY)
+        {
+            throw new JsonParseException(parser, "Expected a JSON array");
+        }
+    }
+
+    //Validates as it streams, stopping at the first field that is unknown or holds a bad value. With toEndOfObject the parser is then moved on
+    //to the object's last token, so an array can carry on to its next element; a lone body is rejected without reading the rest
+    private static EntityParseResult readEntityFields(JsonParser parser, boolean toEndOfObject) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return EntityParseResult.invalid(EntityProblem.NOT_AN_OBJECT, null);
+        }
+
+        String species = null;
+        Clearance clearance = null;
+        Long ttlSeconds = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            final var fieldName = parser.getCurrentName();
+            final var value = parser.nextToken();
+            //An explicit null is the same as leaving the field out
+            if (value == JsonToken.VALUE_NULL && isEntityField(fieldName))
+            {
+                continue;
+            }
+            final var problem = readEntityField(parser, fieldName, value);
+            if (problem != null)
+            {
+                if (toEndOfObject)
+                {
+                    skipRestOfObject(parser);
+                }
+                return problem;
+            }
+            switch (fieldName)
+            {
+                case "species":
+                    species = parser.getText();
+                    break;
+                case "clearanceRequired":
+                    clearance = clearanceFromName(parser.getText());
+                    break;
+                default:
+                    ttlSeconds = parser.getLongValue();
+                    break;
+            }
+        }
+        if (species == null)
+        {
+            return EntityParseResult.invalid(EntityProblem.MISSING_SPECIES, null);
+        }
+        if (clearance == null)
+        {
+            return EntityParseResult.invalid(EntityProblem.MISSING_CLEARANCE, null);
+        }
+        return EntityParseResult.valid(MartianEntity.uploaded(species, clearance, ttlSeconds));
+    }
+
+    //Null when the value the parser is on is acceptable for the field
+    private static EntityParseResult readEntityField(JsonParser parser, String fieldName, JsonToken value) throws IOException
+    {
+        switch (fieldName)
+        {
+            case "species":
+                return value == JsonToken.VALUE_STRING ? null : EntityParseResult.invalid(EntityProblem.WRONG_TYPE, fieldName);
+            case "clearanceRequired":
+                if (value != JsonToken.VALUE_STRING)
+                {
+                    return EntityParseResult.invalid(EntityProblem.WRONG_TYPE, fieldName);
+                }
+                return clearanceFromName(parser.getText()) != null ? null : EntityParseResult.invalid(EntityProblem.INVALID_CLEARANCE, parser.getText());
+            case "ttlSeconds":
+                //A positive number of seconds that fits in a long
+                return value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER && parser.getLongValue() > 0
+                        ? null : EntityParseResult.invalid(EntityProblem.INVALID_TTL, null);
+            default:
+                return EntityParseResult.invalid(EntityProblem.UNKNOWN_FIELD, fieldName);
+        }
+    }
+
+    //From a field's value to the end of the object holding it
+    private static void skipRestOfObject(JsonParser parser) throws IOException
+    {
+        parser.skipChildren();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static boolean isEntityField(String fieldName)
+    {
+        return "species".equals(fieldName) || "clearanceRequired".equals(fieldName) || "ttlSeconds".equals(fieldName);
+    }
+
+    public static Clearance clearanceFromName(String name)
+    {
+        for (final var clearance : CLEARANCES)
+        {
+            if (clearance.name().equals(name))
+            {
+                return clearance;
+            }
+        }
+        return null;
+    }
+}
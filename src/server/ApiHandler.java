@@ -0,0 +1,343 @@
+package server;
+
+import api.MarsApiResource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import metrics.Counter;
+import metrics.Metrics;
+import models.Clearance;
+import models.Response;
+import serialisation.BinaryEntityCodec;
+import serialisation.JsonEngine;
+
+import server.HttpExchanges.PayloadTooLargeException;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static server.HttpExchanges.JSON;
+import static server.HttpExchanges.TEXT;
+import static server.HttpExchanges.body;
+import static server.HttpExchanges.bodyAsString;
+import static server.HttpExchanges.queryParameters;
+import static server.HttpExchanges.send;
+
+//Maps requests under the context onto the resource the way a JAX-RS container would from its annotations: path and query parameters
+//that cannot be converted give a 404, and the resource's Response becomes the status, body and ETag
+final class ApiHandler implements HttpHandler
+{
+    private static final String PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final Counter[] RATE_LIMITED = rateLimitedCounters();
+
+    private final MarsApiResource resource;
+    private final Semaphore inFlight;
+    private final ClearanceRateLimits rateLimits;
+
+    ApiHandler(MarsApiResource resource, int maxConcurrentRequests, ClearanceRateLimits rateLimits)
+    {
+        this.resource = resource;
+        this.inFlight = new Semaphore(maxConcurrentRequests);
+        this.rateLimits = rateLimits;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!inFlight.tryAcquire())
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, TEXT, "Server is at its concurrent request limit, please retry");
+                return;
+            }
+            try
+            {
+                route(exchange);
+            }
+            catch (PayloadTooLargeException e)
+            {
+                send(exchange, 413, TEXT, e.getMessage());
+            }
+            catch (Exception e)
+            {
+                //A stream that fails part way has already sent its status, so all that is left is to end the response
+                if (exchange.getResponseCode() == -1)
+                {
+                    send(exchange, 500, TEXT, "Internal server error");
+                }
+            }
+            finally
+            {
+                inFlight.release();
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws Exception
+    {
+        final var segments = exchange.getRequestURI().getPath().substring(MarsApiServer.CONTEXT.length()).split("/");
+        final var headers = exchange.getRequestHeaders();
+        //segments[0] is the empty string before the leading slash
+        final var endpoint = segments.length > 1 ? segments[1] : "";
+        final var parameters = segments.length - 2;
+
+        //Turned away before the body is read or anything reaches the resource. Observability endpoints are never limited, so scrapes and
+        //health checks keep working when the limits are biting hardest
+        final var clearance = requestedClearance(exchange, endpoint, segments);
+        final var waitNanos = isObservability(endpoint) ? 0 : rateLimits.tryAcquire(clearance);
+        if (waitNanos > 0)
+        {
+            RATE_LIMITED[clearance == null ? RATE_LIMITED.length - 1 : clearance.ordinal()].increment();
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1));
+            send(exchange, 429, TEXT, "Too many requests at this clearance level, please retry");
+            return;
+        }
+
+        switch (endpoint)
+        {
+            case "retrieve":
+                if (parameters == 2 && clearance(segments[3]) != null)
+                {
+                    final var ifNoneMatch = headers.getFirst("If-None-Match");
+                    respond(exchange, JSON, acceptsBinary(headers.getFirst("Accept"))
+                            ? resource.retrieveMartianEntityAsBinary(segments[2], clearance(segments[3]), ifNoneMatch)
+                            : resource.retrieveMartianEntity(segments[2], clearance(segments[3]), ifNoneMatch));
+                    return;
+                }
+                break;
+            case "uploadEntity":
+                if (parameters == 0)
+                {
+                    respond(exchange, TEXT, isBinary(headers.getFirst("Content-Type"))
+                            ? resource.createMartianEntityFromBinary(body(exchange, JsonEngine.MAX_ENTITY_BYTES))
+                            : resource.createMartianEntity(bodyAsString(exchange, JsonEngine.MAX_ENTITY_BYTES)));
+                    return;
+                }
+                break;
+            case "uploadEntities":
+                if (parameters == 0)
+                {
+                    respond(exchange, JSON, resource.createMartianEntities(bodyAsString(exchange)));
+                    return;
+                }
+                break;
+            case "retrieveBatch":
+                if (parameters == 1 && clearance(segments[2]) != null)
+                {
+                    respond(exchange, JSON, resource.retrieveMartianEntities(bodyAsString(exchange), clearance(segments[2])));
+                    return;
+                }
+                break;
+            case "deleteEntity":
+                if (parameters == 2 && clearance(segments[3]) != null)
+                {
+                    respond(exchange, TEXT, resource.deleteMartianEntry(segments[2], clearance(segments[3])));
+                    return;
+                }
+                break;
+            case "modifyEntity":
+                if (parameters == 2 && clearance(segments[3]) != null)
+                {
+                    respond(exchange, TEXT, resource.updateMartianEntity(bodyAsString(exchange, JsonEngine.MAX_ENTITY_BYTES), segments[2], clearance(segments[3]), headers.getFirst("If-Match")));
+                    return;
+                }
+                break;
+            case "query":
+                if (parameters == 0 && query(exchange))
+                {
+                    return;
+                }
+                break;
+            case "export":
+                if (parameters == 1 && clearance(segments[2]) != null)
+                {
+                    final var after = queryParameters(exchange.getRequestURI().getRawQuery()).get("after");
+                    final StreamingOutput export;
+                    try
+                    {
+                        export = resource.exportMartianEntities(clearance(segments[2]), after);
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        send(exchange, 400, TEXT, e.getMessage());
+                        return;
+                    }
+                    stream(exchange, export);
+                    return;
+                }
+                break;
+            case "changes":
+                if (parameters == 1 && clearance(segments[2]) != null && changes(exchange, clearance(segments[2])))
+                {
+                    return;
+                }
+                break;
+            case "count":
+                if (parameters == 0)
+                {
+                    send(exchange, 200, TEXT, Integer.toString(resource.countOfEntities()));
+                    return;
+                }
+                break;
+            case "cacheStats":
+                if (parameters == 0)
+                {
+                    respond(exchange, JSON, resource.serialisedEntityCacheStats());
+                    return;
+                }
+                break;
+            case "metrics":
+                if (parameters == 0)
+                {
+                    respond(exchange, PROMETHEUS, resource.metrics());
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        send(exchange, 404, TEXT, "Not found");
+    }
+
+    //False when a query parameter cannot be converted, which JAX-RS reports as a 404
+    private boolean query(HttpExchange exchange) throws Exception
+    {
+        final var parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        final var clearanceName = parameters.get("clearance");
+        final var clearance = clearanceName == null ? null : clearance(clearanceName);
+        if (clearanceName != null && clearance == null)
+        {
+            return false;
+        }
+        final int limit;
+        try
+        {
+            limit = Integer.parseInt(parameters.getOrDefault("limit", "100"));
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        respond(exchange, JSON, resource.queryMartianEntities(parameters.get("species"), clearance, parameters.get("after"), limit));
+        return true;
+    }
+
+    //False when a query parameter cannot be converted, as for query
+    private boolean changes(HttpExchange exchange, Clearance clearance) throws Exception
+    {
+        final var parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        final Long after;
+        final int limit;
+        final int waitSeconds;
+        try
+        {
+            after = parameters.containsKey("after") ? Long.valueOf(parameters.get("after")) : null;
+            limit = Integer.parseInt(parameters.getOrDefault("limit", "100"));
+            waitSeconds = Integer.parseInt(parameters.getOrDefault("waitSeconds", "30"));
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        respond(exchange, JSON, resource.pollChanges(clearance, after, limit, waitSeconds));
+        return true;
+    }
+
+    //The clearance the request names, wherever its endpoint takes it from. Null when it names none, or one that does not exist
+    private static Clearance requestedClearance(HttpExchange exchange, String endpoint, String[] segments)
+    {
+        switch (endpoint)
+        {
+            case "retrieve":
+            case "deleteEntity":
+            case "modifyEntity":
+                return segments.length > 3 ? clearance(segments[3]) : null;
+            case "retrieveBatch":
+            case "export":
+            case "changes":
+                return segments.length > 2 ? clearance(segments[2]) : null;
+            case "query":
+                final var name = queryParameters(exchange.getRequestURI().getRawQuery()).get("clearance");
+                return name == null ? null : clearance(name);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isObservability(String endpoint)
+    {
+        return "count".equals(endpoint) || "cacheStats".equals(endpoint) || "metrics".equals(endpoint);
+    }
+
+    //One per clearance by ordinal, then one for requests naming no clearance
+    private static Counter[] rateLimitedCounters()
+    {
+        final var clearances = Clearance.values();
+        final var counters = new Counter[clearances.length + 1];
+        for (final var clearance : clearances)
+        {
+            counters[clearance.ordinal()] = rateLimitedCounter(clearance.name());
+        }
+        counters[clearances.length] = rateLimitedCounter(ClearanceRateLimits.UNNAMED);
+        return counters;
+    }
+
+    private static Counter rateLimitedCounter(String clearance)
+    {
+        return Metrics.counter("martian_api_rate_limited_total", "Requests turned away with a 429, by the clearance they were charged to", "clearance", clearance);
+    }
+
+    //Binary only when asked for by name; JSON stays the default for */*, a missing Accept, or anything else
+    private static boolean acceptsBinary(String accept)
+    {
+        return accept != null && accept.contains(BinaryEntityCodec.MEDIA_TYPE);
+    }
+
+    private static boolean isBinary(String contentType)
+    {
+        return contentType != null && contentType.trim().startsWith(BinaryEntityCodec.MEDIA_TYPE);
+    }
+
+    private static Clearance clearance(String name)
+    {
+        try
+        {
+            return Clearance.valueOf(name);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    //A length of zero makes the server send the body in chunks as it is written, so its size never needs to be known up front
+    private static void stream(HttpExchange exchange, StreamingOutput output) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", MarsApiResource.NDJSON);
+        exchange.sendResponseHeaders(200, 0);
+        output.write(exchange.getResponseBody());
+    }
+
+    //Successful responses carry the endpoint's content type; error messages are always plain text
+    private static void respond(HttpExchange exchange, String successContentType, Response response) throws IOException
+    {
+        if (response.getETag() != null)
+        {
+            exchange.getResponseHeaders().set("ETag", response.getETag());
+        }
+        final var statusCode = response.getStatusCode();
+        if (response.getBinaryMessage() != null)
+        {
+            send(exchange, statusCode, BinaryEntityCodec.MEDIA_TYPE, response.getBinaryMessage());
+            return;
+        }
+        send(exchange, statusCode, statusCode < 300 ? successContentType : TEXT, response.getMessage());
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import models.Clearance;
+
+import java.util.Arrays;
+
+//Admission limits for each clearance level, taken from the clearance a request names in its path (or query, for /query). Requests that
+//name none, such as uploads, and those naming one that does not exist share a bucket of their own, so an upload flood cannot take a
+//clearance's permits. Immutable: each limit returns a copy, so the buckets are fixed before any request can see them. Anything without a
+//limit is unlimited
+public final class ClearanceRateLimits
+{
+    //The name parse takes for the bucket of requests that name no clearance
+    public static final String UNNAMED = "UNNAMED";
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    //Indexed by ordinal; null where a level is unlimited
+    private final TokenBucket[] buckets;
+    //Null when requests naming no clearance are unlimited
+    private final TokenBucket unnamed;
+
+    private ClearanceRateLimits(TokenBucket[] buckets, TokenBucket unnamed)
+    {
+        this.buckets = buckets;
+        this.unnamed = unnamed;
+    }
+
+    public static ClearanceRateLimits unlimited()
+    {
+        return new ClearanceRateLimits(new TokenBucket[CLEARANCES.length], null);
+    }
+
+    //Sustains permitsPerSecond, allowing up to burst at once after a quiet spell
+    public ClearanceRateLimits limit(Clearance clearance, double permitsPerSecond, int burst)
+    {
+        final var limited = Arrays.copyOf(buckets, buckets.length);
+        limited[clearance.ordinal()] = new TokenBucket(permitsPerSecond, burst);
+        return new ClearanceRateLimits(limited, unnamed);
+    }
+
+    //As limit, for requests that name no clearance
+    public ClearanceRateLimits limitUnnamed(double permitsPerSecond, int burst)
+    {
+        return new ClearanceRateLimits(buckets, new TokenBucket(permitsPerSecond, burst));
+    }
+
+    //Comma-separated CLEARANCE=permitsPerSecond:burst entries, e.g. "ACCESS_RESTRICTED=50:100,MINIMAL_CLEARANCE=200:400,UNNAMED=20:40",
+    //where UNNAMED limits requests naming no clearance. The burst may be left off, in which case it is one second's worth. An empty
+    //specification is unlimited
+    public static ClearanceRateLimits parse(String specification)
+    {
+        var limits = unlimited();
+        for (final var entry : specification.split(","))
+        {
+            if (entry.isBlank())
+            {
+                continue;
+            }
+            final var parts = entry.trim().split("[=:]");
+            if (parts.length < 2 || parts.length > 3)
+            {
+                throw new IllegalArgumentException(String.format("Rate limit [%s] is not of the form CLEARANCE=permitsPerSecond:burst", entry.trim()));
+            }
+            final var permitsPerSecond = Double.parseDouble(parts[1]);
+            final var burst = parts.length == 3 ? Integer.parseInt(parts[2]) : (int) Math.max(1, Math.ceil(permitsPerSecond));
+            limits = UNNAMED.equals(parts[0]) ? limits.limitUnnamed(permitsPerSecond, burst) : limits.limit(Clearance.valueOf(parts[0]), permitsPerSecond, burst);
+        }
+        return limits;
+    }
+
+    //Zero when the request is admitted; otherwise roughly how long until the clearance has a permit free. A null clearance draws on the
+    //unnamed bucket
+    public long tryAcquire(Clearance clearance)
+    {
+        final var bucket = clearance == null ? unnamed : buckets[clearance.ordinal()];
+        return bucket == null ? 0 : bucket.tryAcquire(System.nanoTime());
+    }
+}
@@ -0,0 +1,122 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+//Request and response plumbing shared by every handler mounted on the server
+public final class HttpExchanges
+{
+    public static final int MAX_BODY_BYTES = 16 << 20;
+    public static final String JSON = "application/json; charset=utf-8";
+    public static final String TEXT = "text/plain; charset=utf-8";
+
+    private HttpExchanges()
+    {
+    }
+
+    public static Map<String, String> queryParameters(String rawQuery)
+    {
+        final var parameters = new HashMap<String, String>();
+        if (rawQuery == null)
+        {
+            return parameters;
+        }
+        for (final var pair : rawQuery.split("&"))
+        {
+            final var separator = pair.indexOf('=');
+            final var name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), StandardCharsets.UTF_8);
+            final var value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            //First occurrence wins, as with @QueryParam on a single-valued parameter
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    public static byte[] body(HttpExchange exchange) throws IOException
+    {
+        return body(exchange, MAX_BODY_BYTES);
+    }
+
+    //Refused from the Content-Length before anything is read, or as soon as a body without one passes the limit, so an oversized body is
+    //never buffered whole
+    public static byte[] body(HttpExchange exchange, int maxBytes) throws IOException
+    {
+        final var declaredLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declaredLength == null)
+        {
+            return readBounded(exchange.getRequestBody(), maxBytes);
+        }
+        final var length = Long.parseLong(declaredLength.trim());
+        if (length > maxBytes)
+        {
+            throw new PayloadTooLargeException(maxBytes);
+        }
+        //With the length known the body is read straight into an array of that size, with no buffer to grow and copy out of
+        return exchange.getRequestBody().readNBytes((int) length);
+    }
+
+    public static String bodyAsString(HttpExchange exchange) throws IOException
+    {
+        return bodyAsString(exchange, MAX_BODY_BYTES);
+    }
+
+    public static String bodyAsString(HttpExchange exchange, int maxBytes) throws IOException
+    {
+        return new String(body(exchange, maxBytes), StandardCharsets.UTF_8);
+    }
+
+    public static void send(HttpExchange exchange, int statusCode, String contentType, String body) throws IOException
+    {
+        send(exchange, statusCode, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException
+    {
+        //A length of -1 tells the server there is no body, which a 304 must never have
+        if (statusCode == 304)
+        {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if (body.length > 0)
+        {
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    //Bounded even without a Content-Length, so a chunked upload cannot grow the buffer without limit
+    private static byte[] readBounded(InputStream input, int maxBytes) throws IOException
+    {
+        final var output = new ByteArrayOutputStream();
+        final var buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+        {
+            if (output.size() + read > maxBytes)
+            {
+                throw new PayloadTooLargeException(maxBytes);
+            }
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    public static final class PayloadTooLargeException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private PayloadTooLargeException(int maxBytes)
+        {
+            super(String.format("Request body must not exceed %d bytes", maxBytes));
+        }
+    }
+}
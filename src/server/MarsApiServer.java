@@ -0,0 +1,187 @@
+package server;
+
+import api.MarsApiResource;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import database.Database;
+import database.StorageMode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+//Serves MarsApiResource over the JDK's built-in HTTP server, so there is no container to boot. Each request runs on its own virtual thread
+//when the runtime has them (JDK 21+) and on a cached pool otherwise, so a slow request never holds up the others either way
+public class MarsApiServer implements AutoCloseable
+{
+    public static final String CONTEXT = "/MarsApi";
+    private static final Duration DEFAULT_SHUTDOWN_GRACE = Duration.ofSeconds(10);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    //maxConcurrentRequests bounds the requests being handled at once; beyond it callers get a fast 503 rather than queueing.
+    //backlog bounds connections the OS will hold waiting to be accepted
+    public MarsApiServer(MarsApiResource resource, InetSocketAddress address, int maxConcurrentRequests, int backlog) throws IOException
+    {
+        this(resource, address, maxConcurrentRequests, backlog, UnaryOperator.identity());
+    }
+
+    //The decorator wraps the handler serving the resource, e.g. to route some requests elsewhere before they reach it
+    public MarsApiServer(MarsApiResource resource, InetSocketAddress address, int maxConcurrentRequests, int backlog,
+                         UnaryOperator<HttpHandler> apiDecorator) throws IOException
+    {
+        this(resource, address, maxConcurrentRequests, backlog, ClearanceRateLimits.unlimited(), apiDecorator);
+    }
+
+    //Requests beyond their clearance's rate get a fast 429 rather than taking time from other clearances' requests
+    public MarsApiServer(MarsApiResource resource, InetSocketAddress address, int maxConcurrentRequests, int backlog,
+                         ClearanceRateLimits rateLimits, UnaryOperator<HttpHandler> apiDecorator) throws IOException
+    {
+        if (maxConcurrentRequests < 1)
+        {
+            throw new IllegalArgumentException(String.format("At least one concurrent request must be allowed, got [%d]", maxConcurrentRequests));
+        }
+        final var virtualThreadExecutor = virtualThreadExecutor();
+        this.virtualThreads = virtualThreadExecutor != null;
+        this.executor = virtualThreads ? virtualThreadExecutor : Executors.newCachedThreadPool();
+        this.server = HttpServer.create(address, backlog);
+        this.server.createContext(CONTEXT, apiDecorator.apply(new ApiHandler(resource, maxConcurrentRequests, rateLimits)));
+        this.server.setExecutor(executor);
+    }
+
+    //For endpoints outside the resource, such as node-to-node traffic. Must be called before start
+    public void addContext(String path, HttpHandler handler)
+    {
+        server.createContext(path, handler);
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    //Port actually bound, which differs from the requested one when port 0 was asked for
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    //Stops accepting connections, then gives in-flight requests up to the grace period to finish before they are interrupted
+    public void shutdown(Duration grace) throws InterruptedException
+    {
+        final var deadline = System.nanoTime() + grace.toNanos();
+        server.stop((int) Math.max(0, grace.toSeconds()));
+        executor.shutdown();
+        if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    //The interrupt is kept on the thread rather than thrown, so try-with-resources callers have nothing to catch
+    @Override
+    public void close()
+    {
+        try
+        {
+            shutdown(DEFAULT_SHUTDOWN_GRACE);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Looked up reflectively so the project still targets JDK 11 while picking up virtual threads on a runtime that has them. Null when it does not
+    private static ExecutorService virtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+
+    //Mapped storage keeps its own files in the data directory; the other modes keep a write-ahead log and snapshots there. A mapped store
+    //only rebuilds secondary indexes, and so answers queries, when martian.secondaryIndexes is true
+    private static Database openDatabase(StorageMode storageMode, Path dataDirectory) throws IOException
+    {
+        if (dataDirectory == null)
+        {
+            return new Database(storageMode);
+        }
+        if (storageMode == StorageMode.MAPPED)
+        {
+            final var secondaryIndexes = System.getProperty("martian.secondaryIndexes");
+            return secondaryIndexes == null
+                    ? new Database(storageMode, dataDirectory)
+                    : new Database(storageMode, dataDirectory, Boolean.parseBoolean(secondaryIndexes));
+        }
+        return new Database(storageMode, dataDirectory, Database.DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    //The built-in server reads these once, when the first server is created, so they are process-wide and must be applied before that.
+    //Without TCP_NODELAY small responses stall on Nagle's algorithm meeting the client's delayed ACK, adding ~40ms to every keep-alive request.
+    //The connection cap is only honoured on JDK 18+. Properties already set on the command line win
+    public static void applyTransportDefaults(int maxConnections)
+    {
+        setIfAbsent("sun.net.httpserver.nodelay", "true");
+        setIfAbsent("sun.net.httpserver.maxConnections", Integer.toString(maxConnections));
+    }
+
+    private static void setIfAbsent(String property, String value)
+    {
+        if (System.getProperty(property) == null)
+        {
+            System.setProperty(property, value);
+        }
+    }
+
+    //Usage: MarsApiServer [port] [maxConcurrentRequests] [dataDirectory]. Without a data directory the database is purely in-memory.
+    //Per-clearance rate limits are read from the martian.rateLimits system property, in the form ClearanceRateLimits.parse takes, and the
+    //storage engine from martian.storageMode, one of the StorageMode names
+    public static void main(String[] args) throws IOException
+    {
+        final var port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        final var maxConcurrentRequests = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        final var rateLimits = ClearanceRateLimits.parse(System.getProperty("martian.rateLimits", ""));
+        final var storageMode = StorageMode.valueOf(System.getProperty("martian.storageMode", StorageMode.HEAP.name()));
+        final var database = openDatabase(storageMode, args.length > 2 ? Path.of(args[2]) : null);
+        applyTransportDefaults(maxConcurrentRequests);
+        final var server = new MarsApiServer(new MarsApiResource(database), new InetSocketAddress(port), maxConcurrentRequests, maxConcurrentRequests,
+                rateLimits, UnaryOperator.identity());
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            try
+            {
+                server.shutdown(DEFAULT_SHUTDOWN_GRACE);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                database.close();
+            }
+        }));
+        server.start();
+        System.out.printf("Serving %s on port %d (%s)%n", CONTEXT, server.getPort(),
+                server.usesVirtualThreads() ? "virtual threads" : "platform thread pool");
+    }
+}
@@ -0,0 +1,44 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//A token bucket kept as one number, in the form of the generic cell rate algorithm: the time at which the bucket will next be full, had
+//every permit so far been spread out at the steady rate. A permit is free while that time is less than a burst's worth ahead of now.
+//Admitting is one compare-and-set, and refusing only reads, so a flood that is being turned away never writes the shared line
+final class TokenBucket
+{
+    private final long nanosPerPermit;
+    //How far ahead of now the theoretical arrival time may run: every permit of a full burst but the one being taken
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival;
+
+    TokenBucket(double permitsPerSecond, int burst)
+    {
+        if (!(permitsPerSecond > 0) || burst < 1)
+        {
+            throw new IllegalArgumentException(String.format("A rate limit needs a positive rate and burst, got [%s] per second with a burst of [%d]", permitsPerSecond, burst));
+        }
+        this.nanosPerPermit = Math.max(1, Math.round(1e9 / permitsPerSecond));
+        this.burstNanos = Math.multiplyExact(nanosPerPermit, burst - 1L);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    //Zero when a permit was taken; otherwise roughly how long until one frees up, and nothing was taken
+    long tryAcquire(long nowNanos)
+    {
+        while (true)
+        {
+            final var arrival = theoreticalArrival.get();
+            final var from = arrival - nowNanos > 0 ? arrival : nowNanos;
+            final var ahead = from - nowNanos;
+            if (ahead > burstNanos)
+            {
+                return ahead - burstNanos;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, from + nanosPerPermit))
+            {
+                return 0;
+            }
+        }
+    }
+}
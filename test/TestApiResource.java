@@ -1,9 +1,19 @@
+import api.Deserialiser;
+import api.MarsApiResource;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import database.Database;
+import database.StorageMode;
 import models.Clearance;
 import models.MartianEntity;
 import models.Response;
+import serialisation.BinaryEntityCodec;
+import serialisation.JsonEngine;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -17,10 +27,9 @@ public class TestApiResource
     private static final String NON_EXISTENT_ID = "Non-existent ID";
     private static final String UPDATE_404_MESSAGE = "Either you don't have permission or the entity you have requested to update does not exist in the database";
     private static final String RETRIEVAL_404_MESSAGE = "Either no entity exists with id [%s] or user lacks the permissions to access the entity";
-    private final static String FAILED_DESERIALISE_MESSAGE = "Failed to deserialise entity. Please submit a valid JSON body";
 
     @Test
-    public void callingAddEndpointWhenJsonIsInvalidShouldReturn500Response()
+    public void callingAddEndpointWithNoBodyShouldReturn400Response()
     {
         assertThat(apiResource.countOfEntities()).isEqualTo(0);
         final var response = apiResource.createMartianEntity(null);
@@ -28,7 +37,81 @@ public class TestApiResource
         assertThat(apiResource.countOfEntities()).isEqualTo(0);
         assertThat(response)
                 .extracting(Response::getStatusCode, Response::getMessage)
-                .contains(500, FAILED_DESERIALISE_MESSAGE);
+                .contains(400, "Entity body must be a single JSON object");
+    }
+
+    @Test
+    public void callingAddEndpointWithMalformedJsonShouldReturn400Response()
+    {
+        assertThat(apiResource.createMartianEntity("{\"species\": \"Moon fly\","))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Entity body is not well-formed JSON");
+    }
+
+    @Test
+    public void callingAddEndpointWithAnUnknownFieldShouldReturn400NamingTheField()
+    {
+        final var response = apiResource.createMartianEntity("{\"species\": \"Moon fly\", \"colour\": \"green\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}");
+
+        assertThat(apiResource.countOfEntities()).isEqualTo(0);
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Unknown field [colour]; an entity has species, clearanceRequired and optionally ttlSeconds");
+    }
+
+    @Test
+    public void callingAddEndpointWithoutASpeciesShouldReturn400Response()
+    {
+        assertThat(apiResource.createMartianEntity("{\"species\": null, \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}"))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "species is required");
+        assertThat(apiResource.createMartianEntity("{\"species\": 7, \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}"))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Field [species] must be a string");
+    }
+
+    @Test
+    public void callingAddEndpointWithAnUnknownClearanceShouldReturn400NamingTheValue()
+    {
+        assertThat(apiResource.createMartianEntity("{\"species\": \"Moon fly\", \"clearanceRequired\": \"COSMIC_CLEARANCE\"}"))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "clearanceRequired [COSMIC_CLEARANCE] is not a clearance level");
+        assertThat(apiResource.createMartianEntity("{\"species\": \"Moon fly\"}"))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "clearanceRequired is required");
+    }
+
+    @Test
+    public void callingAddEndpointWithAnOversizedBodyShouldReturn413WithoutParsingIt()
+    {
+        final var response = apiResource.createMartianEntity("{\"species\": \"" + "x".repeat(JsonEngine.MAX_ENTITY_BYTES) + "\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}");
+
+        assertThat(apiResource.countOfEntities()).isEqualTo(0);
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(413, String.format("Entity body must not exceed %d bytes", JsonEngine.MAX_ENTITY_BYTES));
+    }
+
+    @Test
+    public void callingAddEndpointWithTimeToLiveShouldStoreEntityWithAnExpiryButNotEchoTheTimeToLive() throws IOException
+    {
+        final var response = apiResource.createMartianEntity("{\"species\": \"Mayfly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\", \"ttlSeconds\": 60}");
+        final var retrieved = apiResource.retrieveMartianEntity(response.getId(), Clearance.TOP_LEVEL_CLEARANCE);
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(retrieved.getStatusCode()).isEqualTo(200);
+        assertThat(retrieved.getMessage()).contains("Mayfly").doesNotContain("ttl").doesNotContain("expire");
+    }
+
+    @Test
+    public void callingAddEndpointWithNonPositiveTimeToLiveShouldReturn400Response()
+    {
+        final var response = apiResource.createMartianEntity("{\"species\": \"Mayfly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\", \"ttlSeconds\": 0}");
+
+        assertThat(apiResource.countOfEntities()).isEqualTo(0);
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "ttlSeconds must be a positive whole number of seconds");
     }
 
     @Test
@@ -74,6 +157,147 @@ public class TestApiResource
                 .containsExactly(originalEntity.getSpecies(), originalEntity.getClearanceRequired());
     }
 
+    @Test
+    public void callingRetrieveEndpointShouldReturnTheEntityVersionAsETag() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var response = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE);
+
+        assertThat(response.getETag()).isEqualTo("\"1\"");
+    }
+
+    @Test
+    public void callingRetrieveEndpointWithMatchingIfNoneMatchShouldReturn304WithoutBody() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var response = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, "W/\"9\", \"1\"");
+
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage, Response::getETag)
+                .containsExactly(304, "", "\"1\"");
+    }
+
+    @Test
+    public void callingRetrieveEndpointWithStaleIfNoneMatchShouldReturn200WithNewETag() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        apiResource.updateMartianEntity(Files.readString(updatedMartianEntity), responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE);
+        final var response = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, "\"1\"");
+
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getETag)
+                .containsExactly(200, "\"2\"");
+    }
+
+    @Test
+    public void callingRetrieveEndpointWithIfNoneMatchWhenUserNotPermittedShouldStillReturn404Response() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var response = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.ACCESS_RESTRICTED, "*");
+
+        assertThat(response.getStatusCode()).isEqualTo(404);
+        assertThat(response.getETag()).isNull();
+    }
+
+    @Test
+    public void callingUpdateEndpointWithCurrentIfMatchShouldUpdateEntityAndReturn200Response() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var eTag = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE).getETag();
+
+        final var response = apiResource.updateMartianEntity(Files.readString(updatedMartianEntity), responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, eTag);
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE).getETag()).isEqualTo("\"2\"");
+    }
+
+    @Test
+    public void callingUpdateEndpointWithStaleIfMatchShouldReturn412AndLeaveEntity() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var eTag = apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE).getETag();
+        apiResource.updateMartianEntity(Files.readString(updatedMartianEntity), responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, eTag);
+
+        final var response = apiResource.updateMartianEntity(Files.readString(martianEntity), responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, eTag);
+
+        assertThat(response.getStatusCode()).isEqualTo(412);
+        assertThat(apiResource.retrieveMartianEntity(responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE).getETag()).isEqualTo("\"2\"");
+    }
+
+    @Test
+    public void callingUpdateEndpointWithMalformedIfMatchShouldReturn412Response() throws IOException
+    {
+        final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var response = apiResource.updateMartianEntity(Files.readString(updatedMartianEntity), responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE, "not-an-etag");
+
+        assertThat(response.getStatusCode()).isEqualTo(412);
+    }
+
+    @Test
+    public void callingRetrieveEndpointRepeatedlyShouldServeCachedJsonUntilTheEntityIsUpdated() throws IOException
+    {
+        final var id = apiResource.createMartianEntity(Files.readString(martianEntity)).getId();
+        final var first = apiResource.retrieveMartianEntity(id, Clearance.TOP_LEVEL_CLEARANCE).getMessage();
+        final var second = apiResource.retrieveMartianEntity(id, Clearance.TOP_LEVEL_CLEARANCE).getMessage();
+        apiResource.updateMartianEntity(Files.readString(updatedMartianEntity), id, Clearance.TOP_LEVEL_CLEARANCE);
+        final var afterUpdate = apiResource.retrieveMartianEntity(id, Clearance.TOP_LEVEL_CLEARANCE).getMessage();
+
+        assertThat(second).isSameAs(first);
+        assertThat(deserialiseJson(afterUpdate).getSpecies()).isEqualTo(Deserialiser.deserialiseMartianEntity(Files.readString(updatedMartianEntity)).getSpecies());
+        final var stats = readTree(apiResource.serialisedEntityCacheStats().getMessage());
+        assertThat(stats.get("hits").asLong()).isEqualTo(1);
+        assertThat(stats.get("misses").asLong()).isEqualTo(2);
+    }
+
+    @Test
+    public void callingBinaryUploadThenBinaryRetrieveShouldRoundTripTheEntityWithItsETag() throws IOException
+    {
+        final var entity = new MartianEntity("Moon fly", Clearance.STANDARD_CLEARANCE);
+        final var id = apiResource.createMartianEntityFromBinary(BinaryEntityCodec.encode(entity)).getId();
+        final var response = apiResource.retrieveMartianEntityAsBinary(id, Clearance.TOP_LEVEL_CLEARANCE, null);
+        final var decoded = BinaryEntityCodec.decode(response.getBinaryMessage(), 0, response.getBinaryMessage().length);
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(response.getETag()).isEqualTo("\"1\"");
+        assertThat(decoded).isEqualTo(entity);
+        assertThat(deserialiseJson(apiResource.retrieveMartianEntity(id, Clearance.TOP_LEVEL_CLEARANCE).getMessage())).isEqualTo(entity);
+    }
+
+    @Test
+    public void callingBinaryUploadWithAMalformedBodyShouldReturn400NamingTheProblemAndAddNothing()
+    {
+        assertThat(apiResource.createMartianEntityFromBinary(new byte[]{1, 99, 'x'}))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "clearanceRequired [99] is not a clearance level");
+        assertThat(apiResource.createMartianEntityFromBinary(new byte[]{1}))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Entity body is too short to hold a format and a clearance");
+        assertThat(apiResource.createMartianEntityFromBinary(new byte[]{7, 0, 'x'}))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Entity body has unknown format [7]");
+        assertThat(apiResource.createMartianEntityFromBinary(new byte[]{1, 0, (byte) 0xC3, 'x'}))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "species is not valid UTF-8");
+        assertThat(apiResource.countOfEntities()).isEqualTo(0);
+    }
+
+    @Test
+    public void callingMetricsEndpointShouldExposeEndpointDatabaseAndDeserialiserMetricsInPrometheusFormat() throws IOException
+    {
+        apiResource.createMartianEntity(Files.readString(martianEntity));
+        apiResource.createMartianEntity("Fake Json");
+        final var response = apiResource.metrics();
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(response.getMessage())
+                .contains("# TYPE martian_api_request_seconds summary")
+                .contains("martian_api_responses_total{endpoint=\"uploadEntity\",status=\"2xx\"}")
+                .contains("martian_api_responses_total{endpoint=\"uploadEntity\",status=\"5xx\"}")
+                .contains("martian_database_operation_seconds_count{operation=\"add\"}")
+                .contains("martian_deserialise_failures_total{payload=\"entity\"}")
+                .contains("martian_serialised_cache_hits_total");
+    }
+
     @Test
     public void callingUpdateEndpointWhenIdNonExistentShouldReturn404Response() throws IOException
     {
@@ -96,14 +320,14 @@ public class TestApiResource
     }
 
     @Test
-    public void callingUpdateEndpointWhenJsonIsInvalidShouldReturn500Response() throws IOException
+    public void callingUpdateEndpointWhenJsonIsInvalidShouldReturn400Response() throws IOException
     {
         final var responseContainingId = apiResource.createMartianEntity(Files.readString(martianEntity));
         final var response = apiResource.updateMartianEntity("Fake Json", responseContainingId.getId(), Clearance.TOP_LEVEL_CLEARANCE);
 
         assertThat(response)
                 .extracting(Response::getStatusCode, Response::getMessage)
-                .contains(500, FAILED_DESERIALISE_MESSAGE);
+                .contains(400, "Entity body is not well-formed JSON");
     }
 
     @Test
@@ -165,6 +389,223 @@ public class TestApiResource
                 .contains(404, String.format(RETRIEVAL_404_MESSAGE, responseContainingId.getId()));
     }
 
+    @Test
+    public void callingBatchUploadEndpointWhenAllEntitiesValidShouldAddEveryEntityAndReturn200Response() throws IOException
+    {
+        final var payload = String.format("[%s, %s]", Files.readString(martianEntity), Files.readString(updatedMartianEntity));
+        final var response = apiResource.createMartianEntities(payload);
+        final var results = readTree(response.getMessage());
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(apiResource.countOfEntities()).isEqualTo(2);
+        assertThat(results.get(1).get("statusCode").asInt()).isEqualTo(200);
+        assertThat(apiResource.retrieveMartianEntity(results.get(1).get("id").asText(), Clearance.TOP_LEVEL_CLEARANCE).getStatusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void callingBatchUploadEndpointWhenSomeEntitiesInvalidShouldAddValidEntitiesAndReturn207Response() throws IOException
+    {
+        final var payload = String.format("[%s, {\"species\": \"Moon fly\", \"clearanceRequired\": \"NOT_A_CLEARANCE\"}, {\"clearanceRequired\": \"MINIMAL_CLEARANCE\"}]", Files.readString(martianEntity));
+        final var response = apiResource.createMartianEntities(payload);
+        final var results = readTree(response.getMessage());
+
+        assertThat(response.getStatusCode()).isEqualTo(207);
+        assertThat(apiResource.countOfEntities()).isEqualTo(1);
+        assertThat(results.get(0).get("statusCode").asInt()).isEqualTo(200);
+        assertThat(results.get(1).get("statusCode").asInt()).isEqualTo(400);
+        assertThat(results.get(2).get("statusCode").asInt()).isEqualTo(400);
+    }
+
+    @Test
+    public void callingBatchUploadEndpointShouldSayWhatWasWrongWithEachRejectedEntity() throws IOException
+    {
+        final var payload = "[{\"species\": \"Moon fly\", \"clearanceRequired\": \"NOT_A_CLEARANCE\"},"
+                + " {\"species\": 7, \"clearanceRequired\": \"MINIMAL_CLEARANCE\"},"
+                + " {\"species\": \"Moon fly\", \"colour\": {\"nested\": [1, 2]}, \"clearanceRequired\": \"MINIMAL_CLEARANCE\"},"
+                + " \"Moon fly\","
+                + " {\"clearanceRequired\": \"MINIMAL_CLEARANCE\"},"
+                + " {\"species\": \"Moon fly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}]";
+        final var response = apiResource.createMartianEntities(payload);
+        final var results = readTree(response.getMessage());
+
+        assertThat(response.getStatusCode()).isEqualTo(207);
+        assertThat(apiResource.countOfEntities()).isEqualTo(1);
+        assertThat(results.get(0).get("message").asText()).isEqualTo("clearanceRequired [NOT_A_CLEARANCE] is not a clearance level");
+        assertThat(results.get(1).get("message").asText()).isEqualTo("Field [species] must be a string");
+        assertThat(results.get(2).get("message").asText()).isEqualTo("Unknown field [colour]; an entity has species, clearanceRequired and optionally ttlSeconds");
+        assertThat(results.get(3).get("message").asText()).isEqualTo("Entity body must be a single JSON object");
+        assertThat(results.get(4).get("message").asText()).isEqualTo("species is required");
+        assertThat(results.get(5).get("statusCode").asInt()).isEqualTo(200);
+    }
+
+    @Test
+    public void callingBatchUploadEndpointWithATimeToLiveShouldStoreTheEntityWithAnExpiry() throws IOException
+    {
+        final var payload = "[{\"species\": \"Mayfly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\", \"ttlSeconds\": 60},"
+                + " {\"species\": \"Mayfly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\", \"ttlSeconds\": 0}]";
+        final var response = apiResource.createMartianEntities(payload);
+        final var results = readTree(response.getMessage());
+
+        assertThat(response.getStatusCode()).isEqualTo(207);
+        assertThat(results.get(0).get("statusCode").asInt()).isEqualTo(200);
+        assertThat(results.get(1).get("statusCode").asInt()).isEqualTo(400);
+        assertThat(apiResource.countOfEntities()).isEqualTo(1);
+    }
+
+    @Test
+    public void callingBatchUploadEndpointWhenJsonIsNotAnArrayShouldReturn400Response() throws IOException
+    {
+        final var response = apiResource.createMartianEntities(Files.readString(martianEntity));
+
+        assertThat(apiResource.countOfEntities()).isEqualTo(0);
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .contains(400, "Failed to deserialise batch. Please submit a valid JSON array");
+        assertThat(apiResource.createMartianEntities("[{\"species\": ").getStatusCode()).isEqualTo(400);
+    }
+
+    @Test
+    public void callingBatchRetrieveEndpointWithAMalformedBodyShouldReturn400AndRejectNonStringIds() throws IOException
+    {
+        final var id = apiResource.createMartianEntity(Files.readString(martianEntity)).getId();
+
+        assertThat(apiResource.retrieveMartianEntities("{\"ids\": []}", Clearance.TOP_LEVEL_CLEARANCE).getStatusCode()).isEqualTo(400);
+        assertThat(apiResource.retrieveMartianEntities("[\"" + id, Clearance.TOP_LEVEL_CLEARANCE).getStatusCode()).isEqualTo(400);
+
+        final var results = readTree(apiResource.retrieveMartianEntities("[\"" + id + "\", 42]", Clearance.TOP_LEVEL_CLEARANCE).getMessage());
+        assertThat(results.get(0).get("statusCode").asInt()).isEqualTo(200);
+        assertThat(results.get(1).get("statusCode").asInt()).isEqualTo(400);
+        assertThat(results.get(1).get("message").asText()).isEqualTo("Id must be a JSON string");
+    }
+
+    @Test
+    public void callingBatchRetrieveEndpointShouldReturnPermittedEntitiesAnd404ForTheRest() throws IOException
+    {
+        final var permittedId = apiResource.createMartianEntity(Files.readString(martianEntity)).getId();
+        final var forbiddenId = apiResource.createMartianEntity(Files.readString(updatedMartianEntity)).getId();
+        final var payload = String.format("[\"%s\", \"%s\", \"%s\"]", permittedId, forbiddenId, NON_EXISTENT_ID);
+
+        final var response = apiResource.retrieveMartianEntities(payload, Clearance.MINIMAL_CLEARANCE);
+        final var results = readTree(response.getMessage());
+
+        assertThat(response.getStatusCode()).isEqualTo(207);
+        assertThat(results.get(0).get("entity").get("species").asText()).isEqualTo("Moon fly");
+        assertThat(results.get(1).get("statusCode").asInt()).isEqualTo(404);
+        assertThat(results.get(2).get("statusCode").asInt()).isEqualTo(404);
+        assertThat(results.get(2).get("id").asText()).isEqualTo(NON_EXISTENT_ID);
+    }
+
+    @Test
+    public void callingQueryEndpointShouldPageThroughEntitiesVisibleAtTheCallersClearance() throws IOException
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            apiResource.createMartianEntity(Files.readString(martianEntity));
+        }
+        apiResource.createMartianEntity(Files.readString(updatedMartianEntity));
+
+        final var firstPage = readTree(apiResource.queryMartianEntities(null, Clearance.MINIMAL_CLEARANCE, null, 2).getMessage());
+        final var secondPage = readTree(apiResource.queryMartianEntities(null, Clearance.MINIMAL_CLEARANCE, firstPage.get("nextPageToken").asText(), 2).getMessage());
+
+        assertThat(firstPage.get("entities").size()).isEqualTo(2);
+        assertThat(secondPage.get("entities").size()).isEqualTo(1);
+        assertThat(secondPage.has("nextPageToken")).isFalse();
+        assertThat(secondPage.get("entities").elements().next().get("species").asText()).isEqualTo("Moon fly");
+    }
+
+    @Test
+    public void callingQueryEndpointWithSpeciesShouldOnlyReturnThatSpecies() throws IOException
+    {
+        apiResource.createMartianEntity(Files.readString(martianEntity));
+        final var mechanisedId = apiResource.createMartianEntity(Files.readString(updatedMartianEntity)).getId();
+
+        final var response = apiResource.queryMartianEntities("Mechanised Moonfly", Clearance.TOP_LEVEL_CLEARANCE, null, 100);
+
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(readTree(response.getMessage()).get("entities").has(mechanisedId)).isTrue();
+        assertThat(readTree(response.getMessage()).get("entities").size()).isEqualTo(1);
+    }
+
+    @Test
+    public void callingQueryEndpointOnADatabaseWithoutIndexesShouldReturn501Response() throws IOException
+    {
+        final var unindexed = new MarsApiResource(new Database(StorageMode.COMPACT));
+
+        assertThat(unindexed.queryMartianEntities(null, Clearance.MINIMAL_CLEARANCE, null, 100))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(501, MarsApiResource.NOT_INDEXED_MESSAGE);
+    }
+
+    @Test
+    public void exportingFromADatabaseWithoutIndexesShouldStreamEveryEntityTheClearanceMaySee() throws IOException
+    {
+        final var unindexed = new Database(StorageMode.COMPACT);
+        final var visibleId = unindexed.addMartian("Dust mite", Clearance.MINIMAL_CLEARANCE);
+        unindexed.addMartian("Sand wraith", Clearance.TOP_LEVEL_CLEARANCE);
+        final var output = new ByteArrayOutputStream();
+
+        new MarsApiResource(unindexed).exportMartianEntities(Clearance.STANDARD_CLEARANCE, null).write(output);
+
+        final var lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(1);
+        assertThat(lines[0]).startsWith("{\"id\":\"" + visibleId + "\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void exportingAfterAnIdTheDatabaseCouldNeverHoldShouldBeRefusedBeforeAnythingIsStreamed()
+    {
+        new MarsApiResource(new Database(StorageMode.COMPACT)).exportMartianEntities(Clearance.TOP_LEVEL_CLEARANCE, "not-a-uuid");
+    }
+
+    @Test
+    public void callingQueryEndpointWithoutClearanceShouldReturn400Response() throws IOException
+    {
+        final var response = apiResource.queryMartianEntities("Moon fly", null, null, 100);
+
+        assertThat(response)
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .contains(400, "A clearance must be supplied to query entities");
+    }
+
+    @Test
+    public void callingChangesEndpointWithThePreviousCursorShouldReturnTheChangesMadeSince() throws Exception
+    {
+        final var before = readTree(apiResource.pollChanges(Clearance.TOP_LEVEL_CLEARANCE, null, 100, 0).getMessage());
+        final var id = apiResource.createMartianEntity(Files.readString(martianEntity)).getId();
+
+        final var response = apiResource.pollChanges(Clearance.TOP_LEVEL_CLEARANCE, before.get("cursor").asLong(), 100, 0);
+        final var page = readTree(response.getMessage());
+
+        assertThat(before.get("events").size()).isEqualTo(0);
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(page.get("events").size()).isEqualTo(1);
+        assertThat(page.get("events").get(0).get("type").asText()).isEqualTo("ADDED");
+        assertThat(page.get("events").get(0).get("id").asText()).isEqualTo(id);
+        assertThat(page.get("cursor").asLong()).isEqualTo(before.get("cursor").asLong() + 1);
+    }
+
+    @Test
+    public void callingChangesEndpointWithACursorTheFeedNeverHandedOutShouldReturn410Response() throws Exception
+    {
+        final var response = apiResource.pollChanges(Clearance.TOP_LEVEL_CLEARANCE, 1L, 100, 0);
+
+        assertThat(response.getStatusCode()).isEqualTo(410);
+        assertThat(response.getMessage()).startsWith("Changes after [1] are no longer available");
+    }
+
+    @Test
+    public void callingChangesEndpointWithAnOutOfRangeWaitShouldReturn400Response() throws Exception
+    {
+        assertThat(apiResource.pollChanges(Clearance.TOP_LEVEL_CLEARANCE, null, 100, 61))
+                .extracting(Response::getStatusCode, Response::getMessage)
+                .containsExactly(400, "Wait must be between 0 and 60 seconds");
+    }
+
+    private JsonNode readTree(String json) throws IOException
+    {
+        return new ObjectMapper().readTree(json);
+    }
+
     private MartianEntity deserialiseJson(String json)
     {
         return Deserialiser.deserialiseMartianEntity(json);
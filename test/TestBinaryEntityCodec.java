@@ -0,0 +1,56 @@
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.Test;
+import serialisation.BinaryEntityCodec;
+import serialisation.EntityProblem;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestBinaryEntityCodec
+{
+    @Test
+    public void encodingThenDecodingShouldRoundTripAsciiAndNonAsciiSpecies()
+    {
+        for (final var species : new String[]{"Moon fly", "\u015Anie\u017Cny robak \uD83D\uDC1B", ""})
+        {
+            final var entity = new MartianEntity(species, Clearance.ADVANCED_CLEARANCE);
+            final var encoded = BinaryEntityCodec.encode(entity);
+
+            assertThat(encoded).hasSize(2 + species.getBytes(StandardCharsets.UTF_8).length);
+            assertThat(BinaryEntityCodec.decode(encoded, 0, encoded.length)).isEqualTo(entity);
+        }
+    }
+
+    @Test
+    public void decodingShouldReadOnlyTheGivenSliceOfTheArray()
+    {
+        final var encoded = BinaryEntityCodec.encode(new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE));
+        final var padded = new byte[encoded.length + 4];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+
+        assertThat(BinaryEntityCodec.decode(padded, 3, encoded.length)).isEqualTo(new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE));
+    }
+
+    @Test
+    public void decodingMalformedInputShouldReturnNullRatherThanThrow()
+    {
+        assertThat(BinaryEntityCodec.decode(null, 0, 0)).isNull();
+        assertThat(BinaryEntityCodec.decode(new byte[]{1}, 0, 1)).isNull();
+        assertThat(BinaryEntityCodec.decode(new byte[]{2, 0, 'x'}, 0, 3)).isNull();
+        assertThat(BinaryEntityCodec.decode(new byte[]{1, 5, 'x'}, 0, 3)).isNull();
+        assertThat(BinaryEntityCodec.decode(new byte[]{1, 0, (byte) 0xC3, 'x'}, 0, 4)).isNull();
+    }
+
+    @Test
+    public void parsingMalformedInputShouldSayWhatWasWrong()
+    {
+        assertThat(BinaryEntityCodec.parse(null, 0, 0).getProblem()).isEqualTo(EntityProblem.TRUNCATED);
+        assertThat(BinaryEntityCodec.parse(new byte[]{1}, 0, 1).getProblem()).isEqualTo(EntityProblem.TRUNCATED);
+        assertThat(BinaryEntityCodec.parse(new byte[]{2, 0, 'x'}, 0, 3).getProblem()).isEqualTo(EntityProblem.UNKNOWN_FORMAT);
+        assertThat(BinaryEntityCodec.parse(new byte[]{1, 5, 'x'}, 0, 3).getProblem()).isEqualTo(EntityProblem.INVALID_CLEARANCE);
+        assertThat(BinaryEntityCodec.parse(new byte[]{1, 0, (byte) 0xC3, 'x'}, 0, 4).getProblem()).isEqualTo(EntityProblem.MALFORMED_SPECIES);
+        assertThat(BinaryEntityCodec.parse(new byte[]{1, (byte) Clearance.MINIMAL_CLEARANCE.ordinal(), 'x'}, 0, 3).getEntity()).isEqualTo(new MartianEntity("x", Clearance.MINIMAL_CLEARANCE));
+    }
+}
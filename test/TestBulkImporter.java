@@ -0,0 +1,113 @@
+import database.Database;
+import ingest.BulkImporter;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestBulkImporter
+{
+    private static final String MOON_FLY = "{\"species\": \"Moon fly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}";
+    private static final String MECHANISED_MOONFLY = "{\"species\": \"Mechanised Moonfly\", \"clearanceRequired\": \"STANDARD_CLEARANCE\"}";
+    private final Database database = new Database();
+    private Path importFile;
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if (importFile != null)
+        {
+            Files.deleteIfExists(importFile);
+        }
+    }
+
+    @Test
+    public void importingFileOfValidRecordsShouldAddEveryRecordToDb() throws Exception
+    {
+        writeImportFile(MOON_FLY + "\n" + MECHANISED_MOONFLY + "\n");
+        final var report = new BulkImporter(database).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(2);
+        assertThat(report.getRejected()).isEqualTo(0);
+        assertThat(database.count()).isEqualTo(2);
+    }
+
+    @Test
+    public void importingFileWithInvalidRecordsShouldRejectThemAndImportTheRest() throws Exception
+    {
+        writeImportFile(String.join("\n",
+                MOON_FLY,
+                "Fake Json",
+                "{\"species\": \"Moon fly\", \"clearanceRequired\": \"NOT_A_CLEARANCE\"}",
+                "{\"clearanceRequired\": \"MINIMAL_CLEARANCE\"}",
+                "",
+                MECHANISED_MOONFLY));
+        final var report = new BulkImporter(database).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(2);
+        assertThat(report.getRejected()).isEqualTo(3);
+        assertThat(database.count()).isEqualTo(2);
+    }
+
+    @Test
+    public void importingRecordsWithATimeToLiveShouldStoreThemWithAnExpiry() throws Exception
+    {
+        writeImportFile("{\"species\": \"Mayfly\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\", \"ttlSeconds\": 3600}\n" + MOON_FLY + "\n");
+        final var report = new BulkImporter(database).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(2);
+        var withExpiry = 0;
+        for (final var entry : database.entities())
+        {
+            if (entry.getValue().getExpiresAt() != MartianEntity.NEVER_EXPIRES)
+            {
+                assertThat(entry.getValue().getSpecies()).isEqualTo("Mayfly");
+                withExpiry++;
+            }
+        }
+        assertThat(withExpiry).isEqualTo(1);
+    }
+
+    @Test
+    public void importingRecordsSpanningMappingWindowsShouldStillParseEveryRecord() throws Exception
+    {
+        writeImportFile(MOON_FLY + "\r\n" + MECHANISED_MOONFLY + "\r\n" + MOON_FLY);
+        final var report = new BulkImporter(database, 2, 1, 1, 7).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(3);
+        assertThat(report.getRejected()).isEqualTo(0);
+    }
+
+    @Test
+    public void importingOversizedRecordShouldRejectItWithoutAffectingNeighbours() throws Exception
+    {
+        final var oversized = String.format("{\"species\": \"%s\", \"clearanceRequired\": \"MINIMAL_CLEARANCE\"}", "x".repeat(128 * 1024));
+        writeImportFile(MOON_FLY + "\n" + oversized + "\n" + MOON_FLY + "\n");
+        final var report = new BulkImporter(database).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(2);
+        assertThat(report.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void importingWithMinimalQueueCapacityShouldApplyBackPressureAndImportEveryRecord() throws Exception
+    {
+        writeImportFile((MOON_FLY + "\n").repeat(10_000));
+        final var report = new BulkImporter(database, 4, 1, 16, 4096).importFile(importFile);
+
+        assertThat(report.getAccepted()).isEqualTo(10_000);
+        assertThat(database.count()).isEqualTo(10_000);
+        assertThat(report.getRecordsPerSecond()).isGreaterThan(0);
+    }
+
+    private void writeImportFile(String contents) throws IOException
+    {
+        importFile = Files.createTempFile("martians", ".ndjson");
+        Files.writeString(importFile, contents);
+    }
+}
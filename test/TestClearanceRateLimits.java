@@ -0,0 +1,55 @@
+import models.Clearance;
+import org.junit.Test;
+import server.ClearanceRateLimits;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestClearanceRateLimits
+{
+    @Test
+    public void limitedClearanceShouldAdmitItsBurstThenTurnRequestsAwayWithoutTouchingOtherLevels()
+    {
+        final var limits = ClearanceRateLimits.unlimited().limit(Clearance.MINIMAL_CLEARANCE, 0.5, 3);
+
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isEqualTo(0);
+        //At half a permit a second, the next one is close to two seconds away
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isBetween(1_000_000_000L, 2_000_000_000L);
+        for (int i = 0; i < 1_000; i++)
+        {
+            assertThat(limits.tryAcquire(Clearance.TOP_LEVEL_CLEARANCE)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void requestsNamingNoClearanceShouldDrawOnTheirOwnBucketRatherThanAClearances()
+    {
+        final var limits = ClearanceRateLimits.parse("ACCESS_RESTRICTED=0.5:1,UNNAMED=0.5:2");
+
+        assertThat(limits.tryAcquire(null)).isEqualTo(0);
+        assertThat(limits.tryAcquire(null)).isEqualTo(0);
+        assertThat(limits.tryAcquire(null)).isGreaterThan(0);
+        assertThat(limits.tryAcquire(Clearance.ACCESS_RESTRICTED)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.ACCESS_RESTRICTED)).isGreaterThan(0);
+        assertThat(ClearanceRateLimits.parse("ACCESS_RESTRICTED=0.5:1").tryAcquire(null)).isEqualTo(0);
+    }
+
+    @Test
+    public void parsingShouldDefaultTheBurstToOneSecondsWorthAndIgnoreBlankEntries()
+    {
+        final var limits = ClearanceRateLimits.parse(" MINIMAL_CLEARANCE=2, ,STANDARD_CLEARANCE=1:1");
+
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.MINIMAL_CLEARANCE)).isGreaterThan(0);
+        assertThat(limits.tryAcquire(Clearance.STANDARD_CLEARANCE)).isEqualTo(0);
+        assertThat(limits.tryAcquire(Clearance.STANDARD_CLEARANCE)).isGreaterThan(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsingALimitWithoutARateShouldBeRejected()
+    {
+        ClearanceRateLimits.parse("MINIMAL_CLEARANCE");
+    }
+}
@@ -0,0 +1,227 @@
+import cluster.ClusterNode;
+import database.ChangeFeed;
+import database.StorageMode;
+import models.Clearance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.MarsApiServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestCluster
+{
+    private static final String UPLOAD_BODY = "{\"species\":\"Moon fly\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}";
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception
+    {
+        startNode();
+        startNode();
+        startNode();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        for (final var node : nodes)
+        {
+            node.shutdown(Duration.ZERO);
+        }
+    }
+
+    @Test
+    public void uploadingThroughAnyNodeShouldStoreTheEntityOnTheNodeOwningItsId() throws Exception
+    {
+        for (final var node : nodes)
+        {
+            final var id = upload(node);
+            assertThat(node.getRing().ownerOf(id)).isEqualTo(node.getUri());
+            assertThat(node.getDatabase().retrieveMartianWithoutClearance(id)).isNotNull();
+        }
+    }
+
+    @Test
+    public void retrievingUpdatingAndDeletingThroughANodeThatDoesNotOwnTheIdShouldBeForwardedToItsOwner() throws Exception
+    {
+        final var id = upload(nodes.get(0));
+        final var other = nodes.get(1);
+
+        final var retrieved = send(HttpRequest.newBuilder(uri(other, "/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).GET());
+        final var notModified = send(HttpRequest.newBuilder(uri(other, "/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).header("If-None-Match", "\"1\"").GET());
+        final var updated = send(HttpRequest.newBuilder(uri(other, "/modifyEntity/" + id + "/TOP_LEVEL_CLEARANCE")).header("If-Match", "\"1\"")
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"species\":\"Sand worm\",\"clearanceRequired\":\"MINIMAL_CLEARANCE\"}")));
+        final var staleUpdate = send(HttpRequest.newBuilder(uri(other, "/modifyEntity/" + id + "/TOP_LEVEL_CLEARANCE")).header("If-Match", "\"1\"")
+                .PUT(HttpRequest.BodyPublishers.ofString(UPLOAD_BODY)));
+
+        assertThat(retrieved.statusCode()).isEqualTo(200);
+        assertThat(retrieved.headers().firstValue("ETag").orElse(null)).isEqualTo("\"1\"");
+        assertThat(notModified.statusCode()).isEqualTo(304);
+        assertThat(updated.statusCode()).isEqualTo(200);
+        assertThat(staleUpdate.statusCode()).isEqualTo(412);
+        assertThat(nodes.get(0).getDatabase().retrieveMartianWithoutClearance(id).getSpecies()).isEqualTo("Sand worm");
+        assertThat(other.getDatabase().retrieveMartianWithoutClearance(id)).isNull();
+
+        assertThat(send(HttpRequest.newBuilder(uri(other, "/deleteEntity/" + id + "/TOP_LEVEL_CLEARANCE")).DELETE()).statusCode()).isEqualTo(200);
+        assertThat(send(HttpRequest.newBuilder(uri(nodes.get(2), "/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).GET()).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    public void countingThroughAnyNodeShouldSumEveryNodesEntities() throws Exception
+    {
+        for (final var node : nodes)
+        {
+            upload(node);
+            upload(node);
+        }
+
+        for (final var node : nodes)
+        {
+            assertThat(send(HttpRequest.newBuilder(uri(node, "/count")).GET()).body()).isEqualTo("6");
+        }
+    }
+
+    @Test
+    public void queryingThroughAnyNodeShouldPageThroughEveryNodesEntitiesInIdOrder() throws Exception
+    {
+        final var uploaded = new ArrayList<String>();
+        for (int i = 0; i < 10; i++)
+        {
+            uploaded.add(upload(nodes.get(i % nodes.size())));
+        }
+        uploaded.sort(null);
+
+        final var firstPage = send(HttpRequest.newBuilder(uri(nodes.get(1), "/query?clearance=MINIMAL_CLEARANCE&limit=6")).GET());
+        final var lastPage = send(HttpRequest.newBuilder(uri(nodes.get(2), "/query?clearance=MINIMAL_CLEARANCE&limit=6&after=" + uploaded.get(5))).GET());
+
+        assertThat(firstPage.statusCode()).isEqualTo(200);
+        assertThat(firstPage.body()).contains(uploaded.get(0), uploaded.get(5)).doesNotContain(uploaded.get(6));
+        assertThat(firstPage.body()).contains("\"nextPageToken\":\"" + uploaded.get(5) + "\"");
+        assertThat(lastPage.body()).contains(uploaded.get(6), uploaded.get(9)).doesNotContain(uploaded.get(5)).doesNotContain("nextPageToken");
+        assertThat(send(HttpRequest.newBuilder(uri(nodes.get(0), "/query?limit=6")).GET()).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    public void exportingThroughAnyNodeShouldMergeEveryNodesEntitiesInIdOrder() throws Exception
+    {
+        final var uploaded = new ArrayList<String>();
+        for (int i = 0; i < 12; i++)
+        {
+            uploaded.add(upload(nodes.get(i % nodes.size())));
+        }
+        uploaded.sort(null);
+
+        final var export = send(HttpRequest.newBuilder(uri(nodes.get(1), "/export/MINIMAL_CLEARANCE")).GET());
+        final var resumed = send(HttpRequest.newBuilder(uri(nodes.get(2), "/export/MINIMAL_CLEARANCE?after=" + uploaded.get(7))).GET());
+
+        assertThat(export.statusCode()).isEqualTo(200);
+        final var exportedIds = new ArrayList<String>();
+        for (final var line : export.body().split("\n"))
+        {
+            exportedIds.add(line.substring(7, 43));
+        }
+        assertThat(exportedIds).isEqualTo(uploaded);
+        assertThat(resumed.body().split("\n")).hasSize(4);
+    }
+
+    @Test
+    public void retrievingABatchThroughAnyNodeShouldGatherEachIdFromItsOwnerInRequestOrder() throws Exception
+    {
+        final var first = upload(nodes.get(0));
+        final var second = upload(nodes.get(1));
+        final var third = upload(nodes.get(2));
+
+        final var batch = send(HttpRequest.newBuilder(uri(nodes.get(0), "/retrieveBatch/TOP_LEVEL_CLEARANCE"))
+                .POST(HttpRequest.BodyPublishers.ofString("[\"" + third + "\",\"missing\",\"" + first + "\",\"" + second + "\"]")));
+
+        assertThat(batch.statusCode()).isEqualTo(207);
+        assertThat(batch.body().indexOf(third)).isLessThan(batch.body().indexOf("missing"));
+        assertThat(batch.body().indexOf("missing")).isLessThan(batch.body().indexOf(first));
+        assertThat(batch.body().indexOf(first)).isLessThan(batch.body().indexOf(second));
+        assertThat(batch.body()).contains("\"index\":3,\"id\":\"" + second + "\",\"statusCode\":200");
+    }
+
+    @Test
+    public void joiningANodeShouldMoveItsShareOfIdsAcrossAndKeepEveryEntityReachableThroughAnyNode() throws Exception
+    {
+        final var ids = new ArrayList<String>();
+        for (int i = 0; i < 300; i++)
+        {
+            ids.add(upload(nodes.get(i % nodes.size())));
+        }
+        final var updated = ids.get(0);
+        send(HttpRequest.newBuilder(uri(nodes.get(0), "/modifyEntity/" + updated + "/TOP_LEVEL_CLEARANCE")).PUT(HttpRequest.BodyPublishers.ofString(UPLOAD_BODY)));
+        final var feedsBeforeJoin = new ArrayList<ChangeFeed.Subscription>();
+        for (final var node : nodes)
+        {
+            final var feed = node.getDatabase().getChangeFeed();
+            feedsBeforeJoin.add(feed.subscribe(Clearance.TOP_LEVEL_CLEARANCE, feed.getLatestSequence()));
+        }
+
+        final var newcomer = startNode();
+
+        assertThat(newcomer.getDatabase().count()).isGreaterThan(0);
+        for (final var node : nodes)
+        {
+            assertThat(node.getRing().getNodes()).hasSize(4);
+            for (final var entry : node.getDatabase().entities())
+            {
+                assertThat(node.getRing().ownerOf(entry.getKey())).isEqualTo(node.getUri());
+            }
+            assertThat(send(HttpRequest.newBuilder(uri(node, "/count")).GET()).body()).isEqualTo("300");
+        }
+        for (final var id : ids)
+        {
+            assertThat(send(HttpRequest.newBuilder(uri(newcomer, "/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).GET()).statusCode()).isEqualTo(200);
+        }
+        assertThat(send(HttpRequest.newBuilder(uri(nodes.get(1), "/retrieve/" + updated + "/TOP_LEVEL_CLEARANCE")).GET())
+                .headers().firstValue("ETag").orElse(null)).isEqualTo("\"2\"");
+        //Handed-over entities still exist, so their removal from the old owner is not a change clients should see
+        for (final var subscription : feedsBeforeJoin)
+        {
+            assertThat(subscription.poll(1000, Duration.ZERO).size()).isEqualTo(0);
+        }
+    }
+
+    private ClusterNode startNode() throws Exception
+    {
+        final var node = new ClusterNode(StorageMode.HEAP, new InetSocketAddress("127.0.0.1", 0), 64);
+        node.start();
+        if (!nodes.isEmpty())
+        {
+            node.join(nodes.get(0).getUri());
+        }
+        nodes.add(node);
+        return node;
+    }
+
+    private String upload(ClusterNode node) throws IOException, InterruptedException
+    {
+        final var response = send(HttpRequest.newBuilder(uri(node, "/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString(UPLOAD_BODY)));
+        assertThat(response.statusCode()).isEqualTo(200);
+        //The resource reports the new id in brackets
+        return response.body().substring(response.body().indexOf('[') + 1, response.body().indexOf(']'));
+    }
+
+    private static URI uri(ClusterNode node, String path)
+    {
+        return URI.create(node.getUri() + MarsApiServer.CONTEXT + path);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException
+    {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
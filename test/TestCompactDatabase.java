@@ -0,0 +1,67 @@
+import database.Database;
+import database.StorageMode;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Runs every TestDatabase and UuidOnlyDatabaseTest case against compact storage, plus checks specific to its hash table
+public class TestCompactDatabase extends UuidOnlyDatabaseTest
+{
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.COMPACT, true);
+    }
+
+    @Test
+    public void compactDatabaseShouldOnlyKeepSecondaryIndexesWhenAskedTo()
+    {
+        assertThat(new Database(StorageMode.COMPACT).hasSecondaryIndexes()).isFalse();
+        assertThat(new Database(StorageMode.COMPACT, true).hasSecondaryIndexes()).isTrue();
+        assertThat(new Database(StorageMode.HEAP).hasSecondaryIndexes()).isTrue();
+    }
+
+    @Test
+    public void randomisedAddsUpdatesAndDeletesShouldMatchAReferenceMapThroughResizes()
+    {
+        final var database = createDatabase();
+        final var reference = new HashMap<String, MartianEntity>();
+        final var random = new Random(42);
+        final var ids = new ArrayList<String>();
+
+        for (int i = 0; i < 200_000; i++)
+        {
+            final var operation = random.nextInt(10);
+            if (operation < 5 || ids.isEmpty())
+            {
+                final var entity = new MartianEntity("Species " + random.nextInt(50), Clearance.values()[random.nextInt(5)]);
+                final var id = database.addMartian(entity.getSpecies(), entity.getClearanceRequired());
+                reference.put(id, entity);
+                ids.add(id);
+            }
+            else if (operation < 7)
+            {
+                final var id = ids.get(random.nextInt(ids.size()));
+                final var entity = new MartianEntity("Updated " + random.nextInt(50), Clearance.MINIMAL_CLEARANCE);
+                assertThat(database.updateMartian(id, entity)).isEqualTo(reference.replace(id, entity) != null);
+            }
+            else
+            {
+                final var id = ids.get(random.nextInt(ids.size()));
+                assertThat(database.deleteMartian(id, Clearance.TOP_LEVEL_CLEARANCE)).isEqualTo(reference.remove(id) != null);
+            }
+        }
+
+        assertThat(database.count()).isEqualTo(reference.size());
+        for (final var id : ids)
+        {
+            assertThat(database.retrieveMartianWithoutClearance(id)).isEqualTo(reference.get(id));
+        }
+    }
+}
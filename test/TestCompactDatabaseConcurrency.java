@@ -0,0 +1,11 @@
+import database.Database;
+import database.StorageMode;
+
+public class TestCompactDatabaseConcurrency extends TestDatabaseConcurrency
+{
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.COMPACT, true);
+    }
+}
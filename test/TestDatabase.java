@@ -1,17 +1,27 @@
+import database.ChangeFeed;
 import database.Database;
+import database.UpdateOutcome;
+import models.ChangeEvent;
+import models.ChangeType;
 import models.Clearance;
 import models.MartianEntity;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class TestDatabase
 {
-    private final Database database = new Database();
+    private final Database database = createDatabase();
     private final Map<String, String> entityAndIdMap = new HashMap<>();
     private final MartianEntity xenomorph = new MartianEntity(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
     private final MartianEntity updatedXenomorph = new MartianEntity(String.format("New and improved %s", XENOMORPH), Clearance.ADVANCED_CLEARANCE);
@@ -20,6 +30,18 @@ public class TestDatabase
     private static final String XENOMORPH = "Xenomorph";
     private static final String NON_EXISTENT_ID = "Non-existent ID";
 
+    protected Database createDatabase()
+    {
+        return new Database();
+    }
+
+    //Mapped stores hold their channels and mappings until closed
+    @After
+    public void closeDatabase()
+    {
+        database.close();
+    }
+
     @Before
     public void init()
     {
@@ -89,6 +111,71 @@ public class TestDatabase
         assertThat(database.retrieveMartianWithoutClearance(entityAndIdMap.get(XENOMORPH))).isEqualTo(updatedXenomorph);
     }
 
+    @Test
+    public void attemptingToUpdateEntityIfAuthorisedWhenClearanceSufficientShouldReturnTrue()
+    {
+        final var hasBeenUpdated = database.updateMartianIfAuthorised(entityAndIdMap.get(XENOMORPH), updatedXenomorph, Clearance.TOP_LEVEL_CLEARANCE);
+        assertThat(hasBeenUpdated).isEqualTo(true);
+        assertThat(database.retrieveMartianWithoutClearance(entityAndIdMap.get(XENOMORPH))).isEqualTo(updatedXenomorph);
+    }
+
+    @Test
+    public void attemptingToUpdateEntityIfAuthorisedWhenClearanceNotSufficientShouldReturnFalseAndLeaveEntity()
+    {
+        final var hasBeenUpdated = database.updateMartianIfAuthorised(entityAndIdMap.get(XENOMORPH), updatedXenomorph, Clearance.ADVANCED_CLEARANCE);
+        assertThat(hasBeenUpdated).isEqualTo(false);
+        assertThat(database.retrieveMartianWithoutClearance(entityAndIdMap.get(XENOMORPH))).isEqualTo(xenomorph);
+    }
+
+    @Test
+    public void attemptingToUpdateEntityIfAuthorisedWhenIdNotPresentInDbShouldReturnFalse()
+    {
+        final var hasBeenUpdated = database.updateMartianIfAuthorised(NON_EXISTENT_ID, updatedXenomorph, Clearance.TOP_LEVEL_CLEARANCE);
+        assertThat(hasBeenUpdated).isEqualTo(false);
+    }
+
+    @Test
+    public void addedEntityShouldStartAtVersionOneAndEveryUpdateShouldIncrementIt()
+    {
+        final var id = entityAndIdMap.get(XENOMORPH);
+        assertThat(database.retrieveMartianWithoutClearance(id).getVersion()).isEqualTo(1);
+
+        database.updateMartian(id, updatedXenomorph);
+        database.updateMartianIfAuthorised(id, xenomorph, Clearance.TOP_LEVEL_CLEARANCE);
+
+        assertThat(database.retrieveMartianWithoutClearance(id).getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    public void attemptingToUpdateEntityAtExpectedVersionShouldUpdateIt()
+    {
+        final var id = entityAndIdMap.get(XENOMORPH);
+        final var outcome = database.updateMartianIfAuthorised(id, updatedXenomorph, Clearance.TOP_LEVEL_CLEARANCE, 1);
+
+        assertThat(outcome).isEqualTo(UpdateOutcome.UPDATED);
+        assertThat(database.retrieveMartianWithoutClearance(id)).isEqualTo(updatedXenomorph);
+    }
+
+    @Test
+    public void attemptingToUpdateEntityAtStaleVersionShouldReportMismatchAndLeaveEntity()
+    {
+        final var id = entityAndIdMap.get(XENOMORPH);
+        database.updateMartian(id, updatedXenomorph);
+
+        final var outcome = database.updateMartianIfAuthorised(id, xenomorph, Clearance.TOP_LEVEL_CLEARANCE, 1);
+
+        assertThat(outcome).isEqualTo(UpdateOutcome.VERSION_MISMATCH);
+        assertThat(database.retrieveMartianWithoutClearance(id)).isEqualTo(updatedXenomorph);
+        assertThat(database.retrieveMartianWithoutClearance(id).getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void attemptingToUpdateEntityAtStaleVersionWithoutClearanceShouldReportNotFoundRatherThanMismatch()
+    {
+        final var outcome = database.updateMartianIfAuthorised(entityAndIdMap.get(XENOMORPH), updatedXenomorph, Clearance.ADVANCED_CLEARANCE, 7);
+        assertThat(outcome).isEqualTo(UpdateOutcome.NOT_FOUND);
+    }
+
     @Test
     public void attemptingToDeleteEntityInDbWhenIdNotPresentInDbShouldReturnFalse()
     {
@@ -111,4 +198,182 @@ public class TestDatabase
         assertThat(database.retrieveMartianWithoutClearance(entityAndIdMap.get(XENOMORPH))).isEqualTo(null);
         assertThat(database.count()).isEqualTo(2);
     }
+
+    @Test
+    public void attemptingToAddBatchOfEntitiesShouldReturnIdsInOrderWithNullForInvalidEntities()
+    {
+        final var generatedIds = database.addMartians(Arrays.asList(xenomorph, null, new MartianEntity(null, Clearance.MINIMAL_CLEARANCE)));
+        assertThat(generatedIds.get(0)).isNotEmpty();
+        assertThat(generatedIds.get(1)).isEqualTo(null);
+        assertThat(generatedIds.get(2)).isEqualTo(null);
+        assertThat(database.count()).isEqualTo(4);
+    }
+
+    @Test
+    public void attemptingToRetrieveBatchOfEntitiesShouldOnlyReturnEntitiesUserIsAuthorisedToAccess()
+    {
+        final var retrievedEntities = database.retrieveMartians(List.of(entityAndIdMap.get(XENOMORPH), entityAndIdMap.get(fredTheMartian.getSpecies()), NON_EXISTENT_ID), Clearance.STANDARD_CLEARANCE);
+        assertThat(retrievedEntities.get(0)).isEqualTo(null);
+        assertThat(retrievedEntities.get(1).getSpecies()).isEqualTo(fredTheMartian.getSpecies());
+        assertThat(retrievedEntities.get(2)).isEqualTo(null);
+    }
+
+    @Test
+    public void queryingEntitiesShouldOnlyReturnThoseVisibleAtTheCallersClearance()
+    {
+        final var visibleEntities = database.queryMartians(null, Clearance.STANDARD_CLEARANCE, null, 10);
+        assertThat(visibleEntities.keySet()).containsExactly(entityAndIdMap.get(fredTheMartian.getSpecies()));
+
+        final var allEntities = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 10);
+        assertThat(allEntities.keySet()).containsExactly(entityAndIdMap.values().stream().sorted().toArray(String[]::new));
+    }
+
+    @Test
+    public void queryingEntitiesBySpeciesShouldFollowUpdatesAndDeletions()
+    {
+        assertThat(database.queryMartians(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE, null, 10).keySet()).containsExactly(entityAndIdMap.get(XENOMORPH));
+
+        database.updateMartian(entityAndIdMap.get(XENOMORPH), updatedXenomorph);
+        assertThat(database.queryMartians(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE, null, 10)).isEmpty();
+        assertThat(database.queryMartians(updatedXenomorph.getSpecies(), Clearance.ADVANCED_CLEARANCE, null, 10).keySet()).containsExactly(entityAndIdMap.get(XENOMORPH));
+        assertThat(database.queryMartians(null, Clearance.ADVANCED_CLEARANCE, null, 10)).hasSize(3);
+
+        database.deleteMartian(entityAndIdMap.get(XENOMORPH), Clearance.TOP_LEVEL_CLEARANCE);
+        assertThat(database.queryMartians(updatedXenomorph.getSpecies(), Clearance.TOP_LEVEL_CLEARANCE, null, 10)).isEmpty();
+        assertThat(database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 10)).hasSize(2);
+    }
+
+    @Test
+    public void queryingEntitiesPageByPageShouldReturnEachEntityExactlyOnce()
+    {
+        final var sortedIds = entityAndIdMap.values().stream().sorted().toArray(String[]::new);
+        final var firstPage = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 2);
+        final var secondPage = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, sortedIds[1], 2);
+
+        assertThat(firstPage.keySet()).containsExactly(sortedIds[0], sortedIds[1]);
+        assertThat(secondPage.keySet()).containsExactly(sortedIds[2]);
+    }
+
+    @Test
+    public void exportingEntitiesShouldWalkThoseVisibleAtTheCallersClearanceInExportOrderAndResumeAfterACursor()
+    {
+        final var sortedIds = entityAndIdMap.values().stream().sorted(database.exportOrder()).toArray(String[]::new);
+
+        assertThat(exportedIds(Clearance.TOP_LEVEL_CLEARANCE, null)).containsExactly(sortedIds);
+        assertThat(exportedIds(Clearance.TOP_LEVEL_CLEARANCE, sortedIds[0])).containsExactly(sortedIds[1], sortedIds[2]);
+        assertThat(exportedIds(Clearance.STANDARD_CLEARANCE, null)).containsExactly(entityAndIdMap.get(fredTheMartian.getSpecies()));
+    }
+
+    @Test
+    public void exportingEntitiesWhileTheyAreDeletedShouldSkipDeletedEntitiesWithoutFailing()
+    {
+        final var sortedIds = entityAndIdMap.values().stream().sorted(database.exportOrder()).toArray(String[]::new);
+        final var export = database.exportMartians(Clearance.TOP_LEVEL_CLEARANCE, null);
+
+        assertThat(export.next().getKey()).isEqualTo(sortedIds[0]);
+        database.deleteMartian(sortedIds[1], Clearance.TOP_LEVEL_CLEARANCE);
+        assertThat(export.next().getKey()).isEqualTo(sortedIds[2]);
+        assertThat(export.hasNext()).isFalse();
+    }
+
+    @Test
+    public void exportingManyEntitiesShouldWalkEachOnceInExportOrderAndResumeAfterAnyOfThem()
+    {
+        final var ids = new ArrayList<>(database.addMartians(Collections.nCopies(40_000, fredTheMartian)));
+        ids.addAll(entityAndIdMap.values());
+        ids.sort(database.exportOrder());
+
+        assertThat(exportedIds(Clearance.TOP_LEVEL_CLEARANCE, null)).isEqualTo(ids);
+        for (final var cursor : new int[] {0, 1, 12_345, 39_999, ids.size() - 1})
+        {
+            assertThat(exportedIds(Clearance.TOP_LEVEL_CLEARANCE, ids.get(cursor))).isEqualTo(ids.subList(cursor + 1, ids.size()));
+        }
+    }
+
+    @Test
+    public void entityWithTimeToLiveShouldReadAsAbsentOnceExpiredAndBeRemovedInTheBackground() throws InterruptedException
+    {
+        final var id = database.addMartian("Mayfly", Clearance.MINIMAL_CLEARANCE, Duration.ofMillis(300));
+        assertThat(database.retrieveMartian(id, Clearance.TOP_LEVEL_CLEARANCE).getSpecies()).isEqualTo("Mayfly");
+
+        final var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (database.count() > 3 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(20);
+        }
+
+        assertThat(database.count()).isEqualTo(3);
+        assertThat(database.retrieveMartian(id, Clearance.TOP_LEVEL_CLEARANCE)).isNull();
+        assertThat(database.retrieveMartianWithoutClearance(id)).isNull();
+        assertThat(exportedIds(Clearance.TOP_LEVEL_CLEARANCE, null)).doesNotContain(id);
+        assertThat(database.retrieveMartian(entityAndIdMap.get(XENOMORPH), Clearance.TOP_LEVEL_CLEARANCE)).isNotNull();
+    }
+
+    @Test
+    public void updatingEntityWithTimeToLiveShouldKeepItsExpiry()
+    {
+        final var id = database.addMartian("Mayfly", Clearance.MINIMAL_CLEARANCE, Duration.ofHours(1));
+        final var expiresAt = database.retrieveMartianWithoutClearance(id).getExpiresAt();
+
+        database.updateMartian(id, updatedXenomorph);
+
+        assertThat(expiresAt).isGreaterThan(System.currentTimeMillis());
+        assertThat(database.retrieveMartianWithoutClearance(id))
+                .extracting(MartianEntity::getSpecies, MartianEntity::getExpiresAt)
+                .containsExactly(updatedXenomorph.getSpecies(), expiresAt);
+    }
+
+    @Test
+    public void changeFeedShouldDeliverEachChangeInOrderAsSeenAtTheSubscribersClearance() throws Exception
+    {
+        final var feed = database.getChangeFeed();
+        final var standard = feed.subscribe(Clearance.STANDARD_CLEARANCE, feed.getLatestSequence());
+        final var topLevel = feed.subscribe(Clearance.TOP_LEVEL_CLEARANCE, feed.getLatestSequence());
+
+        final var mayflyId = database.addMartian("Mayfly", Clearance.MINIMAL_CLEARANCE);
+        final var xenomorphId = entityAndIdMap.get(XENOMORPH);
+        database.updateMartian(mayflyId, new MartianEntity("Mayfly", Clearance.ADVANCED_CLEARANCE));
+        database.deleteMartian(xenomorphId, Clearance.TOP_LEVEL_CLEARANCE);
+
+        final var seenAtStandard = standard.poll(10, Duration.ZERO);
+        final var seenAtTopLevel = topLevel.poll(10, Duration.ZERO);
+
+        //Moving out of a clearance's sight reads as a delete to it, and a change it could never see does not appear at all
+        assertThat(seenAtStandard).hasSize(2);
+        assertThat(seenAtStandard.get(0))
+                .extracting(ChangeEvent::getType, ChangeEvent::getId, ChangeEvent::getSpecies)
+                .containsExactly(ChangeType.ADDED, mayflyId, "Mayfly");
+        assertThat(seenAtStandard.get(1))
+                .extracting(ChangeEvent::getType, ChangeEvent::getId, ChangeEvent::getSpecies)
+                .containsExactly(ChangeType.DELETED, mayflyId, null);
+        assertThat(seenAtTopLevel).hasSize(3);
+        assertThat(seenAtTopLevel.get(1))
+                .extracting(ChangeEvent::getType, ChangeEvent::getId, ChangeEvent::getVersion, ChangeEvent::getClearanceRequired)
+                .containsExactly(ChangeType.UPDATED, mayflyId, 2L, Clearance.ADVANCED_CLEARANCE);
+        assertThat(seenAtTopLevel.get(2))
+                .extracting(ChangeEvent::getType, ChangeEvent::getId)
+                .containsExactly(ChangeType.DELETED, xenomorphId);
+        assertThat(standard.getCursor()).isEqualTo(topLevel.getCursor()).isEqualTo(feed.getLatestSequence());
+        assertThat(topLevel.poll(10, Duration.ZERO)).isEmpty();
+    }
+
+    @Test(expected = ChangeFeed.FallenBehindException.class)
+    public void changeFeedSubscriberMoreThanARingBehindShouldBeToldItFellBehindWithoutHoldingUpWriters() throws Exception
+    {
+        final var feed = database.getChangeFeed();
+        final var subscription = feed.subscribe(Clearance.TOP_LEVEL_CLEARANCE, feed.getLatestSequence());
+
+        //One more than the ring holds
+        database.addMartians(Collections.nCopies((1 << 16) + 1, fredTheMartian));
+
+        assertThat(database.count()).isEqualTo(3 + (1 << 16) + 1);
+        subscription.poll(10, Duration.ZERO);
+    }
+
+    private List<String> exportedIds(Clearance clearance, String afterId)
+    {
+        final var ids = new ArrayList<String>();
+        database.exportMartians(clearance, afterId).forEachRemaining(entry -> ids.add(entry.getKey()));
+        return ids;
+    }
 }
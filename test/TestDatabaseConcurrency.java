@@ -0,0 +1,223 @@
+import database.Database;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestDatabaseConcurrency
+{
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+    private final Database database = createDatabase();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    protected Database createDatabase()
+    {
+        return new Database();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        database.close();
+    }
+
+    @Test
+    public void concurrentlyAddingEntitiesShouldProduceUniqueIdsAndAnAccurateCount() throws Exception
+    {
+        final var results = runConcurrently(() ->
+        {
+            final var ids = new ArrayList<String>();
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+            {
+                ids.add(database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE));
+            }
+            return ids;
+        });
+
+        final var allIds = new HashSet<String>();
+        results.forEach(allIds::addAll);
+        assertThat(allIds).hasSize(THREADS * OPERATIONS_PER_THREAD);
+        assertThat(database.count()).isEqualTo(THREADS * OPERATIONS_PER_THREAD);
+    }
+
+    @Test
+    public void entityAddedByAThreadShouldBeImmediatelyRetrievableByThatThread() throws Exception
+    {
+        final var results = runConcurrently(() ->
+        {
+            final var species = Thread.currentThread().getName();
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+            {
+                final var id = database.addMartian(species, Clearance.STANDARD_CLEARANCE);
+                final var retrieved = database.retrieveMartian(id, Clearance.STANDARD_CLEARANCE);
+                if (retrieved == null || !species.equals(retrieved.getSpecies()))
+                {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        assertThat(results).allMatch(Boolean.TRUE::equals);
+    }
+
+    @Test
+    public void concurrentlyDeletingTheSameEntityShouldSucceedExactlyOnce() throws Exception
+    {
+        final var id = database.addMartian("Xenomorph", Clearance.TOP_LEVEL_CLEARANCE);
+        final var successfulDeletions = new AtomicInteger();
+
+        runConcurrently(() ->
+        {
+            if (database.deleteMartian(id, Clearance.TOP_LEVEL_CLEARANCE))
+            {
+                successfulDeletions.incrementAndGet();
+            }
+            return null;
+        });
+
+        assertThat(successfulDeletions.get()).isEqualTo(1);
+        assertThat(database.retrieveMartianWithoutClearance(id)).isNull();
+        assertThat(database.count()).isEqualTo(0);
+    }
+
+    @Test
+    public void deletedEntityShouldNeverReappearWhenUpdatesRaceTheDeletion() throws Exception
+    {
+        final var ids = new ArrayList<String>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+        {
+            ids.add(database.addMartian("Fred the Martian", Clearance.MINIMAL_CLEARANCE));
+        }
+        final var replacement = new MartianEntity("Mechanised Fred", Clearance.MINIMAL_CLEARANCE);
+
+        runConcurrently(() ->
+        {
+            for (final var id : ids)
+            {
+                if (Thread.currentThread().getId() % 2 == 0)
+                {
+                    database.updateMartian(id, replacement);
+                }
+                else
+                {
+                    database.deleteMartian(id, Clearance.TOP_LEVEL_CLEARANCE);
+                }
+            }
+            return null;
+        });
+
+        final var remaining = ids.stream().filter(id -> database.retrieveMartianWithoutClearance(id) != null).count();
+        assertThat(remaining).isEqualTo(database.count());
+    }
+
+    @Test
+    public void deletionWithInsufficientClearanceShouldNeverRemoveEntityUnderContention() throws Exception
+    {
+        final var id = database.addMartian("The Arbiter", Clearance.ADVANCED_CLEARANCE);
+
+        final var results = runConcurrently(() ->
+        {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+            {
+                if (database.deleteMartian(id, Clearance.STANDARD_CLEARANCE))
+                {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        assertThat(results).allMatch(Boolean.TRUE::equals);
+        assertThat(database.retrieveMartian(id, Clearance.ADVANCED_CLEARANCE)).isNotNull();
+    }
+
+    @Test
+    public void readersShouldOnlyEverObserveCommittedEntitiesWhileWritersReplaceThem() throws Exception
+    {
+        final var original = new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        final var updated = new MartianEntity("Mechanised Moonfly", Clearance.MINIMAL_CLEARANCE);
+        final var id = database.addMartian(original.getSpecies(), original.getClearanceRequired());
+
+        final var results = runConcurrently(() ->
+        {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+            {
+                if (Thread.currentThread().getId() % 2 == 0)
+                {
+                    database.updateMartian(id, i % 2 == 0 ? updated : original);
+                }
+                else
+                {
+                    final var entity = database.retrieveMartian(id, Clearance.MINIMAL_CLEARANCE);
+                    if (entity == null)
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+
+        assertThat(results).allMatch(Boolean.TRUE::equals);
+        assertThat(database.count()).isEqualTo(1);
+    }
+
+    @Test
+    public void authorisedUpdatesShouldNeverApplyOnceAConcurrentUpdateRaisesTheRequiredClearance() throws Exception
+    {
+        final var id = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        final var locked = new MartianEntity("Locked Moon fly", Clearance.TOP_LEVEL_CLEARANCE);
+        final var lowClearanceUpdate = new MartianEntity("Tampered Moon fly", Clearance.MINIMAL_CLEARANCE);
+
+        runConcurrently(() ->
+        {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++)
+            {
+                database.updateMartianIfAuthorised(id, i == OPERATIONS_PER_THREAD / 2 ? locked : lowClearanceUpdate, Clearance.MINIMAL_CLEARANCE);
+            }
+            return null;
+        });
+
+        //Once any thread has locked the entity, a minimal clearance check can no longer pass, so no tampered update can land on top of it
+        assertThat(database.retrieveMartianWithoutClearance(id)).isEqualTo(locked);
+    }
+
+    private <T> List<T> runConcurrently(Callable<T> task) throws Exception
+    {
+        final var startGate = new CountDownLatch(1);
+        final var futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < THREADS; i++)
+        {
+            futures.add(executor.submit(() ->
+            {
+                startGate.await();
+                return task.call();
+            }));
+        }
+        startGate.countDown();
+
+        final var results = new ArrayList<T>();
+        for (final var future : futures)
+        {
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+}
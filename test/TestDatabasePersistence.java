@@ -0,0 +1,211 @@
+import database.Database;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestDatabasePersistence
+{
+    private static final String XENOMORPH = "Xenomorph";
+    private Path dataDirectory;
+    private Database database;
+
+    @Before
+    public void init() throws IOException
+    {
+        dataDirectory = Files.createTempDirectory("martian-db");
+        database = open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        database.close();
+        try (final var paths = Files.walk(dataDirectory))
+        {
+            for (final var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void reopeningDatabaseShouldReplayAddsUpdatesAndDeletesFromLog() throws IOException
+    {
+        final var xenomorphId = database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+        final var fredId = database.addMartian("Fred the Martian", Clearance.MINIMAL_CLEARANCE);
+        final var arbiterId = database.addMartian("The Arbiter", Clearance.ADVANCED_CLEARANCE);
+        database.updateMartian(xenomorphId, new MartianEntity("New and improved Xenomorph", Clearance.ADVANCED_CLEARANCE));
+        database.deleteMartian(fredId, Clearance.TOP_LEVEL_CLEARANCE);
+
+        reopen();
+
+        assertThat(database.count()).isEqualTo(2);
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId))
+                .extracting(MartianEntity::getSpecies, MartianEntity::getClearanceRequired)
+                .containsExactly("New and improved Xenomorph", Clearance.ADVANCED_CLEARANCE);
+        assertThat(database.retrieveMartianWithoutClearance(fredId)).isNull();
+        assertThat(database.retrieveMartianWithoutClearance(arbiterId).getSpecies()).isEqualTo("The Arbiter");
+        assertThat(database.getRecoveryReport().getLogRecordsReplayed()).isEqualTo(5);
+        assertThat(database.getRecoveryReport().getSnapshotEntities()).isEqualTo(0);
+    }
+
+    @Test
+    public void reopeningDatabaseShouldLoadSnapshotAndReplayLogTailOnTopOfIt() throws IOException
+    {
+        final var xenomorphId = database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+        final var fredId = database.addMartian("Fred the Martian", Clearance.MINIMAL_CLEARANCE);
+        assertThat(database.snapshot()).isEqualTo(2);
+        database.deleteMartian(xenomorphId, Clearance.TOP_LEVEL_CLEARANCE);
+        final var arbiterId = database.addMartian("The Arbiter", Clearance.ADVANCED_CLEARANCE);
+
+        reopen();
+
+        assertThat(database.getRecoveryReport().getSnapshotEntities()).isEqualTo(2);
+        assertThat(database.count()).isEqualTo(2);
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId)).isNull();
+        assertThat(database.retrieveMartianWithoutClearance(fredId)).isNotNull();
+        assertThat(database.retrieveMartianWithoutClearance(arbiterId)).isNotNull();
+    }
+
+    @Test
+    public void reopeningDatabaseShouldRestoreEntityVersionsFromSnapshotAndLog() throws IOException
+    {
+        final var xenomorphId = database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+        database.updateMartian(xenomorphId, new MartianEntity("New and improved Xenomorph", Clearance.ADVANCED_CLEARANCE));
+        database.snapshot();
+        database.updateMartian(xenomorphId, new MartianEntity(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE));
+
+        reopen();
+
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId).getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    public void takingSnapshotsShouldCompactAwayLogSegmentsNoLongerNeededForRecovery() throws IOException
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+            database.snapshot();
+        }
+
+        assertThat(logSegments()).hasSize(2);
+        reopen();
+        assertThat(database.count()).isEqualTo(3);
+    }
+
+    @Test
+    public void reopeningDatabaseWithTornLogTailShouldRecoverEveryCompleteRecord() throws IOException
+    {
+        final var xenomorphId = database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+        database.close();
+        final var latestSegment = logSegments().get(logSegments().size() - 1);
+        Files.write(latestSegment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        database = open();
+
+        assertThat(database.count()).isEqualTo(1);
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId)).isNotNull();
+    }
+
+    @Test
+    public void concurrentWritersShouldAllBeDurableOnceTheirCallsReturn() throws Exception
+    {
+        final var executor = Executors.newFixedThreadPool(8);
+        final var writers = new ArrayList<Future<?>>();
+        for (int i = 0; i < 8; i++)
+        {
+            writers.add(executor.submit(() ->
+            {
+                for (int j = 0; j < 250; j++)
+                {
+                    database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE);
+                }
+            }));
+        }
+        for (final var writer : writers)
+        {
+            writer.get();
+        }
+        executor.shutdown();
+
+        reopen();
+
+        assertThat(database.count()).isEqualTo(2_000);
+    }
+
+    @Test
+    public void reopeningDatabaseShouldKeepEachEntitysExpiry() throws IOException
+    {
+        final var mayflyId = database.addMartian("Mayfly", Clearance.MINIMAL_CLEARANCE, Duration.ofHours(1));
+        final var expiresAt = database.retrieveMartianWithoutClearance(mayflyId).getExpiresAt();
+        assertThat(database.snapshot()).isEqualTo(1);
+        final var xenomorphId = database.addMartian(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE, Duration.ofHours(2));
+
+        reopen();
+
+        assertThat(database.retrieveMartianWithoutClearance(mayflyId).getExpiresAt()).isEqualTo(expiresAt);
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId).getExpiresAt()).isGreaterThan(expiresAt);
+    }
+
+    @Test
+    public void puttingAnEntityUnderANonCanonicalIdShouldBeRejectedBeforeAnythingIsStoredOrLogged() throws IOException
+    {
+        final var canonicalId = UUID.randomUUID().toString();
+        for (final var id : List.of(canonicalId.toUpperCase(), "1-2-3-4-5", "Not a UUID"))
+        {
+            try
+            {
+                database.putMartian(id, new MartianEntity(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE, 1));
+                throw new AssertionError(String.format("Expected [%s] to be rejected", id));
+            }
+            catch (IllegalArgumentException e)
+            {
+                assertThat(database.retrieveMartianWithoutClearance(id)).isNull();
+            }
+        }
+        assertThat(database.putMartian(canonicalId, new MartianEntity(XENOMORPH, Clearance.TOP_LEVEL_CLEARANCE, 1))).isTrue();
+
+        reopen();
+
+        assertThat(database.count()).isEqualTo(1);
+        assertThat(database.retrieveMartianWithoutClearance(canonicalId).getSpecies()).isEqualTo(XENOMORPH);
+    }
+
+    private Database open() throws IOException
+    {
+        return new Database(dataDirectory, Duration.ZERO);
+    }
+
+    private void reopen() throws IOException
+    {
+        database.close();
+        database = open();
+    }
+
+    private List<Path> logSegments() throws IOException
+    {
+        try (final var paths = Files.list(dataDirectory))
+        {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+}
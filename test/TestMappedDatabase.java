@@ -0,0 +1,202 @@
+import database.Database;
+import database.StorageMode;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Runs every TestDatabase and UuidOnlyDatabaseTest case against mapped storage, plus checks specific to its files
+public class TestMappedDatabase extends UuidOnlyDatabaseTest
+{
+    //Two-, three- and four-byte UTF-8 sequences
+    private static final String MULTI_BYTE_SPECIES = "Marcianito \u00e9\u00e8 \u706b\u661f \ud83d\udc7d";
+
+    private final List<Path> storeDirectories = new ArrayList<>();
+
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.MAPPED, true);
+    }
+
+    @After
+    public void deleteStoreDirectories() throws IOException
+    {
+        for (final var directory : storeDirectories)
+        {
+            try (final var paths = Files.walk(directory))
+            {
+                for (final var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void speciesShouldRoundTripMultiByteAndLongNames()
+    {
+        try (final var database = createDatabase())
+        {
+            final var accented = database.addMartian(MULTI_BYTE_SPECIES, Clearance.MINIMAL_CLEARANCE);
+            final var longName = "Xenomorph ".repeat(5_000);
+            final var longId = database.addMartian(longName, Clearance.ADVANCED_CLEARANCE);
+
+            assertThat(database.retrieveMartianWithoutClearance(accented).getSpecies()).isEqualTo(MULTI_BYTE_SPECIES);
+            assertThat(database.retrieveMartianWithoutClearance(longId)).isEqualTo(new MartianEntity(longName, Clearance.ADVANCED_CLEARANCE));
+        }
+    }
+
+    @Test
+    public void randomisedAddsUpdatesAndDeletesShouldMatchAReferenceMapThroughRebuilds()
+    {
+        try (final var database = createDatabase())
+        {
+            final var reference = new HashMap<String, MartianEntity>();
+            final var random = new Random(42);
+            final var ids = new ArrayList<String>();
+
+            for (int i = 0; i < 100_000; i++)
+            {
+                final var operation = random.nextInt(10);
+                if (operation < 5 || ids.isEmpty())
+                {
+                    final var entity = new MartianEntity("Species " + random.nextInt(50), Clearance.values()[random.nextInt(5)]);
+                    final var id = database.addMartian(entity.getSpecies(), entity.getClearanceRequired());
+                    reference.put(id, entity);
+                    ids.add(id);
+                }
+                else if (operation < 7)
+                {
+                    final var id = ids.get(random.nextInt(ids.size()));
+                    final var entity = new MartianEntity("Updated " + random.nextInt(50), Clearance.MINIMAL_CLEARANCE);
+                    assertThat(database.updateMartian(id, entity)).isEqualTo(reference.replace(id, entity) != null);
+                }
+                else
+                {
+                    final var id = ids.get(random.nextInt(ids.size()));
+                    assertThat(database.deleteMartian(id, Clearance.TOP_LEVEL_CLEARANCE)).isEqualTo(reference.remove(id) != null);
+                }
+            }
+
+            assertThat(database.count()).isEqualTo(reference.size());
+            for (final var id : ids)
+            {
+                assertThat(database.retrieveMartianWithoutClearance(id)).isEqualTo(reference.get(id));
+            }
+            final var iterated = new HashMap<String, MartianEntity>();
+            for (final var entry : database.entities())
+            {
+                assertThat(iterated.put(entry.getKey(), entry.getValue())).isNull();
+            }
+            assertThat(iterated).isEqualTo(reference);
+        }
+    }
+
+    @Test
+    public void reopeningStoreDirectoryShouldKeepAddsUpdatesDeletesVersionsAndIndexes() throws IOException
+    {
+        final var directory = storeDirectory();
+        var database = new Database(StorageMode.MAPPED, directory, true);
+        final var xenomorphId = database.addMartian("Xenomorph", Clearance.TOP_LEVEL_CLEARANCE);
+        final var fredId = database.addMartian("Fred the Martian", Clearance.MINIMAL_CLEARANCE);
+        final var arbiterId = database.addMartian("The Arbiter", Clearance.ADVANCED_CLEARANCE);
+        database.updateMartian(xenomorphId, new MartianEntity("New and improved Xenomorph", Clearance.ADVANCED_CLEARANCE));
+        database.deleteMartian(fredId, Clearance.TOP_LEVEL_CLEARANCE);
+        database.close();
+
+        database = new Database(StorageMode.MAPPED, directory, true);
+
+        assertThat(database.count()).isEqualTo(2);
+        assertThat(database.retrieveMartianWithoutClearance(xenomorphId))
+                .extracting(MartianEntity::getSpecies, MartianEntity::getClearanceRequired, MartianEntity::getVersion)
+                .containsExactly("New and improved Xenomorph", Clearance.ADVANCED_CLEARANCE, 2L);
+        assertThat(database.retrieveMartianWithoutClearance(fredId)).isNull();
+        assertThat(database.retrieveMartianWithoutClearance(arbiterId).getSpecies()).isEqualTo("The Arbiter");
+        assertThat(database.queryMartians("The Arbiter", Clearance.TOP_LEVEL_CLEARANCE, null, 10).keySet()).containsExactly(arbiterId);
+        database.close();
+    }
+
+    @Test
+    public void reopeningStoreDirectoryShouldKeepEntitiesWrittenAcrossRebuildsAndLeaveOnlyTheLatestFiles() throws IOException
+    {
+        final var directory = storeDirectory();
+        var database = new Database(StorageMode.MAPPED, directory, false);
+        final var reference = new HashMap<String, MartianEntity>();
+        for (int i = 0; i < 20_000; i++)
+        {
+            final var entity = new MartianEntity("Species " + i, Clearance.values()[i % 5]);
+            reference.put(database.addMartian(entity.getSpecies(), entity.getClearanceRequired()), entity);
+        }
+        //Enough rewrites that every segment's log fills with superseded records and is compacted
+        for (int round = 0; round < 5; round++)
+        {
+            for (final var entry : reference.entrySet())
+            {
+                final var entity = new MartianEntity(entry.getValue().getSpecies() + " rewritten", entry.getValue().getClearanceRequired());
+                database.updateMartian(entry.getKey(), entity);
+                entry.setValue(entity);
+            }
+        }
+        database.close();
+
+        database = new Database(StorageMode.MAPPED, directory, false);
+
+        assertThat(database.count()).isEqualTo(reference.size());
+        for (final var entry : reference.entrySet())
+        {
+            assertThat(database.retrieveMartianWithoutClearance(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        final var generations = new HashSet<String>();
+        try (final var files = Files.list(directory))
+        {
+            files.forEach(file -> generations.add(file.getFileName().toString().replaceAll("\\.(index|records)$", "")));
+        }
+        assertThat(generations.size()).isEqualTo(32);
+        database.close();
+    }
+
+    @Test
+    public void reopeningStoreDirectoryShouldStillExpireEntitiesWithoutRebuildingSecondaryIndexes() throws Exception
+    {
+        final var directory = storeDirectory();
+        var database = new Database(StorageMode.MAPPED, directory, true);
+        final var id = database.addMartian("Mayfly", Clearance.MINIMAL_CLEARANCE, Duration.ofMillis(300));
+        database.close();
+
+        database = new Database(StorageMode.MAPPED, directory);
+        assertThat(database.hasSecondaryIndexes()).isFalse();
+        assertThat(database.count()).isEqualTo(1);
+
+        final var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (database.count() > 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(20);
+        }
+        assertThat(database.count()).isEqualTo(0);
+        assertThat(database.retrieveMartianWithoutClearance(id)).isNull();
+        database.close();
+    }
+
+    private Path storeDirectory() throws IOException
+    {
+        final var directory = Files.createTempDirectory("martian-mapped-test");
+        storeDirectories.add(directory);
+        return directory;
+    }
+}
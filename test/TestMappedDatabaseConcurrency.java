@@ -0,0 +1,11 @@
+import database.Database;
+import database.StorageMode;
+
+public class TestMappedDatabaseConcurrency extends TestDatabaseConcurrency
+{
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.MAPPED, true);
+    }
+}
@@ -0,0 +1,230 @@
+import api.MarsApiResource;
+import database.Database;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import serialisation.BinaryEntityCodec;
+import serialisation.JsonEngine;
+import server.ClearanceRateLimits;
+import server.MarsApiServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMarsApiServer
+{
+    private static final Path martianEntity = Path.of("resource/martianEntity.json");
+    private final Database database = new Database();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private MarsApiServer server;
+
+    @Before
+    public void init() throws IOException
+    {
+        server = new MarsApiServer(new MarsApiResource(database), new InetSocketAddress("localhost", 0), 64, 64);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        server.shutdown(Duration.ofSeconds(1));
+        database.close();
+    }
+
+    @Test
+    public void uploadingThenRetrievingOverHttpShouldReturnTheEntityWithItsETag() throws Exception
+    {
+        final var upload = send(HttpRequest.newBuilder(uri("/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString(Files.readString(martianEntity))));
+        final var id = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 1).keySet().iterator().next();
+        final var retrieved = send(HttpRequest.newBuilder(uri("/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).GET());
+
+        assertThat(upload.statusCode()).isEqualTo(200);
+        assertThat(retrieved.statusCode()).isEqualTo(200);
+        assertThat(retrieved.headers().firstValue("ETag").orElse(null)).isEqualTo("\"1\"");
+        assertThat(retrieved.headers().firstValue("Content-Type").orElse("")).startsWith("application/json");
+        assertThat(retrieved.body()).contains("clearanceRequired");
+    }
+
+    @Test
+    public void retrievingWithMatchingIfNoneMatchOverHttpShouldReturn304WithNoBody() throws Exception
+    {
+        send(HttpRequest.newBuilder(uri("/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString(Files.readString(martianEntity))));
+        final var id = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 1).keySet().iterator().next();
+        final var retrieved = send(HttpRequest.newBuilder(uri("/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).header("If-None-Match", "\"1\"").GET());
+
+        assertThat(retrieved.statusCode()).isEqualTo(304);
+        assertThat(retrieved.body()).isEmpty();
+    }
+
+    @Test
+    public void requestingAnUnknownEndpointOrUnconvertibleClearanceShouldReturn404() throws Exception
+    {
+        assertThat(send(HttpRequest.newBuilder(uri("/nothingHere")).GET()).statusCode()).isEqualTo(404);
+        assertThat(send(HttpRequest.newBuilder(uri("/retrieve/some-id/NOT_A_CLEARANCE")).GET()).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    public void queryingOverHttpShouldPassQueryParametersThroughToTheResource() throws Exception
+    {
+        database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        final var withoutClearance = send(HttpRequest.newBuilder(uri("/query?species=Moon%20fly")).GET());
+        final var withClearance = send(HttpRequest.newBuilder(uri("/query?species=Moon%20fly&clearance=MINIMAL_CLEARANCE&limit=5")).GET());
+
+        assertThat(withoutClearance.statusCode()).isEqualTo(400);
+        assertThat(withClearance.statusCode()).isEqualTo(200);
+        assertThat(withClearance.body()).contains("Moon fly");
+    }
+
+    @Test
+    public void uploadingAndRetrievingInTheBinaryFormatShouldBeNegotiatedByContentTypeAndAccept() throws Exception
+    {
+        final var entity = new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        final var upload = send(HttpRequest.newBuilder(uri("/uploadEntity")).header("Content-Type", BinaryEntityCodec.MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(BinaryEntityCodec.encode(entity))));
+        final var id = database.queryMartians(null, Clearance.TOP_LEVEL_CLEARANCE, null, 1).keySet().iterator().next();
+        final var binary = client.send(HttpRequest.newBuilder(uri("/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).header("Accept", BinaryEntityCodec.MEDIA_TYPE).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        final var json = send(HttpRequest.newBuilder(uri("/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).header("Accept", "*/*").GET());
+
+        assertThat(upload.statusCode()).isEqualTo(200);
+        assertThat(binary.headers().firstValue("Content-Type").orElse(null)).isEqualTo(BinaryEntityCodec.MEDIA_TYPE);
+        assertThat(BinaryEntityCodec.decode(binary.body(), 0, binary.body().length)).isEqualTo(entity);
+        assertThat(json.headers().firstValue("Content-Type").orElse("")).startsWith("application/json");
+    }
+
+    @Test
+    public void exportingOverHttpShouldStreamNdjsonInIdOrderAndResumeAfterTheLastIdReceived() throws Exception
+    {
+        final var ids = new ArrayList<String>();
+        for (int i = 0; i < 5; i++)
+        {
+            ids.add(database.addMartian("Moon fly " + i, Clearance.MINIMAL_CLEARANCE));
+        }
+        ids.sort(null);
+
+        final var export = send(HttpRequest.newBuilder(uri("/export/MINIMAL_CLEARANCE")).GET());
+        final var resumed = send(HttpRequest.newBuilder(uri("/export/MINIMAL_CLEARANCE?after=" + ids.get(2))).GET());
+        final var lines = export.body().split("\n");
+
+        assertThat(export.statusCode()).isEqualTo(200);
+        assertThat(export.headers().firstValue("Content-Type").orElse(null)).isEqualTo("application/x-ndjson");
+        assertThat(export.headers().firstValue("Transfer-Encoding").orElse(null)).isEqualTo("chunked");
+        assertThat(lines).hasSize(5);
+        assertThat(lines[0]).startsWith("{\"id\":\"" + ids.get(0) + "\"").contains("\"clearanceRequired\":\"MINIMAL_CLEARANCE\"", "\"version\":1");
+        assertThat(resumed.body().split("\n")).hasSize(2);
+        assertThat(resumed.body()).startsWith("{\"id\":\"" + ids.get(3) + "\"");
+        assertThat(send(HttpRequest.newBuilder(uri("/export/ACCESS_RESTRICTED")).GET()).body()).isEmpty();
+    }
+
+    @Test
+    public void longPollingForChangesOverHttpShouldAnswerAsSoonAsAChangeIsMade() throws Exception
+    {
+        final var cursor = database.getChangeFeed().getLatestSequence();
+        final var poll = client.sendAsync(HttpRequest.newBuilder(uri("/changes/MINIMAL_CLEARANCE?waitSeconds=30&after=" + cursor)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        final var id = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        final var changes = poll.get(10, TimeUnit.SECONDS);
+
+        assertThat(changes.statusCode()).isEqualTo(200);
+        assertThat(changes.headers().firstValue("Content-Type").orElse("")).startsWith("application/json");
+        assertThat(changes.body()).contains("\"type\":\"ADDED\"", "\"id\":\"" + id + "\"");
+        assertThat(send(HttpRequest.newBuilder(uri("/changes/MINIMAL_CLEARANCE?after=soon")).GET()).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    public void requestsBeyondTheirClearancesRateShouldGetA429WhileOtherClearancesAreServed() throws Exception
+    {
+        final var limits = ClearanceRateLimits.unlimited().limit(Clearance.ACCESS_RESTRICTED, 0.1, 1).limitUnnamed(0.1, 2);
+        final var limited = new MarsApiServer(new MarsApiResource(database), new InetSocketAddress("localhost", 0), 64, 64, limits, UnaryOperator.identity());
+        limited.start();
+        try
+        {
+            final var base = "http://localhost:" + limited.getPort() + MarsApiServer.CONTEXT;
+            final var id = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+            final var upload = HttpRequest.newBuilder(URI.create(base + "/uploadEntity")).POST(HttpRequest.BodyPublishers.ofString("not even JSON"));
+
+            //Uploads name no clearance, so they draw on the unnamed bucket; the third is refused before its body is looked at
+            assertThat(send(upload).statusCode()).isEqualTo(400);
+            assertThat(send(upload).statusCode()).isEqualTo(400);
+            final var refused = send(upload);
+            assertThat(refused.statusCode()).isEqualTo(429);
+            assertThat(Long.parseLong(refused.headers().firstValue("Retry-After").orElse("0"))).isBetween(1L, 10L);
+            assertThat(send(HttpRequest.newBuilder(URI.create(base + "/retrieve/" + id + "/ACCESS_RESTRICTED")).GET()).statusCode()).isEqualTo(404);
+            assertThat(send(HttpRequest.newBuilder(URI.create(base + "/retrieve/" + id + "/TOP_LEVEL_CLEARANCE")).GET()).statusCode()).isEqualTo(200);
+            //Observability endpoints are never limited
+            for (int i = 0; i < 5; i++)
+            {
+                assertThat(send(HttpRequest.newBuilder(URI.create(base + "/count")).GET()).statusCode()).isEqualTo(200);
+                assertThat(send(HttpRequest.newBuilder(URI.create(base + "/metrics")).GET()).statusCode()).isEqualTo(200);
+            }
+        }
+        finally
+        {
+            limited.shutdown(Duration.ZERO);
+        }
+    }
+
+    @Test
+    public void uploadsOverTheEntityLimitShouldGetA413WhetherOrNotTheyDeclareALength() throws Exception
+    {
+        final var path = MarsApiServer.CONTEXT + "/uploadEntity";
+        final var oversized = "x".repeat(JsonEngine.MAX_ENTITY_BYTES + 1);
+
+        //Written by hand, since a client still sending a body the server has refused can see the connection reset before the answer.
+        //The declared length alone is enough to refuse it, so no body is sent at all
+        assertThat(statusLine("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + oversized.length() + "\r\n\r\n"))
+                .isEqualTo("HTTP/1.1 413 Request Entity Too Large");
+        assertThat(statusLine("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + Integer.toHexString(oversized.length()) + "\r\n" + oversized + "\r\n0\r\n\r\n"))
+                .isEqualTo("HTTP/1.1 413 Request Entity Too Large");
+        assertThat(database.count()).isEqualTo(0);
+    }
+
+    @Test
+    public void countOverHttpShouldReflectTheDatabase() throws Exception
+    {
+        database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+        assertThat(send(HttpRequest.newBuilder(uri("/count")).GET()).body()).isEqualTo("1");
+    }
+
+    private URI uri(String path)
+    {
+        return URI.create("http://localhost:" + server.getPort() + MarsApiServer.CONTEXT + path);
+    }
+
+    private String statusLine(String request) throws IOException
+    {
+        try (final var socket = new Socket("localhost", server.getPort()))
+        {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException
+    {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
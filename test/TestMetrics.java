@@ -0,0 +1,62 @@
+import metrics.Metrics;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMetrics
+{
+    @Test
+    public void histogramQuantilesShouldBeWithinOneBucketOfTheRecordedValues()
+    {
+        final var histogram = Metrics.histogram("test_quantile_seconds", "Test histogram", "case", "uniform");
+        for (long value = 1; value <= 10_000; value++)
+        {
+            histogram.record(value * 1_000);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(10_000);
+        assertThat(histogram.quantileNanos(0.5)).isBetween(5_000_000L, 5_625_000L);
+        assertThat(histogram.quantileNanos(0.99)).isBetween(9_900_000L, 11_137_500L);
+        assertThat(histogram.quantileNanos(1.0)).isBetween(10_000_000L, 11_250_000L);
+    }
+
+    @Test
+    public void histogramShouldRecordTheExtremesOfTheLongRangeAndClampNegativeDurations()
+    {
+        final var histogram = Metrics.histogram("test_quantile_seconds", "Test histogram", "case", "extremes");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.quantileNanos(0.5)).isEqualTo(0);
+        assertThat(histogram.quantileNanos(1.0)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void registeringTheSameSeriesTwiceShouldReturnTheSameInstance()
+    {
+        final var first = Metrics.counter("test_shared_total", "Test counter", "case", "shared");
+        final var second = Metrics.counter("test_shared_total", "Test counter", "case", "shared");
+        first.increment();
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void prometheusOutputShouldIncludeHeadersLabelsAndSummaryLines()
+    {
+        Metrics.counter("test_output_total", "Counter for the output test", "case", "quote\"d", "kind", "a").add(3);
+        Metrics.histogram("test_output_seconds", "Histogram for the output test", "case", "single").record(2_000_000);
+
+        final var output = new StringBuilder();
+        Metrics.writePrometheus(output);
+
+        assertThat(output.toString())
+                .contains("# HELP test_output_total Counter for the output test\n")
+                .contains("# TYPE test_output_total counter\n")
+                .contains("test_output_total{case=\"quote\\\"d\",kind=\"a\"} 3\n")
+                .contains("# TYPE test_output_seconds summary\n")
+                .contains("test_output_seconds_count{case=\"single\"} 1\n")
+                .contains("test_output_seconds{case=\"single\",quantile=\"0.99\"} 0.002");
+    }
+}
@@ -0,0 +1,56 @@
+import database.SerialisedEntityCache;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestSerialisedEntityCache
+{
+    private static final String ID = "0b7e7dee-87be-4e3a-9ac2-3a4b5f5e1d7c";
+
+    @Test
+    public void gettingAnEntryAtTheVersionItWasCachedForShouldHit()
+    {
+        final var cache = new SerialisedEntityCache(100);
+        cache.put(ID, 3, "{\"species\":\"Xenomorph\"}");
+
+        assertThat(cache.get(ID, 3)).isEqualTo("{\"species\":\"Xenomorph\"}");
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(0);
+    }
+
+    @Test
+    public void gettingAnEntryAtADifferentVersionShouldMissRatherThanServeStaleJson()
+    {
+        final var cache = new SerialisedEntityCache(100);
+        cache.put(ID, 3, "stale");
+
+        assertThat(cache.get(ID, 4)).isNull();
+        assertThat(cache.get("Non-existent ID", 1)).isNull();
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void fillingTheCacheBeyondItsCapacityShouldEvictTheLeastRecentlyUsedEntries()
+    {
+        final var cache = new SerialisedEntityCache(16);
+        for (int i = 0; i < 1_000; i++)
+        {
+            cache.put("id-" + i, 1, "json-" + i);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+        assertThat(cache.getEvictions()).isEqualTo(1_000 - cache.size());
+        assertThat(cache.get("id-999", 1)).isEqualTo("json-999");
+        assertThat(cache.get("id-0", 1)).isNull();
+    }
+
+    @Test
+    public void cacheWithNoCapacityShouldNeverHoldEntries()
+    {
+        final var cache = new SerialisedEntityCache(0);
+        cache.put(ID, 1, "json");
+
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get(ID, 1)).isNull();
+    }
+}
@@ -0,0 +1,89 @@
+import database.Database;
+import database.ShardTaggedIds;
+import database.StorageMode;
+import models.Clearance;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Runs every TestDatabase case against a sharded database, plus checks specific to shard routing
+public class TestShardedDatabase extends TestDatabase
+{
+    private static final int SHARDS = 8;
+
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.HEAP, SHARDS);
+    }
+
+    @Test
+    public void newIdsShouldBeCanonicalUuidsThatSpreadASingleThreadsInsertsAcrossEveryShard()
+    {
+        final var routing = new ShardTaggedIds(SHARDS);
+        final var perShard = new int[SHARDS];
+        final var ids = new HashSet<String>();
+        for (int i = 0; i < 10_000; i++)
+        {
+            final var id = routing.newId();
+            assertThat(UUID.fromString(id).toString()).isEqualTo(id);
+            assertThat(UUID.fromString(id).version()).isEqualTo(4);
+            perShard[routing.shardOf(id)]++;
+            ids.add(id);
+        }
+        assertThat(ids).hasSize(10_000);
+        for (final var count : perShard)
+        {
+            assertThat(count).isBetween(10_000 / SHARDS / 2, 10_000 / SHARDS * 2);
+        }
+    }
+
+    @Test
+    public void idsMintedElsewhereShouldRouteDeterministicallyToAValidShard()
+    {
+        final var routing = new ShardTaggedIds(SHARDS);
+        final var foreignIds = new String[]{UUID.randomUUID().toString(), "Non-existent ID", "", "zzzzzzzz-zzzz-zzzz-zzzz-zzzzzzzzzzzz"};
+        for (final var id : foreignIds)
+        {
+            final var shard = routing.shardOf(id);
+            assertThat(shard).isBetween(0, SHARDS - 1);
+            assertThat(routing.shardOf(id)).isEqualTo(shard);
+        }
+    }
+
+    @Test
+    public void entitiesAddedFromManyThreadsShouldAllBeCountedAndRetrievableAcrossShards() throws InterruptedException
+    {
+        final var database = createDatabase();
+        final var threads = new Thread[SHARDS * 2];
+        final var ids = new String[threads.length][500];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final var slot = t;
+            threads[t] = new Thread(() ->
+            {
+                for (int i = 0; i < ids[slot].length; i++)
+                {
+                    ids[slot][i] = database.addMartian("Moon fly", Clearance.MINIMAL_CLEARANCE);
+                }
+            });
+            threads[t].start();
+        }
+        for (final var thread : threads)
+        {
+            thread.join();
+        }
+
+        assertThat(database.count()).isEqualTo(threads.length * 500);
+        for (final var threadIds : ids)
+        {
+            for (final var id : threadIds)
+            {
+                assertThat(database.retrieveMartian(id, Clearance.MINIMAL_CLEARANCE)).isNotNull();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import database.Database;
+import database.ShardTaggedIds;
+import database.StorageMode;
+
+public class TestShardedDatabaseConcurrency extends TestDatabaseConcurrency
+{
+    @Override
+    protected Database createDatabase()
+    {
+        return new Database(StorageMode.COMPACT, new ShardTaggedIds(8), true);
+    }
+}
@@ -0,0 +1,53 @@
+import database.Database;
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Every TestDatabase case plus the ones for storage that only holds canonical UUID ids, shared by each mode that keeps ids that way
+public abstract class UuidOnlyDatabaseTest extends TestDatabase
+{
+    @Override
+    protected abstract Database createDatabase();
+
+    @Test
+    public void attemptingToRetrieveEntityWithNonUuidOrUpperCaseIdShouldReturnNull()
+    {
+        try (final var database = createDatabase())
+        {
+            final var id = database.addMartian("Xenomorph", Clearance.MINIMAL_CLEARANCE);
+
+            assertThat(database.retrieveMartianWithoutClearance(id.toUpperCase())).isNull();
+            assertThat(database.retrieveMartianWithoutClearance("Non-existent ID")).isNull();
+            assertThat(database.retrieveMartianWithoutClearance(UUID.randomUUID().toString())).isNull();
+        }
+    }
+
+    @Test
+    public void puttingAnEntityUnderANonUuidIdShouldBeRejectedBeforeAnythingIsPublishedOrIndexed() throws Exception
+    {
+        try (final var database = createDatabase())
+        {
+            final var feed = database.getChangeFeed().subscribe(Clearance.TOP_LEVEL_CLEARANCE, database.getChangeFeed().getLatestSequence());
+            var rejected = false;
+            try
+            {
+                database.putMartian("Non-existent ID", new MartianEntity("Xenomorph", Clearance.MINIMAL_CLEARANCE));
+            }
+            catch (IllegalArgumentException e)
+            {
+                rejected = true;
+            }
+
+            assertThat(rejected).isTrue();
+            assertThat(database.acceptsId("Non-existent ID")).isFalse();
+            assertThat(feed.poll(1000, Duration.ZERO).size()).isEqualTo(0);
+            assertThat(database.queryMartians("Xenomorph", Clearance.TOP_LEVEL_CLEARANCE, null, 10).size()).isEqualTo(0);
+            assertThat(database.count()).isEqualTo(0);
+        }
+    }
+}
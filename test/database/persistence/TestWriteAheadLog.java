@@ -0,0 +1,245 @@
+package database.persistence;
+
+import models.Clearance;
+import models.MartianEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//In the log's own package, since failures have to be injected beneath it
+public class TestWriteAheadLog
+{
+    private static final MartianEntity MOON_FLY = new MartianEntity("Moon fly", Clearance.MINIMAL_CLEARANCE);
+
+    private Path directory;
+    private FaultyChannel channel;
+    private WriteAheadLog log;
+
+    @Before
+    public void init() throws IOException
+    {
+        directory = Files.createTempDirectory("martian-wal");
+        log = new WriteAheadLog(directory, 1, path ->
+        {
+            channel = new FaultyChannel(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            return channel;
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        log.close();
+        try (final var paths = Files.walk(directory))
+        {
+            for (final var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void recordsAcknowledgedAfterAPartialWriteShouldSurviveReplay() throws IOException
+    {
+        final var before = UUID.randomUUID().toString();
+        final var torn = UUID.randomUUID().toString();
+        final var after = UUID.randomUUID().toString();
+        log.append(RecordCodec.encode(RecordCodec.ADD, before, MOON_FLY)).join();
+
+        channel.failNextWrite = true;
+        assertThat(failed(log.append(RecordCodec.encode(RecordCodec.ADD, torn, MOON_FLY)))).isTrue();
+        log.append(RecordCodec.encode(RecordCodec.ADD, after, MOON_FLY)).join();
+        log.close();
+
+        assertThat(replayedIds()).containsExactly(before, after);
+    }
+
+    @Test
+    public void aFailureThatCannotBeCutBackShouldRefuseEveryLaterWrite() throws IOException
+    {
+        final var before = UUID.randomUUID().toString();
+        log.append(RecordCodec.encode(RecordCodec.ADD, before, MOON_FLY)).join();
+
+        channel.failNextWrite = true;
+        channel.failTruncate = true;
+        assertThat(failed(log.append(RecordCodec.encode(RecordCodec.ADD, UUID.randomUUID().toString(), MOON_FLY)))).isTrue();
+        assertThat(failed(log.append(RecordCodec.encode(RecordCodec.ADD, UUID.randomUUID().toString(), MOON_FLY)))).isTrue();
+        log.close();
+
+        assertThat(replayedIds()).containsExactly(before);
+    }
+
+    private static boolean failed(CompletableFuture<Long> written)
+    {
+        return written.handle((generation, failure) -> failure != null).join();
+    }
+
+    private List<String> replayedIds() throws IOException
+    {
+        final var ids = new ArrayList<String>();
+        WriteAheadLog.replay(directory, 0, new RecoverySink()
+        {
+            @Override
+            public void put(String id, MartianEntity entity)
+            {
+                ids.add(id);
+            }
+
+            @Override
+            public void remove(String id)
+            {
+                ids.remove(id);
+            }
+        });
+        return ids;
+    }
+
+    //Writes half of what it is given and then fails, as a full disk or a failing device can
+    private static final class FaultyChannel extends FileChannel
+    {
+        private final FileChannel delegate;
+        private volatile boolean failNextWrite;
+        private volatile boolean failTruncate;
+
+        private FaultyChannel(FileChannel delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException
+        {
+            if (!failNextWrite)
+            {
+                return delegate.write(source);
+            }
+            failNextWrite = false;
+            final var half = source.duplicate();
+            half.limit(half.position() + half.remaining() / 2);
+            source.position(source.position() + delegate.write(half));
+            throw new IOException("Injected partial write");
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException
+        {
+            if (failTruncate)
+            {
+                throw new IOException("Injected truncate failure");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException
+        {
+            return delegate.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException
+        {
+            return delegate.read(destinations, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException
+        {
+            return delegate.write(sources, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException
+        {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException
+        {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+        {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException
+        {
+            return delegate.transferFrom(source, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException
+        {
+            return delegate.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException
+        {
+            return delegate.write(source, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException
+        {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException
+        {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException
+        {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            delegate.close();
+        }
+    }
+}